@@ -0,0 +1,795 @@
+The project has two kinds of tests: PatientServiceTest with a mocked DAO, and PatientServiceIntegrationTest on H2. Both check that the code is correct, but neither says how fast it is. A change that doubles the cost of getPatient() or triples the allocation per profile page passes every test and is only noticed in production.
+
+In this part, we'll add a separate benchmark module based on JMH (Java Microbenchmark Harness). JMH handles the hard parts of measuring Java code: warm-up until the JIT has compiled the code, separate JVM forks, preventing dead-code elimination, and error margins for every result.
+
+The module measures the hot paths of the application:
+
+PatientService.getPatient() and addPatient() through the real Spring Data DAO on an embedded H2 database, with the patient cache on and off.
+DatabaseConnection.insertPatient() through the connection pool.
+UserProfile construction and the session form of the profile: encoding, field decoding and Java serialization.
+Rendering the profile page: DisplayUserProfileServlet and userProfile.jsp in an embedded Tomcat, as a full page and as a 304.
+
+The benchmarks live in their own Maven module, so JMH never ends up in the WAR file.
+
+
+
+1. Module Layout
+
+
+healthcare-management/
+    pom.xml                      (the application, packaging war)
+    src/main/java/...
+    src/main/webapp/...
+    benchmarks/
+        pom.xml                  (this module)
+        src/main/java/com/healthcare/benchmark/
+            BenchmarkApplication.java
+            PatientServiceBenchmark.java
+            DatabaseConnectionBenchmark.java
+            UserProfileBenchmark.java
+            ProfilePageBenchmark.java
+            CompareResults.java
+
+
+The application is a WAR, so its classes are not available as a normal dependency. Add attachClasses to the maven-war-plugin in the application's pom.xml; Maven then also publishes the classes as a jar with the "classes" classifier:
+
+
+<plugin>
+    <groupId>org.apache.maven.plugins</groupId>
+    <artifactId>maven-war-plugin</artifactId>
+    <configuration>
+        <attachClasses>true</attachClasses>
+    </configuration>
+</plugin>
+
+
+
+2. Benchmark Module (benchmarks/pom.xml)
+The shade plugin packages everything into one executable benchmarks.jar. JMH's annotation processor generates the benchmark code at compile time.
+
+
+<project xmlns="http://maven.apache.org/POM/4.0.0"
+         xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
+         xsi:schemaLocation="http://maven.apache.org/POM/4.0.0 http://maven.apache.org/xsd/maven-4.0.0.xsd">
+    <modelVersion>4.0.0</modelVersion>
+
+    <groupId>com.healthcare</groupId>
+    <artifactId>healthcare-benchmarks</artifactId>
+    <version>1.0-SNAPSHOT</version>
+    <packaging>jar</packaging>
+
+    <properties>
+        <jmh.version>1.37</jmh.version>
+        <maven.compiler.source>1.8</maven.compiler.source>
+        <maven.compiler.target>1.8</maven.compiler.target>
+    </properties>
+
+    <dependencies>
+        <dependency>
+            <groupId>com.healthcare</groupId>
+            <artifactId>healthcare-management</artifactId>
+            <version>1.0-SNAPSHOT</version>
+            <classifier>classes</classifier>
+        </dependency>
+        <dependency>
+            <groupId>org.openjdk.jmh</groupId>
+            <artifactId>jmh-core</artifactId>
+            <version>${jmh.version}</version>
+        </dependency>
+        <dependency>
+            <groupId>org.openjdk.jmh</groupId>
+            <artifactId>jmh-generator-annprocess</artifactId>
+            <version>${jmh.version}</version>
+            <scope>provided</scope>
+        </dependency>
+        <dependency>
+            <groupId>org.springframework.boot</groupId>
+            <artifactId>spring-boot-starter-data-jpa</artifactId>
+            <version>2.7.18</version>
+        </dependency>
+        <dependency>
+            <groupId>com.github.ben-manes.caffeine</groupId>
+            <artifactId>caffeine</artifactId>
+            <version>2.9.3</version>
+        </dependency>
+        <dependency>
+            <groupId>com.h2database</groupId>
+            <artifactId>h2</artifactId>
+            <version>2.2.224</version>
+        </dependency>
+        <dependency>
+            <groupId>org.apache.tomcat.embed</groupId>
+            <artifactId>tomcat-embed-jasper</artifactId>
+            <version>9.0.83</version>
+        </dependency>
+        <dependency>
+            <groupId>javax.servlet.jsp.jstl</groupId>
+            <artifactId>javax.servlet.jsp.jstl-api</artifactId>
+            <version>1.2.1</version>
+        </dependency>
+        <dependency>
+            <groupId>org.glassfish</groupId>
+            <artifactId>jstl</artifactId>
+            <version>1.2.0</version>
+        </dependency>
+    </dependencies>
+
+    <build>
+        <plugins>
+            <plugin>
+                <groupId>org.apache.maven.plugins</groupId>
+                <artifactId>maven-shade-plugin</artifactId>
+                <version>3.5.1</version>
+                <executions>
+                    <execution>
+                        <phase>package</phase>
+                        <goals>
+                            <goal>shade</goal>
+                        </goals>
+                        <configuration>
+                            <finalName>benchmarks</finalName>
+                            <transformers>
+                                <transformer implementation="org.apache.maven.plugins.shade.resource.ManifestResourceTransformer">
+                                    <mainClass>org.openjdk.jmh.Main</mainClass>
+                                </transformer>
+                                <transformer implementation="org.apache.maven.plugins.shade.resource.ServicesResourceTransformer"/>
+                                <transformer implementation="org.apache.maven.plugins.shade.resource.AppendingTransformer">
+                                    <resource>META-INF/spring.factories</resource>
+                                </transformer>
+                                <transformer implementation="org.apache.maven.plugins.shade.resource.AppendingTransformer">
+                                    <resource>META-INF/spring/org.springframework.boot.autoconfigure.AutoConfiguration.imports</resource>
+                                </transformer>
+                            </transformers>
+                            <filters>
+                                <filter>
+                                    <artifact>*:*</artifact>
+                                    <excludes>
+                                        <exclude>META-INF/*.SF</exclude>
+                                        <exclude>META-INF/*.DSA</exclude>
+                                        <exclude>META-INF/*.RSA</exclude>
+                                    </excludes>
+                                </filter>
+                            </filters>
+                        </configuration>
+                    </execution>
+                </executions>
+            </plugin>
+        </plugins>
+    </build>
+</project>
+
+
+The spring.factories and AutoConfiguration.imports files are merged rather than overwritten. Without that, Spring Boot's auto-configuration disappears from the shaded jar.
+
+
+
+3. Spring Context for the Benchmarks (BenchmarkApplication.java)
+A minimal Spring Boot configuration with only the patient parts: the JPA repositories, PatientService and the patient cache. Scanning all of com.healthcare.management would also pick up the controllers and the appointment services, which the benchmarks do not need.
+
+
+package com.healthcare.benchmark;
+
+import com.healthcare.management.cache.PatientCacheConfig;
+import com.healthcare.management.dao.PatientDAO;
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.service.PatientService;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+@SpringBootConfiguration
+@EnableAutoConfiguration
+@EntityScan(basePackageClasses = Patient.class)
+@EnableJpaRepositories(basePackageClasses = PatientDAO.class)
+@Import({PatientService.class, PatientCacheConfig.class})
+public class BenchmarkApplication {
+
+    // Starts a context on a private in-memory H2 database
+    public static ConfigurableApplicationContext start(String databaseName, boolean patientCache) {
+        return new SpringApplicationBuilder(BenchmarkApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.datasource.url=jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1",
+                        "spring.jpa.hibernate.ddl-auto=create-drop",
+                        "spring.jpa.open-in-view=false",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN",
+                        "healthcare.patient-cache.enabled=" + patientCache)
+                .run();
+    }
+}
+
+
+
+4. PatientService Benchmark (PatientServiceBenchmark.java)
+The setup inserts PATIENTS rows once per fork. getPatient() reads a random existing patient, so the cache-enabled run measures a realistic mix of hits rather than a single hot entry.
+
+The cacheEnabled parameter runs every benchmark twice, with and without the patient cache, so the two results appear next to each other in the report.
+
+addPatient() inserts a new row on every call. The table grows during the measurement, but with an IDENTITY key and no secondary indexes, the cost of an insert does not depend on the table size.
+
+
+package com.healthcare.benchmark;
+
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.service.PatientService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PatientServiceBenchmark {
+
+    private static final int PATIENTS = 10_000;
+
+    @Param({"false", "true"})
+    public boolean cacheEnabled;
+
+    private ConfigurableApplicationContext context;
+    private PatientService patientService;
+    private Long[] patientIds;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkApplication.start("patients", cacheEnabled);
+        patientService = context.getBean(PatientService.class);
+
+        List<Long> ids = new ArrayList<>(PATIENTS);
+        for (int i = 0; i < PATIENTS; i++) {
+            Patient saved = patientService.addPatient(
+                    new Patient(null, "Patient " + i, "patient" + i + "@example.com", "555-" + i));
+            ids.add(saved.getPatientId());
+        }
+        patientIds = ids.toArray(new Long[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Patient getPatient() {
+        Long id = patientIds[ThreadLocalRandom.current().nextInt(patientIds.length)];
+        return patientService.getPatient(id);
+    }
+
+    @Benchmark
+    public Patient addPatient() {
+        int n = ThreadLocalRandom.current().nextInt(1_000_000);
+        return patientService.addPatient(new Patient(null, "New Patient " + n, "new" + n + "@example.com", "555-" + n));
+    }
+}
+
+
+Returning the result from each @Benchmark method hands it to JMH, which consumes it. Otherwise the JIT could notice the result is unused and remove the call.
+
+
+
+5. DatabaseConnection Benchmark (DatabaseConnectionBenchmark.java)
+This measures DatabaseConnection.insertPatient() through the pool from "connection pool for DatabaseConnection": borrowing a connection, preparing the statement, one INSERT with auto-commit, and returning the connection.
+
+Run it with several threads (-t 8) to see the pool under contention; the pool metrics printed at the end show how long threads waited for a connection.
+
+
+package com.healthcare.benchmark;
+
+import com.healthcare.db.ConnectionPool;
+import com.healthcare.db.DatabaseConnection;
+import com.healthcare.db.PoolConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DatabaseConnectionBenchmark {
+
+    @Param({"10"})
+    public int poolSize;
+
+    private ConnectionPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        PoolConfig config = new PoolConfig("jdbc:h2:mem:jdbc;DB_CLOSE_DELAY=-1", "sa", "");
+        config.setMaxPoolSize(poolSize);
+        pool = new ConnectionPool(config);
+        DatabaseConnection.init(pool);
+
+        try (Connection con = pool.getConnection(); Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE patients ("
+                    + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                    + "name VARCHAR(100), age INT, disease VARCHAR(255))");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println("Pool: " + pool.getMetrics());
+        pool.close();
+    }
+
+    @Benchmark
+    public void insertPatient() {
+        DatabaseConnection.insertPatient("John Doe", 30, "Flu");
+    }
+}
+
+
+insertPatient() returns nothing, so there is nothing for the JIT to eliminate: the INSERT is a side effect it has to keep.
+
+
+
+6. UserProfile Benchmark (UserProfileBenchmark.java)
+Since "off-heap session profile store", the session does not hold the UserProfile itself but a CompactSessionProfile. That is also the object that is serialized when the container persists the session or the external session store writes it. So this benchmark covers both forms:
+
+construct: a plain UserProfile, the baseline.
+encode: building the CompactSessionProfile at login (UTF-8 encoding plus a direct buffer).
+decodeFullName: one getter call, which is what each EL expression on the profile page costs.
+serialize / deserialize: the Java serialization round trip of the session attribute.
+
+@State(Scope.Thread) gives every benchmark thread its own objects, so the measurement does not include contention that real sessions never have.
+
+
+package com.healthcare.benchmark;
+
+import com.healthcare.model.UserProfile;
+import com.healthcare.session.CompactSessionProfile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UserProfileBenchmark {
+
+    private static final String[] HISTORY = {"High blood pressure", "Asthma"};
+    private static final String[] APPOINTMENTS = {"2025-02-10 - Dr. Smith", "2025-03-15 - Dr. Lee"};
+
+    // Not final, so the JIT cannot treat the inputs as constants
+    private String fullName = "John Doe";
+    private String email = "user@example.com";
+
+    private UserProfile profile;
+    private CompactSessionProfile compact;
+    private byte[] serialized;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        profile = new UserProfile(fullName, email, "Male", "30");
+        compact = CompactSessionProfile.encode(profile, HISTORY, APPOINTMENTS);
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public UserProfile construct() {
+        return new UserProfile(fullName, email, "Male", "30");
+    }
+
+    @Benchmark
+    public CompactSessionProfile encode() {
+        return CompactSessionProfile.encode(profile, HISTORY, APPOINTMENTS);
+    }
+
+    @Benchmark
+    public String decodeFullName() {
+        return compact.getFullName();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(compact);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+}
+
+
+
+7. Profile Page Render Benchmark (ProfilePageBenchmark.java)
+This starts an embedded Tomcat with only the parts needed for the profile page: LoginServlet, DisplayUserProfileServlet, the JSP engine and the ConditionalGet listener from "conditional GET with ETags". The JSPs are read from the application's src/main/webapp directory (override with -Dbenchmark.webapp=...).
+
+LoginServlet checks the password against the user_account table (see "password hashing"), so the server also gets the DatabaseContextListener on an in-memory H2 database and the PasswordHashingContextListener. The account for user@example.com is created after startup.
+
+The setup logs in once and keeps the session cookie. Each benchmark call is then one HTTP request over a keep-alive connection:
+
+fullPage: no validator, so the servlet forwards to userProfile.jsp and the page is rendered.
+notModified: sends the page's ETag, so the servlet answers 304 without running the JSP.
+
+The difference between the two is the cost of the JSP render. The numbers include the loopback HTTP round trip, which is the same for both.
+
+
+package com.healthcare.benchmark;
+
+import com.healthcare.db.DatabaseConnection;
+import com.healthcare.security.Pbkdf2PasswordHasher;
+import com.healthcare.servlet.DatabaseContextListener;
+import com.healthcare.servlet.DisplayUserProfileServlet;
+import com.healthcare.servlet.LoginServlet;
+import com.healthcare.servlet.PasswordHashingContextListener;
+import com.healthcare.servlet.conditional.ConditionalGetContextListener;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.jasper.servlet.JasperInitializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ProfilePageBenchmark {
+
+    private Tomcat tomcat;
+    private String baseUrl;
+    private String sessionCookie;
+    private String etag;
+
+    @Setup(Level.Trial)
+    public void setUp() throws LifecycleException, IOException, SQLException {
+        File webapp = new File(System.getProperty("benchmark.webapp", "../src/main/webapp")).getCanonicalFile();
+
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createTempDirectory("tomcat").toString());
+        tomcat.setPort(0);
+        tomcat.getConnector(); // creates the default HTTP connector
+
+        Context context = tomcat.addContext("", webapp.getPath());
+        Tomcat.initWebappDefaults(context); // default servlet and the JSP servlet for *.jsp
+        context.addServletContainerInitializer(new JasperInitializer(), null);
+        context.addParameter("db.url", "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+        context.addParameter("db.user", "sa");
+        context.addParameter("db.password", "");
+        context.addApplicationListener(DatabaseContextListener.class.getName());
+        context.addApplicationListener(PasswordHashingContextListener.class.getName());
+        context.addApplicationListener(ConditionalGetContextListener.class.getName());
+
+        Tomcat.addServlet(context, "login", new LoginServlet());
+        context.addServletMappingDecoded("/LoginServlet", "login");
+        Tomcat.addServlet(context, "profile", new DisplayUserProfileServlet());
+        context.addServletMappingDecoded("/DisplayUserProfileServlet", "profile");
+
+        tomcat.start();
+        baseUrl = "http://localhost:" + tomcat.getConnector().getLocalPort();
+
+        createAccount();
+        sessionCookie = login();
+        HttpURLConnection first = get(null);
+        etag = first.getHeaderField("ETag");
+        drain(first);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    @Benchmark
+    public int fullPage() throws IOException {
+        return drain(get(null));
+    }
+
+    @Benchmark
+    public int notModified() throws IOException {
+        return drain(get(etag));
+    }
+
+    // The account that login() uses; the hash has the listener's default cost, so no rehash is started
+    private static void createAccount() throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection(); Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS user_account (email VARCHAR(255) PRIMARY KEY, "
+                    + "full_name VARCHAR(100) NOT NULL, gender VARCHAR(10), age VARCHAR(3), "
+                    + "password_hash VARCHAR(255) NOT NULL)");
+            try (PreparedStatement pst = con.prepareStatement("MERGE INTO user_account "
+                    + "(email, full_name, gender, age, password_hash) VALUES (?, ?, ?, ?, ?)")) {
+                pst.setString(1, "user@example.com");
+                pst.setString(2, "John Doe");
+                pst.setString(3, "Male");
+                pst.setString(4, "30");
+                pst.setString(5, new Pbkdf2PasswordHasher(600_000).hash("password123".toCharArray()));
+                pst.executeUpdate();
+            }
+        }
+    }
+
+    private String login() throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + "/LoginServlet").openConnection();
+        con.setInstanceFollowRedirects(false);
+        con.setRequestMethod("POST");
+        con.setDoOutput(true);
+        con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        try (OutputStream out = con.getOutputStream()) {
+            out.write("email=user%40example.com&password=password123".getBytes(StandardCharsets.UTF_8));
+        }
+        String cookie = con.getHeaderField("Set-Cookie");
+        drain(con);
+        if (cookie == null) {
+            throw new IllegalStateException("Login did not create a session");
+        }
+        return cookie.substring(0, cookie.indexOf(';'));
+    }
+
+    private HttpURLConnection get(String ifNoneMatch) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + "/DisplayUserProfileServlet").openConnection();
+        con.setInstanceFollowRedirects(false);
+        con.setRequestProperty("Cookie", sessionCookie);
+        if (ifNoneMatch != null) {
+            con.setRequestProperty("If-None-Match", ifNoneMatch);
+        }
+        return con;
+    }
+
+    // Reads the whole body so the keep-alive connection can be reused; returns the byte count
+    private static int drain(HttpURLConnection con) throws IOException {
+        int status = con.getResponseCode();
+        InputStream body = status >= 400 ? con.getErrorStream() : con.getInputStream();
+        if (body == null) {
+            return 0;
+        }
+        int total = 0;
+        byte[] buffer = new byte[8192];
+        try (InputStream in = body) {
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                total += n;
+            }
+        }
+        return total;
+    }
+}
+
+
+The first request in setUp() also makes Jasper compile userProfile.jsp, so the compilation is not part of the warm-up numbers.
+
+
+
+8. Comparing Two Runs (CompareResults.java)
+A benchmark is only useful for catching regressions if results are compared. This small program reads two JMH CSV result files (a baseline from the main branch and a candidate from the change) and flags every score that got worse by more than a threshold (10% by default) where the error margins do not overlap. Its exit code is 1 if there is a regression, so it can fail a CI job.
+
+Which way is worse depends on the Unit column. A throughput score (ops/us, ops/s) is better when it is higher; a time or allocation per operation (us/op, B/op) is better when it is lower. Results in any other unit, such as gc.alloc.rate in MB/sec or gc.count, are printed but never flagged: a rate per second rises when the benchmark gets faster.
+
+
+package com.healthcare.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CompareResults {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <baseline.csv> <candidate.csv> [threshold, default 0.10]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+
+        Map<String, Result> baseline = read(args[0]);
+        Map<String, Result> candidate = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Result> entry : candidate.entrySet()) {
+            Result before = baseline.get(entry.getKey());
+            if (before == null) {
+                continue;
+            }
+            Result after = entry.getValue();
+            double change = (after.score - before.score) / before.score;
+            String verdict;
+            if (!after.unit.equals(before.unit) || after.higherIsBetter() == null) {
+                verdict = "(not compared)";
+            } else if (isRegression(before, after, threshold)) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else {
+                verdict = "";
+            }
+            System.out.printf("%-70s %12.3f -> %12.3f %-8s %+6.1f%% %s%n",
+                    entry.getKey(), before.score, after.score, after.unit, change * 100, verdict);
+        }
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    // Worse by more than the threshold, and the error intervals do not overlap
+    static boolean isRegression(Result before, Result after, double threshold) {
+        if (after.higherIsBetter()) {
+            return (before.score - after.score) / before.score > threshold
+                    && after.score + after.error < before.score - before.error;
+        }
+        return (after.score - before.score) / before.score > threshold
+                && after.score - after.error > before.score + before.error;
+    }
+
+    // Key: benchmark name, mode and parameter values
+    static Map<String, Result> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        List<String> header = parseLine(lines.get(0));
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            List<String> cells = parseLine(line);
+            StringBuilder key = new StringBuilder(cells.get(0)).append(' ').append(cells.get(1));
+            for (int i = 7; i < cells.size(); i++) {
+                // "Param: name" columns
+                key.append(' ').append(header.get(i).substring("Param: ".length())).append('=').append(cells.get(i));
+            }
+            String error = cells.get(5);
+            results.put(key.toString(), new Result(Double.parseDouble(cells.get(4)),
+                    error.isEmpty() || "NaN".equals(error) ? 0 : Double.parseDouble(error), cells.get(6)));
+        }
+        return results;
+    }
+
+    // One CSV line as JMH writes it: fields may be quoted, and a quote inside a quoted field is doubled
+    static List<String> parseLine(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    cell.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    static final class Result {
+        final double score;
+        final double error;
+        final String unit;
+
+        Result(double score, double error, String unit) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        // True for ops/time, false for time or bytes per operation, null for units that have no better direction
+        Boolean higherIsBetter() {
+            if (unit.startsWith("ops/")) {
+                return true;
+            }
+            if (unit.endsWith("/op")) {
+                return false;
+            }
+            return null;
+        }
+    }
+}
+
+
+Secondary results from profilers have the benchmark name followed by ":" and a metric name, so they are compared by their own key. Of the -prof gc lines, only gc.alloc.rate.norm (B/op) can be flagged; the others have no better direction and are only printed.
+
+
+
+9. Running the Benchmarks
+Build the application first (so the "classes" jar is installed), then the module:
+
+
+mvn -q install -DskipTests
+cd benchmarks
+mvn -q package
+java -jar target/benchmarks.jar
+
+
+Useful options:
+
+
+java -jar target/benchmarks.jar PatientServiceBenchmark        # only the matching benchmarks (regex)
+java -jar target/benchmarks.jar -p cacheEnabled=true           # fix a @Param value
+java -jar target/benchmarks.jar DatabaseConnection -t 8        # 8 benchmark threads
+java -jar target/benchmarks.jar -f 1 -wi 2 -i 3                # quick run while developing
+java -jar target/benchmarks.jar -lprof                         # list the available profilers
+
+
+Profiles:
+
+GC and allocation: -prof gc adds the allocation rate and the GC count and time to each result. The most useful line is gc.alloc.rate.norm, the number of bytes allocated per operation. Unlike the time, it hardly changes between machines, which makes it a good value to track.
+Stacks: -prof stack samples the thread stacks and prints where time is spent, without any extra tools.
+Flame graphs: -prof async:libPath=/path/to/libasyncProfiler.so;output=flamegraph (Linux and macOS, with async-profiler installed) writes an HTML flame graph per benchmark. Add event=alloc for an allocation flame graph.
+JIT and GC settings: -jvmArgs "-Xmx1g -XX:+UseG1GC" runs the forks with the same heap and collector as production, so GC behaviour is comparable.
+
+For example, the allocation per profile page render:
+
+
+java -jar target/benchmarks.jar ProfilePageBenchmark -prof gc
+
+
+Checking a change before deployment:
+
+
+git checkout main
+java -jar target/benchmarks.jar -prof gc -rf csv -rff baseline.csv
+git checkout my-change
+java -jar target/benchmarks.jar -prof gc -rf csv -rff candidate.csv
+java -cp target/benchmarks.jar com.healthcare.benchmark.CompareResults baseline.csv candidate.csv
+
+
+Run both on the same machine, with nothing else running. Results from a laptop and a CI server cannot be compared with each other.
+
+
+
+Explanation:
+Separate module: JMH, the embedded Tomcat and the shade plugin are only in the benchmarks module. The application WAR is unchanged except for the attached classes jar.
+Real components: the service benchmarks go through Spring Data JPA, Hibernate and the connection pool on H2, so they show the cost of our code plus its frameworks. They do not measure the network or MySQL.
+Forks and warm-up: each benchmark runs in two fresh JVMs after five warm-up iterations, so JIT compilation and one-off effects do not distort the results.
+Allocation: -prof gc reports bytes allocated per operation, which catches changes that add garbage even when the timing stays within its error margin.
+Regressions: CompareResults compares a candidate run with a baseline and fails if a time, throughput or allocation score got worse beyond the threshold and the error margins. Rates per second from the profilers are not judged.
+
+
+
+Summary
+The new benchmarks module measures PatientService, DatabaseConnection.insertPatient, the UserProfile session form and the profile page render with JMH. With -prof gc for allocation and CompareResults for baseline comparison, a performance regression shows up as a number before the change is deployed, instead of as a slow page in production.
@@ -0,0 +1,444 @@
+ViewPatientServlet.doGet and UpdatePatientServlet.doGet look up a patient and forward to a JSP. Once the mock data is replaced by a real PatientService lookup, each request holds a container thread for the whole time the JDBC query is running. The number of lookups that can be in flight at once is then capped by the connector's thread count (200 by default in Tomcat), even though those threads spend nearly all their time waiting on the database.
+
+In this part, we'll add an asynchronous execution mode for these two servlets:
+
+The servlet calls request.startAsync(), hands the blocking lookup to an executor, and returns its container thread to the pool right away.
+The executor uses virtual threads (JDK 21 and later), so thousands of waiting lookups cost very little memory and no platform threads. On older JDKs it falls back to a bounded pool of platform threads.
+When the lookup finishes, the request is dispatched to the JSP exactly as before.
+Every request has a configurable timeout. A lookup that takes too long is cancelled and the client receives 503.
+The mode is switched on with a context parameter; without it the servlets work synchronously as before.
+
+
+
+1. The Lookup Executor (PatientLookupExecutor.java)
+The executor is created once per application. Executors.newVirtualThreadPerTaskExecutor() is looked up by reflection, so the same build runs on JDK 8 and uses virtual threads automatically when started on JDK 21 or later.
+
+The in-flight counter shows how many lookups are currently queued, running or waiting for a database connection. It is decremented in FutureTask.done(), which runs exactly once whether the lookup finishes, fails or is cancelled, including a lookup that times out while it is still queued for a thread of the fallback pool. A lookup the executor rejects (during shutdown) is taken off the counter again before the exception is rethrown.
+
+
+package com.healthcare.servlet.async;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PatientLookupExecutor implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final long timeoutMs;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public PatientLookupExecutor(long timeoutMs, int fallbackPoolSize) {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(fallbackPoolSize);
+        this.timeoutMs = timeoutMs;
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> future = new FutureTask<T>(task) {
+            @Override
+            protected void done() {
+                inFlight.decrementAndGet();
+            }
+        };
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            throw e;
+        }
+        return future;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null; // JDK without virtual threads
+        }
+    }
+}
+
+
+
+2. Running a Lookup Asynchronously (AsyncPatientLookup.java)
+This helper contains the asynchronous flow, so both servlets share it:
+
+startAsync(request, response) is called with the request and response objects the servlet received. This keeps any wrappers installed by filters (for example the external session wrapper) in place for the JSP.
+The lookup runs on the executor. On success it stores the patient in request attributes and dispatches to the JSP.
+An AsyncListener handles the timeout. The lookup and the timeout race for the same AtomicBoolean, so exactly one of them completes the request. A timed-out lookup is cancelled, which interrupts its thread.
+
+
+package com.healthcare.servlet.async;
+
+import com.healthcare.management.model.Patient;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+public final class AsyncPatientLookup {
+
+    private AsyncPatientLookup() {
+    }
+
+    public static void lookupAndForward(HttpServletRequest request, HttpServletResponse response,
+                                        PatientLookupExecutor executor, Long patientId,
+                                        Function<Long, Patient> lookup, String view) {
+        AsyncContext async = request.startAsync(request, response);
+        async.setTimeout(executor.getTimeoutMs());
+
+        AtomicBoolean finished = new AtomicBoolean();
+        AtomicReference<Future<?>> task = new AtomicReference<>();
+
+        async.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (finished.compareAndSet(false, true)) {
+                    Future<?> running = task.get();
+                    if (running != null) {
+                        running.cancel(true);
+                    }
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Patient lookup timed out");
+                    async.complete();
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                finished.set(true);
+                Future<?> running = task.get();
+                if (running != null) {
+                    running.cancel(true);
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+
+        task.set(executor.submit(() -> {
+            Patient patient;
+            try {
+                patient = lookup.apply(patientId);
+            } catch (RuntimeException e) {
+                if (finished.compareAndSet(false, true)) {
+                    request.getServletContext().log("Patient lookup failed for id " + patientId, e);
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    async.complete();
+                }
+                return null;
+            }
+
+            if (finished.compareAndSet(false, true)) {
+                if (patient == null) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND, "No patient with id " + patientId);
+                    async.complete();
+                } else {
+                    PatientViews.setAttributes(request, patient);
+                    async.dispatch(view);
+                }
+            }
+            return null;
+        }));
+    }
+}
+
+
+
+3. Request Attributes for the Views (PatientViews.java)
+Both the synchronous and the asynchronous path set the same request attributes, so viewPatient.jsp and updatePatient.jsp do not need to know which mode was used.
+
+
+package com.healthcare.servlet.async;
+
+import com.healthcare.management.model.Patient;
+
+import javax.servlet.http.HttpServletRequest;
+
+public final class PatientViews {
+
+    private PatientViews() {
+    }
+
+    public static void setAttributes(HttpServletRequest request, Patient patient) {
+        request.setAttribute("patient", patient);
+        request.setAttribute("patientId", patient.getPatientId());
+        request.setAttribute("patientName", patient.getName());
+    }
+
+    // null if the parameter is missing or not a number
+    public static Long parsePatientId(HttpServletRequest request) {
+        String value = request.getParameter("patientId");
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
+
+
+
+4. ViewPatientServlet (ViewPatientServlet.java)
+The servlet is declared with asyncSupported = true. It looks up the executor once in init(); if the executor is not there, async mode is off and the lookup runs on the container thread.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.service.PatientService;
+import com.healthcare.servlet.async.AsyncPatientLookup;
+import com.healthcare.servlet.async.PatientLookupExecutor;
+import com.healthcare.servlet.async.PatientViews;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+
+@WebServlet(urlPatterns = "/ViewPatientServlet", asyncSupported = true)
+public class ViewPatientServlet extends HttpServlet {
+
+    private PatientService patientService;
+    private PatientLookupExecutor lookupExecutor;
+
+    @Override
+    public void init() throws ServletException {
+        patientService = WebApplicationContextUtils
+                .getRequiredWebApplicationContext(getServletContext())
+                .getBean(PatientService.class);
+        // null when async lookups are disabled
+        lookupExecutor = (PatientLookupExecutor) getServletContext()
+                .getAttribute(PatientLookupContextListener.EXECUTOR_ATTRIBUTE);
+    }
+
+    // Handle GET requests (view patient details)
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Long patientId = PatientViews.parsePatientId(request);
+        if (patientId == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid patientId");
+            return;
+        }
+
+        if (lookupExecutor != null) {
+            AsyncPatientLookup.lookupAndForward(request, response, lookupExecutor, patientId,
+                    patientService::getPatient, "/viewPatient.jsp");
+            return;
+        }
+
+        Patient patient = patientService.getPatient(patientId);
+        if (patient == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No patient with id " + patientId);
+            return;
+        }
+        PatientViews.setAttributes(request, patient);
+        RequestDispatcher dispatcher = request.getRequestDispatcher("viewPatient.jsp");
+        dispatcher.forward(request, response);
+    }
+}
+
+
+
+5. UpdatePatientServlet (UpdatePatientServlet.java)
+doGet (showing the edit form) uses the same pattern. doPost is unchanged: it is a short write followed by a redirect.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.service.PatientService;
+import com.healthcare.servlet.async.AsyncPatientLookup;
+import com.healthcare.servlet.async.PatientLookupExecutor;
+import com.healthcare.servlet.async.PatientViews;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+
+@WebServlet(urlPatterns = "/UpdatePatientServlet", asyncSupported = true)
+public class UpdatePatientServlet extends HttpServlet {
+
+    private PatientService patientService;
+    private PatientLookupExecutor lookupExecutor;
+
+    @Override
+    public void init() throws ServletException {
+        patientService = WebApplicationContextUtils
+                .getRequiredWebApplicationContext(getServletContext())
+                .getBean(PatientService.class);
+        lookupExecutor = (PatientLookupExecutor) getServletContext()
+                .getAttribute(PatientLookupContextListener.EXECUTOR_ATTRIBUTE);
+    }
+
+    // Handle GET requests (show the edit form)
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Long patientId = PatientViews.parsePatientId(request);
+        if (patientId == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid patientId");
+            return;
+        }
+
+        if (lookupExecutor != null) {
+            AsyncPatientLookup.lookupAndForward(request, response, lookupExecutor, patientId,
+                    patientService::getPatient, "/updatePatient.jsp");
+            return;
+        }
+
+        Patient patient = patientService.getPatient(patientId);
+        if (patient == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No patient with id " + patientId);
+            return;
+        }
+        PatientViews.setAttributes(request, patient);
+        RequestDispatcher dispatcher = request.getRequestDispatcher("updatePatient.jsp");
+        dispatcher.forward(request, response);
+    }
+
+    // Handle POST requests (process the updated data)
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String patientId = request.getParameter("patientId");
+
+        // Update patient details in the database (or process the data); the form values are not logged
+        getServletContext().log("Update requested for patient " + patientId);
+
+        // Redirect to the patient list page after successful update
+        response.sendRedirect("patientList");
+    }
+}
+
+
+
+6. Enabling Async Lookups (PatientLookupContextListener.java)
+The executor is created only when patient.lookup.async is "true". The timeout and the fallback pool size (used on JDKs without virtual threads) are configurable.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.servlet.async.PatientLookupExecutor;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebListener;
+
+@WebListener
+public class PatientLookupContextListener implements ServletContextListener {
+
+    public static final String EXECUTOR_ATTRIBUTE = "patientLookupExecutor";
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        if (!Boolean.parseBoolean(context.getInitParameter("patient.lookup.async"))) {
+            return;
+        }
+
+        long timeoutMs = longParam(context, "patient.lookup.timeoutMs", 5_000);
+        int fallbackPoolSize = (int) longParam(context, "patient.lookup.fallbackPoolSize", 64);
+
+        PatientLookupExecutor executor = new PatientLookupExecutor(timeoutMs, fallbackPoolSize);
+        context.setAttribute(EXECUTOR_ATTRIBUTE, executor);
+        context.log("Async patient lookups enabled (virtual threads: " + executor.isVirtualThreads()
+                + ", timeout " + timeoutMs + " ms)");
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        PatientLookupExecutor executor = (PatientLookupExecutor) event.getServletContext().getAttribute(EXECUTOR_ATTRIBUTE);
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    private static long longParam(ServletContext context, String name, long defaultValue) {
+        String value = context.getInitParameter(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+}
+
+
+The web.xml entries. Every filter in front of these servlets must also support async processing, including the ExternalSessionFilter from "externalized session store":
+
+
+<context-param>
+    <param-name>patient.lookup.async</param-name>
+    <param-value>true</param-value>
+</context-param>
+<context-param>
+    <param-name>patient.lookup.timeoutMs</param-name>
+    <param-value>3000</param-value>
+</context-param>
+
+<filter>
+    <filter-name>ExternalSessionFilter</filter-name>
+    <filter-class>com.healthcare.session.store.ExternalSessionFilter</filter-class>
+    <async-supported>true</async-supported>
+</filter>
+
+
+
+Explanation:
+Freeing container threads: after startAsync() and submit(), doGet returns at once. The connector thread goes back to serving other requests while the lookup is waiting on the database.
+Virtual threads: each lookup gets its own virtual thread. A virtual thread blocked on JDBC or waiting for a pooled connection does not occupy a platform thread, so thousands of lookups can be in flight at the same time.
+Database limit: the number of queries actually running at once is still limited by the connection pool, which is what protects MySQL. Lookups beyond that wait cheaply for a connection, up to the request timeout.
+Timeout: the timeout and the lookup use the same AtomicBoolean, so a request is answered exactly once, either with the JSP or with 503.
+Fallback: on a JDK without virtual threads, a fixed pool of platform threads is used. The container threads are still freed, but the number of concurrent lookups is limited to the pool size.
+
+Note: on JDK 21 to 23, a virtual thread that blocks inside a synchronized block cannot unmount from its carrier thread. Some JDBC drivers synchronize internally, so check your driver version if carrier threads show up as blocked in a thread dump.
+
+
+
+Summary
+With patient.lookup.async enabled, ViewPatientServlet and UpdatePatientServlet hand the blocking patient lookup to a virtual-thread executor and release the container thread immediately. Concurrency is no longer capped by the connector thread count, and every lookup is bounded by a per-request timeout.
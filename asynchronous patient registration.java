@@ -0,0 +1,603 @@
+RegisterPatientServlet.doPost stores the patient synchronously and only then calls sendRedirect("patientList.jsp"). The request thread waits for the INSERT and the commit, so a slow database makes registration slow for everyone, and a burst of registrations ties up the container's threads.
+
+In this part, we'll add an optional write-behind mode. When it is enabled:
+
+The servlet validates the form, puts the registration into a bounded in-memory queue, and redirects immediately.
+A single writer thread takes registrations from the queue and writes them in groups: one JDBC batch and one commit for everything that is waiting (group commit).
+When the queue is full, the servlet does not block; it answers 503 Service Unavailable with a Retry-After header (backpressure).
+On shutdown, the queue stops accepting new registrations and the writer drains everything already queued before the application stops.
+Queue depth, enqueue rejections, batch sizes and commit latency are tracked as metrics.
+
+The synchronous path remains the default. Write-behind is switched on with a context parameter, so it can be enabled per environment.
+
+Note: in write-behind mode, a registration is acknowledged before it is committed. If the JVM is killed (not shut down cleanly), registrations still in the queue are lost. That is the trade-off for taking the database off the request path; use the synchronous mode where this is not acceptable.
+
+
+
+1. A Queued Registration (PendingRegistration.java)
+An immutable value holding the validated form data and the time it was enqueued (used for the enqueue-to-commit latency metric).
+
+
+package com.healthcare.db.async;
+
+public final class PendingRegistration {
+    private final String name;
+    private final int age;
+    private final String disease;
+    private final long enqueuedAtNanos;
+
+    public PendingRegistration(String name, int age, String disease) {
+        this.name = name;
+        this.age = age;
+        this.disease = disease;
+        this.enqueuedAtNanos = System.nanoTime();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public String getDisease() {
+        return disease;
+    }
+
+    long getEnqueuedAtNanos() {
+        return enqueuedAtNanos;
+    }
+}
+
+
+
+2. Writer Metrics (WriteBehindMetrics.java)
+Counters for the queue and the writer thread. Queue depth is read directly from the queue when metrics are requested.
+
+
+package com.healthcare.db.async;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class WriteBehindMetrics {
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+    private final LongAccumulator maxCommitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxQueueDelayNanos = new LongAccumulator(Math::max, 0);
+
+    void recordEnqueued() {
+        enqueued.increment();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    void recordCommit(int rows, long nanos, long oldestQueueDelayNanos) {
+        committed.add(rows);
+        commits.increment();
+        commitNanos.add(nanos);
+        maxCommitNanos.accumulate(nanos);
+        maxQueueDelayNanos.accumulate(oldestQueueDelayNanos);
+    }
+
+    void recordFailed(int rows) {
+        failed.add(rows);
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    public long getEnqueued() {
+        return enqueued.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getCommitted() {
+        return committed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public double getAverageBatchSize() {
+        long count = commits.sum();
+        return count == 0 ? 0.0 : committed.sum() / (double) count;
+    }
+
+    public double getAverageCommitMillis() {
+        long count = commits.sum();
+        return count == 0 ? 0.0 : commitNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    public double getMaxCommitMillis() {
+        return maxCommitNanos.get() / 1_000_000.0;
+    }
+
+    public double getMaxQueueDelayMillis() {
+        return maxQueueDelayNanos.get() / 1_000_000.0;
+    }
+}
+
+
+
+3. The Write-Behind Writer (PatientWriteBehindQueue.java)
+The queue is an ArrayBlockingQueue, so its memory use is fixed by its capacity. enqueue() uses offer(), which never blocks: if the queue is full it returns false immediately and the servlet turns that into a 503.
+
+The writer thread waits for the first registration, then uses drainTo() to collect everything else that is already waiting (up to maxBatchSize). All of it is written in one executeBatch() and one commit. Under light load each batch holds a single row and latency stays low; under heavy load the batches grow and the number of commits per second stays roughly constant.
+
+Every registration in the queue has already been acknowledged, so a failed write must not lose it. A failed attempt is rolled back. A transient failure (a dropped connection, a deadlock) is retried up to three times, waiting 200 ms and then 400 ms. If the batch still fails for any other reason, such as one row that is too long for its column, the rows are written one by one. Only the rows that still fail are set aside: they are logged at SEVERE with their data and, if a dead-letter file is configured, appended to it as one tab-separated line each.
+
+enqueue() and close() share a read/write lock. Once close() has set accepting to false, no offer() can still be in progress. So when the writer finds the queue empty after close(), nothing acknowledged can arrive later.
+
+
+package com.healthcare.db.async;
+
+import com.healthcare.db.DatabaseConnection;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class PatientWriteBehindQueue implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(PatientWriteBehindQueue.class.getName());
+    private static final String INSERT_SQL = "INSERT INTO patients (name, age, disease) VALUES (?, ?, ?)";
+    static final int MAX_ATTEMPTS = 3;
+    static final long FIRST_BACKOFF_MS = 200;
+
+    private final BlockingQueue<PendingRegistration> queue;
+    private final int maxBatchSize;
+    private final long shutdownTimeoutMs;
+    private final Path deadLetterFile;
+    private final WriteBehindMetrics metrics = new WriteBehindMetrics();
+    private final Thread writer;
+    // enqueue() holds the read lock from the check of accepting until its offer is done, so once
+    // close() has the write lock, no registration can arrive after the writer's last look at the queue
+    private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+    private volatile boolean accepting = true;
+
+    public PatientWriteBehindQueue(int capacity, int maxBatchSize, long shutdownTimeoutMs) {
+        this(capacity, maxBatchSize, shutdownTimeoutMs, null);
+    }
+
+    // Registrations that cannot be written are appended to deadLetterFile (if not null) and always logged
+    public PatientWriteBehindQueue(int capacity, int maxBatchSize, long shutdownTimeoutMs, Path deadLetterFile) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.deadLetterFile = deadLetterFile;
+        this.writer = new Thread(this::runWriter, "patient-write-behind");
+        this.writer.start();
+    }
+
+    // Returns false if the queue is full or shutting down; never blocks the caller
+    public boolean enqueue(PendingRegistration registration) {
+        boolean queued;
+        acceptLock.readLock().lock();
+        try {
+            queued = accepting && queue.offer(registration);
+        } finally {
+            acceptLock.readLock().unlock();
+        }
+        if (queued) {
+            metrics.recordEnqueued();
+        } else {
+            metrics.recordRejected();
+        }
+        return queued;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getRemainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    public WriteBehindMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void runWriter() {
+        List<PendingRegistration> batch = new ArrayList<>(maxBatchSize);
+        while (accepting || !queue.isEmpty()) {
+            try {
+                PendingRegistration first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                // close() interrupts only after the drain deadline has passed
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+        // Only reached after the drain deadline: keep what is left instead of dropping it
+        List<PendingRegistration> unwritten = new ArrayList<>();
+        queue.drainTo(unwritten);
+        for (PendingRegistration registration : unwritten) {
+            deadLetter(registration, "not written before shutdown");
+        }
+    }
+
+    private void write(List<PendingRegistration> batch) {
+        long start = System.nanoTime();
+        SQLException failure = insertWithRetry(batch);
+        if (failure == null) {
+            long end = System.nanoTime();
+            metrics.recordCommit(batch.size(), end - start, end - batch.get(0).getEnqueuedAtNanos());
+            return;
+        }
+        if (batch.size() == 1 || isTransient(failure)) {
+            // Still failing after the retries: the database is unreachable, and so would every row be
+            for (PendingRegistration registration : batch) {
+                deadLetter(registration, describe(failure));
+            }
+            return;
+        }
+
+        // One bad row fails the whole batch, so write the rows one by one and set aside only the bad ones
+        LOG.log(Level.WARNING, "Batch of " + batch.size() + " registrations failed, writing rows one by one", failure);
+        SQLException outage = null;
+        for (PendingRegistration registration : batch) {
+            if (outage != null) {
+                deadLetter(registration, describe(outage));
+                continue;
+            }
+            long rowStart = System.nanoTime();
+            SQLException rowFailure = insertWithRetry(Collections.singletonList(registration));
+            if (rowFailure == null) {
+                long end = System.nanoTime();
+                metrics.recordCommit(1, end - rowStart, end - registration.getEnqueuedAtNanos());
+            } else {
+                deadLetter(registration, describe(rowFailure));
+                if (isTransient(rowFailure)) {
+                    outage = rowFailure; // the database went away meanwhile
+                }
+            }
+        }
+    }
+
+    // Returns null once the rows are committed, or the last failure. Transient failures are
+    // retried with doubling backoff; anything else (a constraint violation, bad data) is not.
+    private SQLException insertWithRetry(List<PendingRegistration> rows) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                insert(rows);
+                return null;
+            } catch (SQLException e) {
+                if (attempt == MAX_ATTEMPTS || !isTransient(e) || !backOff(FIRST_BACKOFF_MS << (attempt - 1))) {
+                    return e;
+                }
+                metrics.recordRetry();
+                LOG.log(Level.WARNING, "Writing " + rows.size() + " registrations failed (attempt " + attempt
+                        + "), retrying", e);
+            }
+        }
+    }
+
+    private static void insert(List<PendingRegistration> rows) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement pst = con.prepareStatement(INSERT_SQL)) {
+                for (PendingRegistration registration : rows) {
+                    pst.setString(1, registration.getName());
+                    pst.setInt(2, registration.getAge());
+                    pst.setString(3, registration.getDisease());
+                    pst.addBatch();
+                }
+                pst.executeBatch();
+                con.commit();
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    con.rollback();
+                } catch (SQLException rollbackFailure) {
+                    e.addSuppressed(rollbackFailure);
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Connection problems (SQLState class 08) and deadlocks or serialization failures (class 40) may succeed on retry
+    static boolean isTransient(SQLException e) {
+        if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("08") || state.startsWith("40"));
+    }
+
+    // False if interrupted: close() gave up waiting, so stop retrying
+    private static boolean backOff(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String describe(SQLException e) {
+        return "SQLState " + e.getSQLState() + ": " + e.getMessage();
+    }
+
+    private void deadLetter(PendingRegistration registration, String reason) {
+        metrics.recordFailed(1);
+        String line = Instant.now() + "\t" + clean(registration.getName()) + "\t" + registration.getAge()
+                + "\t" + clean(registration.getDisease()) + "\t" + clean(reason);
+        LOG.severe("Registration not written: " + line);
+        if (deadLetterFile != null) {
+            try {
+                Files.write(deadLetterFile, Collections.singletonList(line), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Could not write to " + deadLetterFile, e);
+            }
+        }
+    }
+
+    // One registration per line, tab separated
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    // Stop accepting registrations and wait for the writer to drain the queue
+    @Override
+    public void close() {
+        acceptLock.writeLock().lock();
+        try {
+            accepting = false;
+        } finally {
+            acceptLock.writeLock().unlock();
+        }
+        try {
+            writer.join(shutdownTimeoutMs);
+            if (writer.isAlive()) {
+                writer.interrupt();
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+
+
+4. Enabling Write-Behind at Startup (WriteBehindContextListener.java)
+The listener creates the queue only when the registration.writeBehind context parameter is "true". Servlet listeners are destroyed in reverse order of initialization, so this listener must be declared after DatabaseContextListener in web.xml. That way, the queue is drained while the connection pool is still open.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.async.PatientWriteBehindQueue;
+
+import javax.servlet.*;
+import java.nio.file.Paths;
+
+public class WriteBehindContextListener implements ServletContextListener {
+
+    public static final String QUEUE_ATTRIBUTE = "patientWriteBehindQueue";
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        if (!Boolean.parseBoolean(context.getInitParameter("registration.writeBehind"))) {
+            return;
+        }
+
+        int capacity = intParam(context, "registration.queueCapacity", 10_000);
+        int maxBatch = intParam(context, "registration.maxBatchSize", 500);
+        int shutdownTimeoutMs = intParam(context, "registration.shutdownTimeoutMs", 30_000);
+        String deadLetterFile = context.getInitParameter("registration.deadLetterFile");
+
+        context.setAttribute(QUEUE_ATTRIBUTE, new PatientWriteBehindQueue(capacity, maxBatch, shutdownTimeoutMs,
+                deadLetterFile == null ? null : Paths.get(deadLetterFile)));
+        context.log("Write-behind patient registration enabled (capacity " + capacity + ")");
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        PatientWriteBehindQueue queue = (PatientWriteBehindQueue) context.getAttribute(QUEUE_ATTRIBUTE);
+        if (queue != null) {
+            context.log("Draining " + queue.getQueueDepth() + " queued registrations");
+            queue.close();
+        }
+    }
+
+    private static int intParam(ServletContext context, String name, int defaultValue) {
+        String value = context.getInitParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
+
+
+The web.xml entries:
+
+
+<listener>
+    <listener-class>com.healthcare.servlet.DatabaseContextListener</listener-class>
+</listener>
+<listener>
+    <listener-class>com.healthcare.servlet.WriteBehindContextListener</listener-class>
+</listener>
+
+<context-param>
+    <param-name>registration.writeBehind</param-name>
+    <param-value>true</param-value>
+</context-param>
+<context-param>
+    <param-name>registration.queueCapacity</param-name>
+    <param-value>10000</param-value>
+</context-param>
+<context-param>
+    <param-name>registration.deadLetterFile</param-name>
+    <param-value>/var/lib/hms/registration-dead-letters.tsv</param-value>
+</context-param>
+
+
+
+5. RegisterPatientServlet with Write-Behind (RegisterPatientServlet.java)
+doPost validates the form first, in both modes, so only well-formed registrations are queued. If the queue is present, the registration is enqueued; a full queue produces a 503 with Retry-After. If write-behind is off, the servlet inserts synchronously as before.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.DatabaseConnection;
+import com.healthcare.db.async.PatientWriteBehindQueue;
+import com.healthcare.db.async.PendingRegistration;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+
+public class RegisterPatientServlet extends HttpServlet {
+
+    private PatientWriteBehindQueue writeBehindQueue;
+
+    @Override
+    public void init() throws ServletException {
+        // null when write-behind is disabled
+        writeBehindQueue = (PatientWriteBehindQueue) getServletContext()
+                .getAttribute(WriteBehindContextListener.QUEUE_ATTRIBUTE);
+    }
+
+    // Handle GET requests (display registration form)
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        RequestDispatcher dispatcher = request.getRequestDispatcher("register.jsp");
+        dispatcher.forward(request, response);
+    }
+
+    // Handle POST requests (queue or store the patient)
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String name = request.getParameter("name");
+        String age = request.getParameter("age");
+        String disease = request.getParameter("disease");
+
+        int parsedAge;
+        try {
+            parsedAge = Integer.parseInt(age);
+        } catch (NumberFormatException e) {
+            response.sendRedirect("register.jsp?error=true");
+            return;
+        }
+        if (name == null || name.trim().isEmpty()) {
+            response.sendRedirect("register.jsp?error=true");
+            return;
+        }
+
+        if (writeBehindQueue != null) {
+            if (!writeBehindQueue.enqueue(new PendingRegistration(name.trim(), parsedAge, disease))) {
+                // Backpressure: tell the client to retry instead of blocking this thread
+                response.setHeader("Retry-After", "1");
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                        "Registration queue is full, please retry shortly");
+                return;
+            }
+        } else {
+            DatabaseConnection.insertPatient(name.trim(), parsedAge, disease);
+        }
+
+        response.sendRedirect("patientList.jsp");
+    }
+}
+
+
+
+6. Checking the Queue (registrationQueue.jsp)
+A small admin page showing the queue and writer metrics using EL. When write-behind is disabled, the attribute is absent and the page says so.
+
+
+<%@ page contentType="text/html;charset=UTF-8" language="java" %>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
+
+<!DOCTYPE html>
+<html lang="en">
+<head>
+    <meta charset="UTF-8">
+    <title>Registration Queue</title>
+</head>
+<body>
+    <h2>Registration Queue</h2>
+    <c:set var="queue" value="${applicationScope.patientWriteBehindQueue}" />
+    <c:choose>
+        <c:when test="${not empty queue}">
+            <p><strong>Queue depth:</strong> ${queue.queueDepth} (free: ${queue.remainingCapacity})</p>
+            <p><strong>Enqueued:</strong> ${queue.metrics.enqueued}</p>
+            <p><strong>Rejected (503):</strong> ${queue.metrics.rejected}</p>
+            <p><strong>Committed:</strong> ${queue.metrics.committed}</p>
+            <p><strong>Retries:</strong> ${queue.metrics.retries}</p>
+            <p><strong>Failed (dead-lettered):</strong> ${queue.metrics.failed}</p>
+            <p><strong>Average batch size:</strong> <fmt:formatNumber value="${queue.metrics.averageBatchSize}" maxFractionDigits="1" /></p>
+            <p><strong>Commit latency (avg / max ms):</strong>
+                <fmt:formatNumber value="${queue.metrics.averageCommitMillis}" maxFractionDigits="2" /> /
+                <fmt:formatNumber value="${queue.metrics.maxCommitMillis}" maxFractionDigits="2" /></p>
+            <p><strong>Max enqueue-to-commit delay (ms):</strong>
+                <fmt:formatNumber value="${queue.metrics.maxQueueDelayMillis}" maxFractionDigits="2" /></p>
+        </c:when>
+        <c:otherwise>
+            <p>Write-behind registration is disabled; registrations are stored synchronously.</p>
+        </c:otherwise>
+    </c:choose>
+</body>
+</html>
+
+
+
+Explanation:
+Opt-in: without registration.writeBehind=true, no queue is created and RegisterPatientServlet behaves exactly as before.
+Group commit: the writer thread writes everything waiting in the queue (up to maxBatchSize) with one executeBatch() and one commit().
+Backpressure: a full queue is reported immediately as 503 with Retry-After, so request threads are never blocked waiting for space.
+Failures: a failed write is rolled back and transient errors are retried with backoff. When a batch keeps failing, its rows are written one by one, so one bad row cannot take the others with it. Rows that still fail are dead-lettered with their data.
+Shutdown: close() stops new registrations, and the writer keeps running until the queue is empty or shutdownTimeoutMs has passed. Anything left after that is dead-lettered.
+Metrics: queue depth, rejections, committed rows, retries and dead-lettered rows, average batch size, commit latency and the maximum delay between enqueue and commit.
+
+
+
+Summary
+With write-behind enabled, registering a patient no longer waits for the database. The request thread validates and enqueues, and a background writer commits registrations in groups. The bounded queue keeps memory fixed and turns overload into a clear 503 instead of a pile-up of blocked threads.
@@ -0,0 +1,718 @@
+Month-end billing today would mean walking every patient through the billing service one at a time: load the patient's charges, add them up as BigDecimal objects, insert one Billing row, commit, next patient. With a few hundred thousand patients that runs for hours on a single thread and leaves nothing to resume from if the server restarts halfway.
+
+In this part, we'll add a batch invoice engine that:
+
+Splits patients into fixed ranges of patient IDs (partitions) and bills the partitions in parallel on a fork-join pool.
+Streams each partition's consultation and test charges from the database in chunks, with a forward-only cursor and a fetch size.
+Adds up amounts as long cents, so only one BigDecimal is created per invoice instead of one per charge.
+Writes Billing rows with JDBC batches and commits once per partition.
+Records every committed partition in a checkpoint table, so a run that was interrupted continues with the partitions that are not done yet.
+Reports progress for each partition and the overall invoices and charges per second.
+
+
+
+1. Schema Changes
+Charges are what a patient owes for one consultation or test. Each charge records which billing period it was invoiced in, so a charge is never billed twice. The Billing table gets a billing_period column, and the checkpoint table records which partitions of which period are already committed.
+
+
+CREATE TABLE charge (
+    charge_id     BIGINT AUTO_INCREMENT PRIMARY KEY,
+    patient_id    INT NOT NULL,
+    charge_type   VARCHAR(20) NOT NULL,      -- CONSULTATION or TEST
+    amount        DECIMAL(10, 2) NOT NULL,
+    charge_date   DATE NOT NULL,
+    billed_period CHAR(7),                   -- e.g. 2024-05; NULL until invoiced
+    FOREIGN KEY (patient_id) REFERENCES patient(patient_id)
+);
+CREATE INDEX idx_charge_unbilled ON charge (patient_id, billed_period);
+
+ALTER TABLE billing ADD COLUMN billing_period CHAR(7);
+ALTER TABLE billing ADD CONSTRAINT uq_billing_patient_period UNIQUE (patient_id, billing_period);
+
+CREATE TABLE billing_run_partition (
+    billing_period   CHAR(7) NOT NULL,
+    first_patient_id BIGINT NOT NULL,
+    end_patient_id   BIGINT NOT NULL,        -- exclusive
+    invoices         BIGINT NOT NULL,
+    charges          BIGINT NOT NULL,
+    total_cents      BIGINT NOT NULL,
+    completed_at     TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (billing_period, first_patient_id)
+);
+
+
+
+2. Run Results (BillingRunReport.java)
+The report is updated by several worker threads at once, so its counters are LongAdders. The total is kept in cents and only turned into a BigDecimal when it is read.
+
+
+package com.healthcare.db.billing;
+
+import java.math.BigDecimal;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+public class BillingRunReport {
+    private final YearMonth period;
+    private final LongAdder invoices = new LongAdder();
+    private final LongAdder charges = new LongAdder();
+    private final LongAdder totalCents = new LongAdder();
+    private final LongAdder partitionsCommitted = new LongAdder();
+    private final LongAdder partitionsSkipped = new LongAdder();
+    private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+    private volatile long elapsedNanos;
+
+    BillingRunReport(YearMonth period) {
+        this.period = period;
+    }
+
+    void partitionCommitted(long invoiceCount, long chargeCount, long cents) {
+        invoices.add(invoiceCount);
+        charges.add(chargeCount);
+        totalCents.add(cents);
+        partitionsCommitted.increment();
+    }
+
+    void partitionSkipped() {
+        partitionsSkipped.increment();
+    }
+
+    void partitionFailed(long firstPatientId, String reason) {
+        failures.add("patients from " + firstPatientId + ": " + reason);
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public YearMonth getPeriod() {
+        return period;
+    }
+
+    public long getInvoices() {
+        return invoices.sum();
+    }
+
+    public long getCharges() {
+        return charges.sum();
+    }
+
+    public BigDecimal getTotalAmount() {
+        return BigDecimal.valueOf(totalCents.sum(), 2);
+    }
+
+    public long getPartitionsCommitted() {
+        return partitionsCommitted.sum();
+    }
+
+    public long getPartitionsSkipped() {
+        return partitionsSkipped.sum();
+    }
+
+    public List<String> getFailures() {
+        return new ArrayList<>(failures);
+    }
+
+    public double getInvoicesPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : getInvoices() * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    public double getChargesPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : getCharges() * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("period=%s invoices=%d charges=%d total=%s partitions=%d skipped=%d failed=%d "
+                        + "time=%.1f s rate=%.0f invoices/s, %.0f charges/s",
+                period, getInvoices(), getCharges(), getTotalAmount().toPlainString(), getPartitionsCommitted(),
+                getPartitionsSkipped(), failures.size(), elapsedNanos / 1_000_000_000.0,
+                getInvoicesPerSecond(), getChargesPerSecond());
+    }
+}
+
+
+
+3. Per-Partition Callback (PartitionListener.java)
+Lets the caller show progress while the run is going. It is called after each partition's transaction has been committed.
+
+
+package com.healthcare.db.billing;
+
+@FunctionalInterface
+public interface PartitionListener {
+    // Called from the worker threads after each partition has been committed
+    void partitionCommitted(long firstPatientId, long invoices, long charges, long elapsedNanos);
+}
+
+
+
+4. The Engine (InvoiceBatchEngine.java)
+The engine first asks the database for the lowest and highest patient ID with unbilled charges. Partitions are ranges of partitionSize patient IDs, aligned to multiples of partitionSize, so an interrupted run and its restart produce exactly the same partitions.
+
+A PartitionTask splits its range of partitions in half with invokeAll() until one partition is left, which it then bills. The pool is a dedicated ForkJoinPool with the requested parallelism, not the common pool: each task blocks on JDBC calls, and blocking the common pool would stall parallel streams elsewhere in the application.
+
+Each partition is one transaction on its own pooled connection:
+
+If the checkpoint table already has the partition for this period, it is skipped.
+Unbilled charges dated before the end of the period are claimed by setting billed_period.
+The claimed charges are read in patient order and summed per patient in long cents. One Billing row per patient goes into a JDBC batch, which is sent every batchSize invoices.
+The checkpoint row is inserted and the transaction commits.
+
+If anything fails, the partition is rolled back, recorded in the report, and the other partitions carry on. Running the same period again bills only the partitions that have no checkpoint.
+
+
+package com.healthcare.db.billing;
+
+import com.healthcare.db.DatabaseConnection;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class InvoiceBatchEngine {
+    public static final int DEFAULT_PARTITION_SIZE = 5_000;
+    public static final int DEFAULT_FETCH_SIZE = 1_000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final String ID_RANGE_SQL =
+            "SELECT MIN(patient_id), MAX(patient_id) FROM charge WHERE billed_period IS NULL AND charge_date < ?";
+    private static final String COMPLETED_SQL =
+            "SELECT 1 FROM billing_run_partition WHERE billing_period = ? AND first_patient_id = ? AND end_patient_id = ?";
+    private static final String MARK_SQL =
+            "UPDATE charge SET billed_period = ? "
+            + "WHERE patient_id >= ? AND patient_id < ? AND billed_period IS NULL AND charge_date < ?";
+    private static final String CHARGES_SQL =
+            "SELECT patient_id, ROUND(amount * 100) FROM charge "
+            + "WHERE patient_id >= ? AND patient_id < ? AND billed_period = ? ORDER BY patient_id";
+    private static final String INSERT_BILL_SQL =
+            "INSERT INTO billing (patient_id, total_amount, payment_status, billing_period) VALUES (?, ?, 'Unpaid', ?)";
+    private static final String CHECKPOINT_SQL =
+            "INSERT INTO billing_run_partition (billing_period, first_patient_id, end_patient_id, invoices, charges, total_cents) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final int parallelism;
+    private final int partitionSize;
+    private final int fetchSize;
+    private final int batchSize;
+
+    public InvoiceBatchEngine(int parallelism, int partitionSize, int fetchSize, int batchSize) {
+        if (parallelism < 1 || partitionSize < 1 || fetchSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("All settings must be at least 1");
+        }
+        this.parallelism = parallelism;
+        this.partitionSize = partitionSize;
+        this.fetchSize = fetchSize;
+        this.batchSize = batchSize;
+    }
+
+    // Bills every charge dated before the end of the period that is not billed yet.
+    // Partitions committed by an earlier run for the same period are skipped.
+    public BillingRunReport run(YearMonth period, PartitionListener listener) throws SQLException {
+        BillingRunReport report = new BillingRunReport(period);
+        long start = System.nanoTime();
+        Date cutoff = Date.valueOf(period.plusMonths(1).atDay(1));
+
+        long minId;
+        long maxId;
+        try (Connection con = DatabaseConnection.getConnection();
+             PreparedStatement pst = con.prepareStatement(ID_RANGE_SQL)) {
+            pst.setDate(1, cutoff);
+            try (ResultSet rs = pst.executeQuery()) {
+                rs.next();
+                minId = rs.getLong(1);
+                maxId = rs.getLong(2);
+                if (rs.wasNull()) {
+                    report.finish(System.nanoTime() - start);
+                    return report; // nothing to bill
+                }
+            }
+        }
+
+        // Partition boundaries are multiples of partitionSize, so a restarted run finds the same ones
+        long first = minId / partitionSize;
+        long last = maxId / partitionSize;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new PartitionTask(period, cutoff, first, last + 1, report, listener));
+        } finally {
+            pool.shutdown();
+        }
+
+        report.finish(System.nanoTime() - start);
+        return report;
+    }
+
+    // Splits the range of partitions in halves until one partition is left, then bills it
+    private final class PartitionTask extends RecursiveAction {
+        private final YearMonth period;
+        private final Date cutoff;
+        private final long from;
+        private final long to;
+        private final BillingRunReport report;
+        private final PartitionListener listener;
+
+        PartitionTask(YearMonth period, Date cutoff, long from, long to, BillingRunReport report, PartitionListener listener) {
+            this.period = period;
+            this.cutoff = cutoff;
+            this.from = from;
+            this.to = to;
+            this.report = report;
+            this.listener = listener;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                long mid = (from + to) >>> 1;
+                invokeAll(new PartitionTask(period, cutoff, from, mid, report, listener),
+                        new PartitionTask(period, cutoff, mid, to, report, listener));
+                return;
+            }
+            long firstPatientId = from * partitionSize;
+            try {
+                billPartition(period, cutoff, firstPatientId, firstPatientId + partitionSize, report, listener);
+            } catch (SQLException | RuntimeException e) {
+                // The partition was rolled back; the next run for this period picks it up again
+                report.partitionFailed(firstPatientId, e.getMessage());
+            }
+        }
+    }
+
+    private void billPartition(YearMonth period, Date cutoff, long firstPatientId, long endPatientId,
+                               BillingRunReport report, PartitionListener listener) throws SQLException {
+        long start = System.nanoTime();
+        String periodText = period.toString();
+
+        try (Connection con = DatabaseConnection.getConnection()) {
+            con.setAutoCommit(false);
+            try {
+                if (isCompleted(con, periodText, firstPatientId, endPatientId)) {
+                    con.commit();
+                    report.partitionSkipped();
+                    return;
+                }
+
+                // Claim the charges first, then total exactly the claimed rows. A charge inserted
+                // meanwhile is either claimed and billed now, or left for the next run.
+                int claimed;
+                try (PreparedStatement mark = con.prepareStatement(MARK_SQL)) {
+                    mark.setString(1, periodText);
+                    mark.setLong(2, firstPatientId);
+                    mark.setLong(3, endPatientId);
+                    mark.setDate(4, cutoff);
+                    claimed = mark.executeUpdate();
+                }
+
+                long[] totals = claimed == 0
+                        ? new long[3]
+                        : writeInvoices(con, periodText, firstPatientId, endPatientId);
+
+                try (PreparedStatement checkpoint = con.prepareStatement(CHECKPOINT_SQL)) {
+                    checkpoint.setString(1, periodText);
+                    checkpoint.setLong(2, firstPatientId);
+                    checkpoint.setLong(3, endPatientId);
+                    checkpoint.setLong(4, totals[0]);
+                    checkpoint.setLong(5, totals[1]);
+                    checkpoint.setLong(6, totals[2]);
+                    checkpoint.executeUpdate();
+                }
+                con.commit();
+
+                report.partitionCommitted(totals[0], totals[1], totals[2]);
+                if (listener != null) {
+                    listener.partitionCommitted(firstPatientId, totals[0], totals[1], System.nanoTime() - start);
+                }
+            } catch (SQLException | RuntimeException e) {
+                con.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Streams the claimed charges in patient order and writes one invoice per patient.
+    // Returns {invoices, charges, total cents}.
+    private long[] writeInvoices(Connection con, String periodText, long firstPatientId, long endPatientId)
+            throws SQLException {
+        long invoices = 0;
+        long charges = 0;
+        long totalCents = 0;
+
+        try (PreparedStatement select = con.prepareStatement(CHARGES_SQL,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+             PreparedStatement insert = con.prepareStatement(INSERT_BILL_SQL)) {
+            select.setFetchSize(fetchSize);
+            select.setLong(1, firstPatientId);
+            select.setLong(2, endPatientId);
+            select.setString(3, periodText);
+
+            try (ResultSet rs = select.executeQuery()) {
+                long patientId = -1;
+                long patientCents = 0;
+                int pending = 0;
+                while (rs.next()) {
+                    long rowPatientId = rs.getLong(1);
+                    long cents = rs.getLong(2);
+                    if (rowPatientId != patientId) {
+                        if (patientId >= 0) {
+                            addInvoice(insert, patientId, patientCents, periodText);
+                            invoices++;
+                            if (++pending == batchSize) {
+                                insert.executeBatch();
+                                pending = 0;
+                            }
+                        }
+                        patientId = rowPatientId;
+                        patientCents = 0;
+                    }
+                    patientCents += cents;
+                    totalCents += cents;
+                    charges++;
+                }
+                if (patientId >= 0) {
+                    addInvoice(insert, patientId, patientCents, periodText);
+                    invoices++;
+                    pending++;
+                }
+                if (pending > 0) {
+                    insert.executeBatch();
+                }
+            }
+        }
+        return new long[] {invoices, charges, totalCents};
+    }
+
+    private static void addInvoice(PreparedStatement insert, long patientId, long cents, String periodText)
+            throws SQLException {
+        insert.setLong(1, patientId);
+        insert.setBigDecimal(2, BigDecimal.valueOf(cents, 2)); // one BigDecimal per invoice, not per charge
+        insert.setString(3, periodText);
+        insert.addBatch();
+    }
+
+    private static boolean isCompleted(Connection con, String periodText, long firstPatientId, long endPatientId)
+            throws SQLException {
+        try (PreparedStatement pst = con.prepareStatement(COMPLETED_SQL)) {
+            pst.setString(1, periodText);
+            pst.setLong(2, firstPatientId);
+            pst.setLong(3, endPatientId);
+            try (ResultSet rs = pst.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+}
+
+
+Note: with MySQL Connector/J, setFetchSize() only streams the result set if useCursorFetch=true is on the JDBC URL; otherwise the driver reads the whole partition into memory. rewriteBatchedStatements=true (see "bulk patient import") also applies to the invoice inserts. Keep the parallelism below the connection pool size, since each worker holds one connection for the length of its partition.
+
+
+
+5. Billing Run Servlet (BillingRunServlet.java)
+Starts a run for the given period (the previous month by default) and streams the progress of each partition to the response, followed by the final report. Only one run can be in progress at a time; a second request gets 409 Conflict.
+
+Only months that are over can be billed. A run for the current month would bill the charges so far and checkpoint every partition, and the charges added later in the month would never be billed for it; such a request gets 400.
+
+Billing a month writes an invoice for every patient, so only users in the billing role may start a run. @ServletSecurity makes the container enforce this for every method of the servlet: a request without a login is asked to authenticate, and a logged-in user without the role gets 403. The role has to be mapped to users in the container's realm, for example in Tomcat's tomcat-users.xml:
+
+
+<role rolename="billing"/>
+<user username="billing" password="..." roles="billing"/>
+
+
+web.xml needs a login-config so the container knows how to authenticate:
+
+
+<login-config>
+    <auth-method>BASIC</auth-method>
+    <realm-name>Healthcare</realm-name>
+</login-config>
+<security-role>
+    <role-name>billing</role-name>
+</security-role>
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.billing.BillingRunReport;
+import com.healthcare.db.billing.InvoiceBatchEngine;
+
+import javax.servlet.*;
+import javax.servlet.annotation.HttpConstraint;
+import javax.servlet.annotation.ServletSecurity;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@WebServlet("/billing/run")
+@ServletSecurity(@HttpConstraint(rolesAllowed = "billing"))
+public class BillingRunServlet extends HttpServlet {
+
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int MAX_PARALLELISM = 16;
+
+    // One month-end run at a time; a second one would only compete for the same partitions
+    private static final AtomicBoolean RUNNING = new AtomicBoolean();
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        YearMonth period = YearMonth.now().minusMonths(1);
+        String periodParam = request.getParameter("period");
+        if (periodParam != null) {
+            try {
+                period = YearMonth.parse(periodParam);
+            } catch (DateTimeParseException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "period must look like 2024-05");
+                return;
+            }
+            if (!period.isBefore(YearMonth.now())) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "period " + period + " is not over yet");
+                return;
+            }
+        }
+
+        int parallelism = DEFAULT_PARALLELISM;
+        String parallelismParam = request.getParameter("parallelism");
+        if (parallelismParam != null) {
+            try {
+                parallelism = Math.max(1, Math.min(Integer.parseInt(parallelismParam), MAX_PARALLELISM));
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "parallelism must be a number");
+                return;
+            }
+        }
+
+        if (!RUNNING.compareAndSet(false, true)) {
+            response.sendError(HttpServletResponse.SC_CONFLICT, "A billing run is already in progress");
+            return;
+        }
+        try {
+            response.setContentType("text/plain;charset=UTF-8");
+            PrintWriter out = response.getWriter();
+
+            InvoiceBatchEngine engine = new InvoiceBatchEngine(parallelism, InvoiceBatchEngine.DEFAULT_PARTITION_SIZE,
+                    InvoiceBatchEngine.DEFAULT_FETCH_SIZE, InvoiceBatchEngine.DEFAULT_BATCH_SIZE);
+            try {
+                BillingRunReport report = engine.run(period, (firstPatientId, invoices, charges, nanos) -> {
+                    synchronized (out) { // called from several worker threads
+                        out.printf("patients %d+: %d invoices, %d charges in %.1f ms%n",
+                                firstPatientId, invoices, charges, nanos / 1_000_000.0);
+                        out.flush();
+                    }
+                });
+
+                out.println("done: " + report);
+                for (String failure : report.getFailures()) {
+                    out.println("failed " + failure);
+                }
+                if (!report.getFailures().isEmpty()) {
+                    out.println("Run again for " + period + " to retry the failed partitions.");
+                }
+            } catch (SQLException e) {
+                getServletContext().log("Billing run failed", e);
+                out.println("failed: " + e.getMessage());
+            }
+        } finally {
+            RUNNING.set(false);
+        }
+    }
+}
+
+
+You can start a run from the command line:
+
+
+curl -u billing -X POST "http://localhost:8080/HealthcareManagementSystem/billing/run?period=2024-05&parallelism=8"
+
+
+
+6. Tests (InvoiceBatchEngineTest.java)
+The tests run the engine against an in-memory H2 database with a partition size of 10, so a handful of patients spread over several partitions.
+
+
+package com.healthcare.db.billing;
+
+import com.healthcare.db.ConnectionPool;
+import com.healthcare.db.DatabaseConnection;
+import com.healthcare.db.PoolConfig;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceBatchEngineTest {
+
+    private static final YearMonth MAY = YearMonth.of(2024, 5);
+
+    private static ConnectionPool pool;
+
+    private final InvoiceBatchEngine engine = new InvoiceBatchEngine(2, 10, 2, 2);
+
+    @BeforeAll
+    static void createTables() throws SQLException {
+        pool = new ConnectionPool(new PoolConfig("jdbc:h2:mem:billing;DB_CLOSE_DELAY=-1", "sa", ""));
+        DatabaseConnection.init(pool);
+        execute("CREATE TABLE charge (charge_id BIGINT AUTO_INCREMENT PRIMARY KEY, patient_id INT NOT NULL, "
+                + "charge_type VARCHAR(20) NOT NULL, amount DECIMAL(10, 2) NOT NULL, charge_date DATE NOT NULL, "
+                + "billed_period CHAR(7))");
+        execute("CREATE TABLE billing (bill_id INT AUTO_INCREMENT PRIMARY KEY, patient_id INT NOT NULL, "
+                + "total_amount DECIMAL(10, 2) NOT NULL, payment_status VARCHAR(20) NOT NULL, billing_period CHAR(7), "
+                + "UNIQUE (patient_id, billing_period))");
+        execute("CREATE TABLE billing_run_partition (billing_period CHAR(7) NOT NULL, first_patient_id BIGINT NOT NULL, "
+                + "end_patient_id BIGINT NOT NULL, invoices BIGINT NOT NULL, charges BIGINT NOT NULL, "
+                + "total_cents BIGINT NOT NULL, completed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, "
+                + "PRIMARY KEY (billing_period, first_patient_id))");
+    }
+
+    @AfterAll
+    static void closePool() {
+        pool.close();
+    }
+
+    @BeforeEach
+    void clearTables() throws SQLException {
+        execute("DELETE FROM charge");
+        execute("DELETE FROM billing");
+        execute("DELETE FROM billing_run_partition");
+    }
+
+    @Test
+    void testPartitionsAreAlignedToThePartitionSize() throws SQLException {
+        addCharge(7, "12.50", "2024-05-02");
+        addCharge(7, "7.50", "2024-05-20");
+        addCharge(25, "30.00", "2024-05-11");
+
+        BillingRunReport report = engine.run(MAY, null);
+
+        // patients 7 to 25 fall into the partitions starting at 0, 10 and 20, whatever the lowest id is
+        assertEquals(List.of("0-10", "10-20", "20-30"), partitions());
+        assertEquals(3, report.getPartitionsCommitted());
+        assertEquals(2, report.getInvoices());
+        assertEquals(3, report.getCharges());
+        assertEquals("50.00", report.getTotalAmount().toPlainString());
+        assertEquals("20.00", invoiceTotal(7));
+        assertEquals("30.00", invoiceTotal(25));
+    }
+
+    @Test
+    void testRunResumesAfterTheLastCheckpoint() throws SQLException {
+        addCharge(3, "10.00", "2024-05-02");
+        addCharge(14, "20.00", "2024-05-03");
+        addCharge(28, "40.00", "2024-05-04");
+        // an earlier run committed the partition of patients 10 to 19 and then stopped
+        execute("UPDATE charge SET billed_period = '2024-05' WHERE patient_id = 14");
+        execute("INSERT INTO billing (patient_id, total_amount, payment_status, billing_period) "
+                + "VALUES (14, 20.00, 'Unpaid', '2024-05')");
+        execute("INSERT INTO billing_run_partition (billing_period, first_patient_id, end_patient_id, invoices, "
+                + "charges, total_cents) VALUES ('2024-05', 10, 20, 1, 1, 2000)");
+
+        BillingRunReport report = engine.run(MAY, null);
+
+        assertEquals(1, report.getPartitionsSkipped());
+        assertEquals(2, report.getPartitionsCommitted());
+        assertEquals(2, report.getInvoices());
+        assertEquals(3, count("SELECT COUNT(*) FROM billing WHERE billing_period = '2024-05'"));
+        assertEquals("10.00", invoiceTotal(3));
+        assertEquals("40.00", invoiceTotal(28));
+
+        // a third run finds every partition checkpointed and writes nothing
+        BillingRunReport again = engine.run(MAY, null);
+        assertEquals(0, again.getPartitionsCommitted());
+        assertEquals(0, again.getInvoices());
+    }
+
+    @Test
+    void testOnlyUnbilledChargesOfThePeriodAreClaimed() throws SQLException {
+        addCharge(5, "10.00", "2024-05-31");
+        addCharge(5, "99.00", "2024-06-01"); // after the cutoff
+        addCharge(5, "55.00", "2024-04-15");
+        execute("UPDATE charge SET billed_period = '2024-04' WHERE charge_date = '2024-04-15'"); // billed already
+
+        BillingRunReport report = engine.run(MAY, null);
+
+        assertEquals(1, report.getCharges());
+        assertEquals("10.00", invoiceTotal(5));
+        assertEquals(1, count("SELECT COUNT(*) FROM charge WHERE billed_period = '2024-05'"));
+        assertEquals(1, count("SELECT COUNT(*) FROM charge WHERE billed_period IS NULL AND charge_date = '2024-06-01'"));
+        assertEquals(1, count("SELECT COUNT(*) FROM charge WHERE billed_period = '2024-04'"));
+    }
+
+    private static void addCharge(int patientId, String amount, String date) throws SQLException {
+        execute("INSERT INTO charge (patient_id, charge_type, amount, charge_date) VALUES ("
+                + patientId + ", 'CONSULTATION', " + amount + ", DATE '" + date + "')");
+    }
+
+    private static List<String> partitions() throws SQLException {
+        List<String> partitions = new ArrayList<>();
+        try (Connection con = DatabaseConnection.getConnection(); Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT first_patient_id, end_patient_id FROM billing_run_partition "
+                     + "WHERE billing_period = '2024-05' ORDER BY first_patient_id")) {
+            while (rs.next()) {
+                partitions.add(rs.getLong(1) + "-" + rs.getLong(2));
+            }
+        }
+        return partitions;
+    }
+
+    private static String invoiceTotal(int patientId) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection(); Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery("SELECT total_amount FROM billing WHERE billing_period = '2024-05' "
+                     + "AND patient_id = " + patientId)) {
+            assertTrue(rs.next(), "no invoice for patient " + patientId);
+            return rs.getBigDecimal(1).toPlainString();
+        }
+    }
+
+    private static long count(String sql) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection(); Statement st = con.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static void execute(String sql) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection(); Statement st = con.createStatement()) {
+            st.executeUpdate(sql);
+        }
+    }
+}
+
+
+
+Explanation:
+Partitions: patients are split into fixed ranges of patient IDs. A ForkJoinPool with the chosen parallelism bills the partitions concurrently, each on its own connection and in its own transaction.
+Streaming: charges are read through a forward-only cursor with setFetchSize(), so a partition's charges are never all in memory at once.
+Primitive totals: amounts are read as ROUND(amount * 100) into long cents and summed as longs. A BigDecimal is created once per invoice when the Billing row is written.
+Batching: Billing rows are added with addBatch() and sent with executeBatch() every batchSize invoices, and each partition commits once.
+Restartability: the checkpoint row is written in the same transaction as the partition's invoices, so either both exist or neither does. A new run for the same period skips partitions that are checkpointed and retries the rest.
+Throughput: the PartitionListener reports each partition as it commits, and the BillingRunReport gives the totals and invoices and charges per second.
+Safety: only users in the billing role can start a run, and only for a month that is over.
+
+
+
+Summary
+Month-end billing is now a single request. The engine bills patients in parallel partitions, streams their charges, adds them up in cents, and writes invoices in JDBC batches. Every committed partition is checkpointed, so an interrupted or partly failed run can simply be started again for the same period.
@@ -0,0 +1,459 @@
+Until now, the only ways to create patients were DatabaseConnection.insertPatient(name, age, disease) or one POST to RegisterPatientServlet per patient. That is fine for a receptionist at a desk, but migrating a partner clinic's roster of two million patients this way takes hours: every row is its own statement, its own round trip, and its own commit.
+
+In this part, we'll add a bulk-import path that:
+
+Streams a CSV upload one line at a time (the file is never loaded into memory as a whole).
+Groups rows into JDBC batches with PreparedStatement.addBatch() and commits once per batch.
+Lets the caller choose the batch size.
+Reports throughput for each batch and lists rejected rows with their line number and reason.
+Runs in bounded memory no matter how large the file is: at most one batch of rows and a capped list of rejection samples are held at a time.
+
+The expected CSV format matches the registration form:
+
+
+name,age,disease
+John Doe,45,Hypertension
+"Smith, Jane",32,Asthma
+
+
+
+1. Parsing a CSV Line (CsvLineParser.java)
+A small parser for one CSV line. It supports quoted fields containing commas and doubled quotes (""), which is all the clinic exports we receive use. A quoted field that is not closed on the same line is rejected rather than merged with the next line.
+
+
+package com.healthcare.db.bulk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class CsvLineParser {
+
+    private CsvLineParser() {
+    }
+
+    static List<String> parse(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(current.toString().trim());
+        return fields;
+    }
+}
+
+
+
+2. Import Results (ImportReport.java)
+The report keeps running totals and only the first few rejected rows (maxRejectionSamples). The rejection count is always exact, but the list of samples stays bounded even if every row of a 2M-line file is bad.
+
+
+package com.healthcare.db.bulk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ImportReport {
+    private final int maxRejectionSamples;
+    private final List<String> rejectionSamples = new ArrayList<>();
+    private long rowsRead;
+    private long rowsInserted;
+    private long rowsRejected;
+    private int batches;
+    private long elapsedNanos;
+
+    public ImportReport(int maxRejectionSamples) {
+        this.maxRejectionSamples = maxRejectionSamples;
+    }
+
+    void rowRead() {
+        rowsRead++;
+    }
+
+    void rowsInserted(int count) {
+        rowsInserted += count;
+    }
+
+    void batchCommitted() {
+        batches++;
+    }
+
+    void reject(long lineNumber, String reason) {
+        rowsRejected++;
+        if (rejectionSamples.size() < maxRejectionSamples) {
+            rejectionSamples.add("line " + lineNumber + ": " + reason);
+        }
+    }
+
+    void finish(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public long getRowsInserted() {
+        return rowsInserted;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    public int getBatches() {
+        return batches;
+    }
+
+    public List<String> getRejectionSamples() {
+        return Collections.unmodifiableList(rejectionSamples);
+    }
+
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0.0 : rowsInserted * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("read=%d inserted=%d rejected=%d batches=%d rate=%.0f rows/s",
+                rowsRead, rowsInserted, rowsRejected, batches, getRowsPerSecond());
+    }
+}
+
+
+
+3. Per-Batch Callback (BatchListener.java)
+The importer calls this after every committed batch. The servlet uses it to stream progress back to the client while the import is still running.
+
+
+package com.healthcare.db.bulk;
+
+@FunctionalInterface
+public interface BatchListener {
+    void batchCommitted(int batchNumber, int rows, long elapsedNanos);
+}
+
+
+
+4. The Importer (PatientCsvImporter.java)
+This class does the actual work. It reads from a Reader line by line, validates each row, and adds valid rows to the current JDBC batch. When the batch reaches batchSize rows, it calls executeBatch() and commits.
+
+If a batch fails (for example, because one row violates a constraint), the batch is rolled back and its rows are inserted one at a time. This way, only the bad rows are rejected and the good rows in the same batch are still saved. Only the rows of the current batch are kept in memory for this retry.
+
+
+package com.healthcare.db.bulk;
+
+import com.healthcare.db.DatabaseConnection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class PatientCsvImporter {
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+    public static final int MAX_BATCH_SIZE = 10_000;
+
+    private static final String INSERT_SQL = "INSERT INTO patients (name, age, disease) VALUES (?, ?, ?)";
+
+    private final int batchSize;
+    private final int maxRejectionSamples;
+
+    public PatientCsvImporter(int batchSize, int maxRejectionSamples) {
+        if (batchSize < 1 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE);
+        }
+        this.batchSize = batchSize;
+        this.maxRejectionSamples = maxRejectionSamples;
+    }
+
+    public ImportReport importCsv(Reader source, BatchListener listener) throws IOException, SQLException {
+        ImportReport report = new ImportReport(maxRejectionSamples);
+        long start = System.nanoTime();
+
+        try (BufferedReader reader = new BufferedReader(source, 64 * 1024);
+             Connection con = DatabaseConnection.getConnection();
+             PreparedStatement pst = con.prepareStatement(INSERT_SQL)) {
+
+            con.setAutoCommit(false);
+            List<Row> pending = new ArrayList<>(batchSize);
+            long lineNumber = 0;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber == 1 && line.startsWith("\uFEFF")) {
+                    line = line.substring(1); // byte order mark written by some spreadsheet exports
+                }
+                if (line.isEmpty() || (lineNumber == 1 && line.regionMatches(true, 0, "name,", 0, 5))) {
+                    continue; // blank line or header
+                }
+                report.rowRead();
+
+                Row row;
+                try {
+                    row = Row.parse(line, lineNumber);
+                } catch (IllegalArgumentException e) {
+                    report.reject(lineNumber, e.getMessage());
+                    continue;
+                }
+
+                row.bind(pst);
+                pst.addBatch();
+                pending.add(row);
+
+                if (pending.size() == batchSize) {
+                    flush(con, pst, pending, report, listener);
+                }
+            }
+            if (!pending.isEmpty()) {
+                flush(con, pst, pending, report, listener);
+            }
+        }
+
+        report.finish(System.nanoTime() - start);
+        return report;
+    }
+
+    private void flush(Connection con, PreparedStatement pst, List<Row> pending,
+                       ImportReport report, BatchListener listener) throws SQLException {
+        long batchStart = System.nanoTime();
+        int inserted;
+        try {
+            pst.executeBatch();
+            con.commit();
+            inserted = pending.size();
+        } catch (SQLException e) {
+            con.rollback();
+            pst.clearBatch();
+            inserted = insertOneByOne(con, pst, pending, report);
+        }
+
+        report.rowsInserted(inserted);
+        report.batchCommitted();
+        if (listener != null) {
+            listener.batchCommitted(report.getBatches(), inserted, System.nanoTime() - batchStart);
+        }
+        pending.clear();
+    }
+
+    // Fallback for a failed batch: find the bad rows, keep the good ones
+    private int insertOneByOne(Connection con, PreparedStatement pst, List<Row> rows,
+                               ImportReport report) throws SQLException {
+        int inserted = 0;
+        for (Row row : rows) {
+            try {
+                row.bind(pst);
+                pst.executeUpdate();
+                inserted++;
+            } catch (SQLException e) {
+                report.reject(row.lineNumber, e.getMessage());
+            }
+        }
+        con.commit();
+        return inserted;
+    }
+
+    private static final class Row {
+        final long lineNumber;
+        final String name;
+        final int age;
+        final String disease;
+
+        private Row(long lineNumber, String name, int age, String disease) {
+            this.lineNumber = lineNumber;
+            this.name = name;
+            this.age = age;
+            this.disease = disease;
+        }
+
+        static Row parse(String line, long lineNumber) {
+            List<String> fields = CsvLineParser.parse(line);
+            if (fields.size() != 3) {
+                throw new IllegalArgumentException("expected 3 fields but found " + fields.size());
+            }
+            String name = fields.get(0);
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("name is empty");
+            }
+            int age;
+            try {
+                age = Integer.parseInt(fields.get(1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("age is not a number: " + fields.get(1));
+            }
+            if (age < 0 || age > 150) {
+                throw new IllegalArgumentException("age out of range: " + age);
+            }
+            return new Row(lineNumber, name, age, fields.get(2));
+        }
+
+        void bind(PreparedStatement pst) throws SQLException {
+            pst.setString(1, name);
+            pst.setInt(2, age);
+            pst.setString(3, disease);
+        }
+    }
+}
+
+
+Note: with MySQL Connector/J, add rewriteBatchedStatements=true to the JDBC URL (db.url in web.xml). Without it, the driver still sends the rows of a batch one statement at a time. With it, the whole batch is sent as a single multi-row INSERT.
+
+
+
+5. Bulk Import Servlet (BulkImportPatientServlet.java)
+The servlet accepts either a raw text/csv request body or a multipart upload from a form field named "file". In both cases it wraps the stream in a Reader and hands it to the importer. A raw text/csv body is imported while it is still arriving. A multipart upload is not: getPart() reads the whole request body before it returns.
+
+For multipart uploads, @MultipartConfig uses a small fileSizeThreshold. This makes the container spool large uploads to a temporary file on disk instead of keeping them on the heap, and the importer then reads the part from that file.
+
+Progress for each batch is written and flushed to the response as it happens, followed by the final report. A database failure before the first batch is a 500. Once progress has been sent the status is already committed as 200, so a later failure is reported in a last "failed:" line; clients should check for the "done:" line.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.bulk.ImportReport;
+import com.healthcare.db.bulk.PatientCsvImporter;
+
+import javax.servlet.*;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+@WebServlet("/patients/import")
+@MultipartConfig(fileSizeThreshold = 1024 * 1024)
+public class BulkImportPatientServlet extends HttpServlet {
+
+    private static final int MAX_REJECTION_SAMPLES = 100;
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        int batchSize = PatientCsvImporter.DEFAULT_BATCH_SIZE;
+        String batchParam = request.getParameter("batchSize");
+        if (batchParam != null) {
+            try {
+                batchSize = Math.min(Integer.parseInt(batchParam), PatientCsvImporter.MAX_BATCH_SIZE);
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "batchSize must be a number");
+                return;
+            }
+        }
+
+        InputStream body;
+        String contentType = request.getContentType();
+        if (contentType != null && contentType.startsWith("multipart/")) {
+            Part part = request.getPart("file");
+            if (part == null) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing 'file' part");
+                return;
+            }
+            body = part.getInputStream();
+        } else {
+            body = request.getInputStream();
+        }
+
+        response.setContentType("text/plain;charset=UTF-8");
+        PrintWriter out = response.getWriter();
+
+        PatientCsvImporter importer = new PatientCsvImporter(Math.max(batchSize, 1), MAX_REJECTION_SAMPLES);
+        try (Reader reader = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+            ImportReport report = importer.importCsv(reader, (batch, rows, nanos) -> {
+                out.printf("batch %d: %d rows in %.1f ms (%.0f rows/s)%n",
+                        batch, rows, nanos / 1_000_000.0, rows * 1_000_000_000.0 / Math.max(nanos, 1));
+                out.flush();
+            });
+
+            out.println("done: " + report);
+            for (String rejection : report.getRejectionSamples()) {
+                out.println("rejected " + rejection);
+            }
+            if (report.getRowsRejected() > report.getRejectionSamples().size()) {
+                out.println("(" + (report.getRowsRejected() - report.getRejectionSamples().size())
+                        + " more rejected rows not shown)");
+            }
+        } catch (SQLException e) {
+            getServletContext().log("Bulk import failed", e);
+            if (response.isCommitted()) {
+                // Progress lines have already gone out with status 200
+                out.println("failed: " + e.getMessage());
+            } else {
+                response.reset();
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Import failed: " + e.getMessage());
+            }
+        }
+    }
+}
+
+
+You can try it from the command line:
+
+
+curl -X POST --data-binary @roster.csv -H "Content-Type: text/csv" \
+     "http://localhost:8080/HealthcareManagementSystem/patients/import?batchSize=2000"
+
+
+
+6. Bulk Import Form (importPatients.jsp)
+A simple upload form for administrators.
+
+
+<!DOCTYPE html>
+<html lang="en">
+<head>
+    <meta charset="UTF-8">
+    <title>Import Patients</title>
+</head>
+<body>
+    <h2>Import Patients from CSV</h2>
+    <form action="patients/import" method="POST" enctype="multipart/form-data">
+        CSV file: <input type="file" name="file" accept=".csv" required><br>
+        Batch size: <input type="number" name="batchSize" value="1000" min="1" max="10000"><br>
+        <input type="submit" value="Import">
+    </form>
+</body>
+</html>
+
+
+
+Explanation:
+Streaming: BufferedReader.readLine() reads one row at a time from the request body, or from the spooled part of a multipart upload. Only the current batch of rows is kept in memory.
+Batching: rows are added with addBatch() and sent with executeBatch(), then committed once per batch. This replaces one round trip and one commit per patient with one per batch.
+Rejected rows: rows with a parse or validation error are skipped before they reach the database. If the database rejects a row, its batch is retried row by row, so only that row is rejected.
+Throughput: the BatchListener reports the rows and time of each batch, and the final ImportReport gives the total rows per second.
+
+
+
+Summary
+A partner clinic's roster can now be loaded with a single upload. The import streams the CSV, writes it in configurable JDBC batches over a pooled connection, and reports progress for each batch plus any rejected rows. Memory use depends on the batch size, not on the size of the file.
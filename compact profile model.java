@@ -0,0 +1,980 @@
+The user profile is held as four Strings. The age is a String such as "30", and the gender is whatever text the form sent. There are also two UserProfile classes: com.healthcare.model.UserProfile, used by the session and the JSPs, and com.healthcare.servlet.UserProfile from "registration and profile using servlets", which also carries the password. Every profile built from a request or a database row therefore costs an object, four Strings and four byte arrays, and nothing checks that the age is a number.
+
+In this part, we'll give profiles and patients a compact, typed form:
+
+Gender becomes an enum, so each profile refers to one of four shared constants instead of its own String.
+ProfileRecord is an immutable profile with the age as an int. It is used by the session, the account table mapping and the servlets.
+ProfileConverter is the only place where request parameters or either old UserProfile class become a ProfileRecord. An age that is not a number is rejected there.
+CompactSessionProfile stores the gender and age as one byte each instead of as UTF-8 text.
+The patient cache stores a PatientRecord with the id, version and timestamp as primitives, and hands out a new Patient on every hit.
+A JOL report measures how many bytes each form takes per object.
+
+Records would fit ProfileRecord and PatientRecord well, but the project targets JDK 8 (see "JMH benchmarks"), so both are final classes with final fields.
+
+
+
+1. Gender (Gender.java)
+The enum is the dictionary for the gender column: each value has the label that the forms and the user_account table use. parse() accepts the old free-text values, so existing rows and sessions convert without a migration. A value it does not recognize still becomes OTHER, so an old row can always be read, but it is logged, so the values that need cleaning up can be found. Its ordinal is the one-byte code stored in the session.
+
+
+package com.healthcare.model;
+
+import java.util.logging.Logger;
+
+public enum Gender {
+    UNSPECIFIED(""),
+    MALE("Male"),
+    FEMALE("Female"),
+    OTHER("Other");
+
+    private static final Logger LOG = Logger.getLogger(Gender.class.getName());
+    private static final Gender[] VALUES = values();
+
+    private final String label;
+
+    Gender(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    // Accepts the labels and single letters in any case; null or blank is UNSPECIFIED.
+    // Anything else is logged and read as OTHER.
+    public static Gender parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return UNSPECIFIED;
+        }
+        String value = text.trim();
+        if (value.equalsIgnoreCase("male") || value.equalsIgnoreCase("m")) {
+            return MALE;
+        }
+        if (value.equalsIgnoreCase("female") || value.equalsIgnoreCase("f")) {
+            return FEMALE;
+        }
+        if (!value.equalsIgnoreCase("other") && !value.equalsIgnoreCase("o")) {
+            LOG.warning("Unrecognized gender value '" + value + "' read as OTHER");
+        }
+        return OTHER;
+    }
+
+    // The one-byte code stored in CompactSessionProfile
+    public static Gender fromCode(int code) {
+        return code >= 0 && code < VALUES.length ? VALUES[code] : UNSPECIFIED;
+    }
+}
+
+
+
+2. The Profile Record (ProfileRecord.java)
+An immutable profile. The age is an int, with UNKNOWN_AGE (-1) when the user did not give one, because the registration form allowed an empty age. The constructor rejects any other age outside 0 to 150, so every ProfileRecord holds a valid age.
+
+toUserProfile() is kept for code that still works with the old class. It returns the same String values as before.
+
+
+package com.healthcare.model;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+// An immutable user profile with the age as an int and the gender as an enum.
+// One object and two Strings, where UserProfile needs one object and four Strings.
+public final class ProfileRecord implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int UNKNOWN_AGE = -1;
+    public static final int MAX_AGE = 150;
+
+    private final String fullName;
+    private final String email;
+    private final Gender gender;
+    private final int age;
+
+    public ProfileRecord(String fullName, String email, Gender gender, int age) {
+        if (age != UNKNOWN_AGE && (age < 0 || age > MAX_AGE)) {
+            throw new IllegalArgumentException("Age must be between 0 and " + MAX_AGE + ": " + age);
+        }
+        this.fullName = fullName == null ? "" : fullName;
+        this.email = email == null ? "" : email;
+        this.gender = gender == null ? Gender.UNSPECIFIED : gender;
+        this.age = age;
+    }
+
+    // A blank value is UNKNOWN_AGE; anything that is not a whole number from 0 to MAX_AGE is rejected
+    public static int parseAge(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return UNKNOWN_AGE;
+        }
+        int age = Integer.parseInt(text.trim());
+        if (age < 0 || age > MAX_AGE) {
+            throw new IllegalArgumentException("Age must be between 0 and " + MAX_AGE + ": " + age);
+        }
+        return age;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+
+    // UNKNOWN_AGE if the user did not give one
+    public int getAge() {
+        return age;
+    }
+
+    public boolean hasAge() {
+        return age != UNKNOWN_AGE;
+    }
+
+    // For code that still works with the old class
+    public UserProfile toUserProfile() {
+        return new UserProfile(fullName, email, gender.getLabel(), hasAge() ? String.valueOf(age) : "");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ProfileRecord)) {
+            return false;
+        }
+        ProfileRecord other = (ProfileRecord) o;
+        return age == other.age && gender == other.gender
+                && fullName.equals(other.fullName) && email.equals(other.email);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fullName, email, gender, age);
+    }
+
+    @Override
+    public String toString() {
+        return "ProfileRecord[fullName=" + fullName + ", email=" + email + ", gender=" + gender.name()
+                + ", age=" + age + "]";
+    }
+}
+
+
+
+3. The Servlet Boundary (ProfileConverter.java)
+The converter reads the form parameters once and returns null when the age is not a whole number from 0 to 150. The servlets then send the user back to the form. Before this change, that value went into the session and the database unchecked.
+
+Objects of the old classes may hold anything in age, so converting them is lenient: an age that cannot be parsed becomes unknown instead of failing. com.healthcare.servlet.UserProfile is the class from "registration and profile using servlets". Its password is never copied into the profile.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.model.Gender;
+import com.healthcare.model.ProfileRecord;
+
+import javax.servlet.http.HttpServletRequest;
+
+// The one place where request parameters and the old UserProfile classes become a ProfileRecord
+public final class ProfileConverter {
+
+    private ProfileConverter() {
+    }
+
+    // The profile from the fullName, email, gender and age parameters, or null if the age is not valid
+    public static ProfileRecord fromRequest(HttpServletRequest request) {
+        int age;
+        try {
+            age = ProfileRecord.parseAge(request.getParameter("age"));
+        } catch (IllegalArgumentException e) {
+            return null; // NumberFormatException is an IllegalArgumentException too
+        }
+        return new ProfileRecord(trim(request.getParameter("fullName")), trim(request.getParameter("email")),
+                Gender.parse(request.getParameter("gender")), age);
+    }
+
+    public static ProfileRecord fromUserProfile(com.healthcare.model.UserProfile user) {
+        return new ProfileRecord(user.getFullName(), user.getEmail(),
+                Gender.parse(user.getGender()), lenientAge(user.getAge()));
+    }
+
+    // The password is not part of the profile and is dropped
+    public static ProfileRecord fromUserProfile(com.healthcare.servlet.UserProfile user) {
+        return new ProfileRecord(user.getFullName(), user.getEmail(),
+                Gender.parse(user.getGender()), lenientAge(user.getAge()));
+    }
+
+    // Old objects may hold anything in age; what cannot be parsed becomes unknown
+    private static int lenientAge(String age) {
+        try {
+            return ProfileRecord.parseAge(age);
+        } catch (IllegalArgumentException e) {
+            return ProfileRecord.UNKNOWN_AGE;
+        }
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+}
+
+
+
+4. Session Profile Layout (CompactSessionProfile.java, SessionProfiles.java)
+The gender and age move from the list of UTF-8 fields into the header. That is two bytes instead of two length prefixes plus their text:
+
+
+[u16 history count][u16 appointment count][u8 gender code][u8 age, 255 = unknown]
+[u16 length][UTF-8 bytes]   fullName
+[u16 length][UTF-8 bytes]   email
+[u16 length][UTF-8 bytes]   medical history entry 1..n
+[u16 length][UTF-8 bytes]   appointment 1..m
+
+
+getGender() and getAge() read one byte at a fixed offset and allocate nothing. Before, each of them decoded a String. The version, lastModified and fingerprint from "conditional GET with ETags" are unchanged. toProfileRecord() replaces toUserProfile().
+
+Only these parts of CompactSessionProfile from "conditional GET with ETags" change; the field access, serialization and the rest of the class stay as they are. The import of UserProfile is replaced by:
+
+
+import com.healthcare.model.Gender;
+import com.healthcare.model.ProfileRecord;
+
+
+The constants at the top of the class:
+
+
+    private static final long serialVersionUID = 3L;
+
+    private static final int HEADER_BYTES = 6;
+    private static final int GENDER_OFFSET = 4;
+    private static final int AGE_OFFSET = 5;
+    private static final int NO_AGE = 0xFF;
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private static final int FULL_NAME = 0;
+    private static final int EMAIL = 1;
+    private static final int FIRST_HISTORY = 2;
+
+
+encode() takes a ProfileRecord and writes the gender and age into the header:
+
+
+    public static CompactSessionProfile encode(ProfileRecord profile, String[] medicalHistory, String[] appointments) {
+        return encode(profile, medicalHistory, appointments, 1);
+    }
+
+    public static CompactSessionProfile encode(ProfileRecord profile, String[] medicalHistory, String[] appointments,
+                                               long version) {
+        String[] history = medicalHistory == null ? new String[0] : medicalHistory;
+        String[] upcoming = appointments == null ? new String[0] : appointments;
+        // The counts and lengths are stored as u16; a plain (short) cast would wrap a larger value
+        if (history.length > MAX_ENTRIES || upcoming.length > MAX_ENTRIES) {
+            throw new IllegalArgumentException("More than " + MAX_ENTRIES + " medical history entries or appointments");
+        }
+
+        byte[][] fields = new byte[2 + history.length + upcoming.length][];
+        fields[FULL_NAME] = utf8(profile.getFullName());
+        fields[EMAIL] = utf8(profile.getEmail());
+        for (int i = 0; i < history.length; i++) {
+            fields[FIRST_HISTORY + i] = utf8(history[i]);
+        }
+        for (int i = 0; i < upcoming.length; i++) {
+            fields[FIRST_HISTORY + history.length + i] = utf8(upcoming[i]);
+        }
+
+        int size = HEADER_BYTES;
+        for (byte[] field : fields) {
+            size += 2 + field.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.putShort((short) history.length);
+        buffer.putShort((short) upcoming.length);
+        buffer.put((byte) profile.getGender().ordinal());
+        buffer.put((byte) (profile.hasAge() ? profile.getAge() : NO_AGE));
+        for (byte[] field : fields) {
+            buffer.putShort((short) field.length); // at most MAX_FIELD_BYTES, checked by utf8()
+            buffer.put(field);
+        }
+        buffer.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return new CompactSessionProfile(buffer, version, System.currentTimeMillis(), (int) crc.getValue());
+    }
+
+
+The two getters and toUserProfile() are replaced by:
+
+
+    // Read from the header; no String is decoded
+    public Gender getGender() {
+        return Gender.fromCode(data.get(GENDER_OFFSET));
+    }
+
+    // ProfileRecord.UNKNOWN_AGE if the user did not give one
+    public int getAge() {
+        int age = data.get(AGE_OFFSET) & 0xFF;
+        return age == NO_AGE ? ProfileRecord.UNKNOWN_AGE : age;
+    }
+
+    // The profile fields as a ProfileRecord, for code that needs to change the profile
+    public ProfileRecord toProfileRecord() {
+        return new ProfileRecord(getFullName(), getEmail(), getGender(), getAge());
+    }
+
+
+The serialVersionUID changes to 3L because the layout of the buffer changed. As with the previous change, sessions persisted by the old version cannot be restored, so users logged in during the upgrade have to log in again.
+
+SessionProfiles takes a ProfileRecord:
+
+
+package com.healthcare.session;
+
+import com.healthcare.model.ProfileRecord;
+
+import javax.servlet.http.HttpSession;
+
+public final class SessionProfiles {
+    public static final String ATTRIBUTE = "userProfile";
+
+    private SessionProfiles() {
+    }
+
+    public static void store(HttpSession session, ProfileRecord profile, String[] medicalHistory, String[] appointments) {
+        session.setAttribute(ATTRIBUTE, CompactSessionProfile.encode(profile, medicalHistory, appointments));
+    }
+
+    // Replace the profile fields and keep the stored medical history and appointments
+    public static void updateProfile(HttpSession session, ProfileRecord profile) {
+        CompactSessionProfile current = get(session);
+        String[] history = current == null ? null : current.getMedicalHistory();
+        String[] appointments = current == null ? null : current.getAppointments();
+        long version = current == null ? 1 : current.getVersion() + 1;
+        session.setAttribute(ATTRIBUTE, CompactSessionProfile.encode(profile, history, appointments, version));
+    }
+
+    public static CompactSessionProfile get(HttpSession session) {
+        return session == null ? null : (CompactSessionProfile) session.getAttribute(ATTRIBUTE);
+    }
+}
+
+
+
+5. User Accounts (UserAccount.java, UserAccountStore.java)
+UserAccount from "password hashing" keeps the gender and age typed as well. The table is unchanged. The store parses the gender and age columns when it reads a row and writes the label and the number back, or NULL for an unknown age.
+
+
+package com.healthcare.model;
+
+public class UserAccount {
+    private final String email;
+    private final String fullName;
+    private final Gender gender;
+    private final int age;
+    private final String passwordHash;
+
+    public UserAccount(String email, String fullName, Gender gender, int age, String passwordHash) {
+        this.email = email;
+        this.fullName = fullName;
+        this.gender = gender == null ? Gender.UNSPECIFIED : gender;
+        this.age = age;
+        this.passwordHash = passwordHash;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+
+    // ProfileRecord.UNKNOWN_AGE if the user did not give one
+    public int getAge() {
+        return age;
+    }
+
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+
+    public ProfileRecord toProfile() {
+        return new ProfileRecord(fullName, email, gender, age);
+    }
+}
+
+
+package com.healthcare.db;
+
+import com.healthcare.model.Gender;
+import com.healthcare.model.ProfileRecord;
+import com.healthcare.model.UserAccount;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+public class UserAccountStore {
+
+    public UserAccount findByEmail(String email) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection();
+             PreparedStatement pst = con.prepareStatement(
+                     "SELECT email, full_name, gender, age, password_hash FROM user_account WHERE email = ?")) {
+            pst.setString(1, email);
+            try (ResultSet rs = pst.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return new UserAccount(rs.getString(1), rs.getString(2), Gender.parse(rs.getString(3)),
+                        storedAge(rs.getString(4)), rs.getString(5));
+            }
+        }
+    }
+
+    // Returns false if an account with this email already exists
+    public boolean insert(UserAccount account) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection();
+             PreparedStatement pst = con.prepareStatement(
+                     "INSERT INTO user_account (email, full_name, gender, age, password_hash) VALUES (?, ?, ?, ?, ?)")) {
+            pst.setString(1, account.getEmail());
+            pst.setString(2, account.getFullName());
+            pst.setString(3, account.getGender().getLabel());
+            if (account.getAge() == ProfileRecord.UNKNOWN_AGE) {
+                pst.setNull(4, Types.VARCHAR);
+            } else {
+                pst.setString(4, String.valueOf(account.getAge()));
+            }
+            pst.setString(5, account.getPasswordHash());
+            pst.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return false; // integrity constraint violation: duplicate email
+            }
+            throw e;
+        }
+    }
+
+    // Replaces the hash only if it is still expectedHash; returns false otherwise
+    public boolean updatePasswordHash(String email, String expectedHash, String newHash) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection();
+             PreparedStatement pst = con.prepareStatement(
+                     "UPDATE user_account SET password_hash = ? WHERE email = ? AND password_hash = ?")) {
+            pst.setString(1, newHash);
+            pst.setString(2, email);
+            pst.setString(3, expectedHash);
+            return pst.executeUpdate() == 1;
+        }
+    }
+
+    // Rows written before registration checked the age may hold anything; those read as unknown
+    private static int storedAge(String age) {
+        try {
+            return ProfileRecord.parseAge(age);
+        } catch (IllegalArgumentException e) {
+            return ProfileRecord.UNKNOWN_AGE;
+        }
+    }
+}
+
+
+LoginServlet stores the account's profile directly:
+
+
+            SessionProfiles.store(request.getSession(), account.toProfile(), null, null);
+
+
+The benchmarks and the load test write the user@example.com account with SQL (see "JMH benchmarks" and "load test harness"). Its 'Male' and '30' columns read back as Gender.MALE and 30, so neither needs a change.
+
+
+
+6. Registration and Profile Update (RegisterUserServlet.java, UpdateUserProfileServlet.java)
+Both servlets get the profile from ProfileConverter. Registration checks the age before it hashes the password, so a bad form no longer costs a hash.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.UserAccountStore;
+import com.healthcare.model.ProfileRecord;
+import com.healthcare.model.UserAccount;
+import com.healthcare.security.HashingUnavailableException;
+import com.healthcare.security.PasswordHashingService;
+import com.healthcare.session.SessionProfiles;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+public class RegisterUserServlet extends HttpServlet {
+
+    private final UserAccountStore accounts = new UserAccountStore();
+    private PasswordHashingService hashing;
+
+    @Override
+    public void init() throws ServletException {
+        hashing = (PasswordHashingService) getServletContext()
+                .getAttribute(PasswordHashingContextListener.HASHING_ATTRIBUTE);
+        if (hashing == null) {
+            throw new ServletException("PasswordHashingContextListener is not configured");
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        // Get user inputs from the form; the age is checked here, before any hashing
+        ProfileRecord profile = ProfileConverter.fromRequest(request);
+        String passwordParam = request.getParameter("password");
+        String confirmPassword = request.getParameter("confirmPassword");
+
+        // Basic validation
+        if (profile == null || profile.getEmail().isEmpty()
+                || passwordParam == null || !passwordParam.equals(confirmPassword)) {
+            response.sendRedirect("register.jsp?error=true");
+            return;
+        }
+
+        char[] password = passwordParam.toCharArray();
+        try {
+            UserAccount account = new UserAccount(profile.getEmail(), profile.getFullName(),
+                    profile.getGender(), profile.getAge(), hashing.hash(password));
+            if (!accounts.insert(account)) {
+                response.sendRedirect("register.jsp?error=exists");
+                return;
+            }
+
+            SessionProfiles.store(request.getSession(), profile, null, null);
+            response.sendRedirect("DisplayUserProfileServlet");
+        } catch (HashingUnavailableException e) {
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many registrations right now, please try again");
+        } catch (SQLException e) {
+            throw new ServletException("Registration failed", e);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+}
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.model.ProfileRecord;
+import com.healthcare.session.SessionProfiles;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+
+public class UpdateUserProfileServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        HttpSession session = request.getSession(false);
+        if (SessionProfiles.get(session) == null) {
+            // If no user session exists, redirect to login or registration page
+            response.sendRedirect("register.jsp");
+            return;
+        }
+
+        // Get the updated information from the form
+        ProfileRecord profile = ProfileConverter.fromRequest(request);
+        if (profile == null) {
+            response.sendRedirect("updateProfile.jsp?error=true");
+            return;
+        }
+
+        // Store the updated profile (with the next version) back in the session
+        SessionProfiles.updateProfile(session, profile);
+
+        // Redirect to the updated profile page
+        response.sendRedirect("DisplayUserProfileServlet");
+    }
+}
+
+
+
+7. User Profile Page (userProfile.jsp)
+EL turns an enum into its name ("MALE"), so the page shows the label instead. An unknown age is shown as an empty value, as it was before. Only these two lines change:
+
+
+            <p><strong>Age:</strong> <c:out value="${userProfile.age ge 0 ? userProfile.age : ''}" /></p>
+            <p><strong>Gender:</strong> <c:out value="${userProfile.gender.label}" /></p>
+
+
+
+8. The Patient Record (PatientRecord.java, Patient.java)
+Patient, as a JPA entity, holds its id and version as Long and its timestamp as an Instant, which is three more objects per patient. The cache does not need an entity, so it stores a PatientRecord with these values as longs. Long.MIN_VALUE stands for null.
+
+
+package com.healthcare.management.model;
+
+import java.time.Instant;
+
+// The cached form of a Patient: immutable, with the id, version and timestamp as primitives.
+// Patient holds them as Long, Long and Instant, three more objects per patient.
+public final class PatientRecord {
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final long patientId;
+    private final long version;
+    private final long lastModifiedMillis;
+    private final String name;
+    private final String email;
+    private final String phone;
+
+    private PatientRecord(long patientId, long version, long lastModifiedMillis,
+                          String name, String email, String phone) {
+        this.patientId = patientId;
+        this.version = version;
+        this.lastModifiedMillis = lastModifiedMillis;
+        this.name = name;
+        this.email = email;
+        this.phone = phone;
+    }
+
+    public static PatientRecord of(Patient patient) {
+        return new PatientRecord(
+                patient.getPatientId() == null ? NONE : patient.getPatientId(),
+                patient.getVersion() == null ? NONE : patient.getVersion(),
+                patient.getLastModified() == null ? NONE : patient.getLastModified().toEpochMilli(),
+                patient.getName(), patient.getEmail(), patient.getPhone());
+    }
+
+    // A new, detached Patient on every call, so callers can never change the cached copy
+    public Patient toPatient() {
+        return new Patient(
+                patientId == NONE ? null : patientId,
+                name, email, phone,
+                version == NONE ? null : version,
+                lastModifiedMillis == NONE ? null : Instant.ofEpochMilli(lastModifiedMillis));
+    }
+
+    public long getPatientId() {
+        return patientId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+}
+
+
+Patient gets a constructor that takes the version and timestamp, so that toPatient() can rebuild the full entity:
+
+
+    // A detached copy with a known version, e.g. from the patient cache
+    public Patient(Long patientId, String name, String email, String phone, Long version, Instant lastModified) {
+        this(patientId, name, email, phone);
+        this.version = version;
+        this.lastModified = lastModified;
+    }
+
+
+
+9. PatientCache Storing Records (PatientCache.java)
+The cache from "patient cache" stores the records and converts on the way in and out. PatientService does not change. Each hit gets its own Patient, so the caveat from "patient cache" no longer applies: a caller that changes the returned object cannot change what other requests see. The copy costs one small allocation per hit, far less than the query it saves.
+
+
+package com.healthcare.management.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.model.PatientRecord;
+
+import java.util.function.Function;
+
+public class PatientCache {
+
+    private final Cache<Long, PatientRecord> cache;
+
+    public PatientCache(PatientCacheProperties properties) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .recordStats()
+                .build();
+    }
+
+    // Returns a new Patient built from the cached record; a null from the loader is not cached
+    public Patient get(Long patientId, Function<Long, Patient> loader) {
+        PatientRecord record = cache.get(patientId, id -> {
+            Patient patient = loader.apply(id);
+            return patient == null ? null : PatientRecord.of(patient);
+        });
+        return record == null ? null : record.toPatient();
+    }
+
+    public void invalidate(Long patientId) {
+        if (patientId != null) {
+            cache.invalidate(patientId);
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
+
+
+
+10. Measuring the Footprint (ModelFootprintReport.java)
+JOL (Java Object Layout) reads the real field layout from the JVM. ClassLayout shows the fields, padding and header of one class. GraphLayout follows every reference from a set of objects and adds up the sizes of everything it reaches. The report builds 10,000 objects of each form with new Strings, as a request or a JDBC row would. Add JOL to benchmarks/pom.xml:
+
+
+<dependency>
+    <groupId>org.openjdk.jol</groupId>
+    <artifactId>jol-core</artifactId>
+    <version>0.17</version>
+</dependency>
+
+
+package com.healthcare.benchmark;
+
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.model.PatientRecord;
+import com.healthcare.model.Gender;
+import com.healthcare.model.ProfileRecord;
+import com.healthcare.model.UserProfile;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+import java.time.Instant;
+import java.util.function.IntFunction;
+
+public class ModelFootprintReport {
+
+    private static final int OBJECTS = 10_000;
+
+    public static void main(String[] args) {
+        System.out.println(VM.current().details());
+
+        Object[] profiles = build(i -> new UserProfile(fresh("John Doe " + i), fresh("user" + i + "@example.com"),
+                fresh("Male"), fresh(String.valueOf(30 + i % 50))));
+        Object[] profileRecords = build(i -> new ProfileRecord(fresh("John Doe " + i), fresh("user" + i + "@example.com"),
+                Gender.MALE, 30 + i % 50));
+        Object[] patients = build(ModelFootprintReport::patient);
+        Object[] patientRecords = build(i -> PatientRecord.of(patient(i)));
+
+        System.out.println(ClassLayout.parseClass(UserProfile.class).toPrintable());
+        System.out.println(ClassLayout.parseClass(ProfileRecord.class).toPrintable());
+        System.out.println(ClassLayout.parseClass(Patient.class).toPrintable());
+        System.out.println(ClassLayout.parseClass(PatientRecord.class).toPrintable());
+
+        System.out.println("Objects: " + OBJECTS);
+        System.out.println("                 shallow  bytes per object");
+        print("UserProfile", profiles);
+        print("ProfileRecord", profileRecords);
+        print("Patient", patients);
+        print("PatientRecord", patientRecords);
+    }
+
+    private static Patient patient(int i) {
+        return new Patient((long) i + 1, fresh("John Doe " + i), fresh("user" + i + "@example.com"),
+                fresh("555-" + (1_000_000 + i)), 3L, Instant.ofEpochMilli(1_700_000_000_000L + i));
+    }
+
+    private static Object[] build(IntFunction<Object> factory) {
+        Object[] objects = new Object[OBJECTS];
+        for (int i = 0; i < OBJECTS; i++) {
+            objects[i] = factory.apply(i);
+        }
+        return objects;
+    }
+
+    // Everything reachable from the objects (their Strings, byte arrays, boxed numbers), divided by their number
+    private static void print(String name, Object[] objects) {
+        long shallow = ClassLayout.parseInstance(objects[0]).instanceSize();
+        long total = GraphLayout.parseInstance(objects).totalSize();
+        System.out.printf("%-16s %7d  %16d%n", name, shallow, total / OBJECTS);
+    }
+
+    // Request parameters and JDBC values are new Strings, never shared literals
+    private static String fresh(String value) {
+        return new String(value.toCharArray());
+    }
+}
+
+
+java -Djdk.attach.allowAttachSelf -cp benchmarks/target/benchmarks.jar com.healthcare.benchmark.ModelFootprintReport
+
+
+The totals on a 64-bit JDK 17 with compressed references:
+
+
+Objects: 10000
+                 shallow  bytes per object
+UserProfile           32               248
+ProfileRecord         32               152
+Patient               40               264
+PatientRecord         48               224
+
+
+A profile drops from 248 to 152 bytes (-39%): the gender and age Strings and their byte arrays are gone, and the gender constant is shared. A cached patient drops from 264 to 224 bytes (-15%). PatientRecord itself is larger than Patient because of its three longs, but the Long, Long and Instant objects it replaces are gone. The name, email and phone are still one String each, because nearly every value is different and interning them would not save anything.
+
+
+
+11. Benchmarks (UserProfileBenchmark.java, SessionFootprintReport.java)
+UserProfileBenchmark from "JMH benchmarks" encodes a ProfileRecord, and construct measures the new class:
+
+
+    private ProfileRecord profile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        profile = new ProfileRecord(fullName, email, Gender.MALE, 30);
+        compact = CompactSessionProfile.encode(profile, HISTORY, APPOINTMENTS);
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public ProfileRecord construct() {
+        return new ProfileRecord(fullName, email, Gender.MALE, 30);
+    }
+
+
+In SessionFootprintReport from "off-heap session profile store", the second loop builds the profile as a ProfileRecord:
+
+
+            ProfileRecord profile = new ProfileRecord("John Doe " + i, "user" + i + "@example.com", Gender.MALE, 30 + i % 50);
+            sessions[i] = CompactSessionProfile.encode(profile, history(i), appointments(i));
+
+
+
+12. Unit Test for the Session Profile (CompactSessionProfileTest.java)
+The test checks that every field survives encoding and Java serialization, including an unknown age and gender and the largest allowed age, that old gender values are parsed, and that values too large for the u16 counts and lengths are refused.
+
+
+package com.healthcare.session;
+
+import com.healthcare.model.Gender;
+import com.healthcare.model.ProfileRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactSessionProfileTest {
+
+    private static final String[] HISTORY = {"High blood pressure", "Asthma"};
+    private static final String[] APPOINTMENTS = {"2025-02-10 - Dr. Smith"};
+
+    @Test
+    void testFieldsAndHeaderValuesRoundTrip() {
+        ProfileRecord profile = new ProfileRecord("José Doe", "jose@example.com", Gender.FEMALE, 42);
+        CompactSessionProfile compact = CompactSessionProfile.encode(profile, HISTORY, APPOINTMENTS);
+
+        assertEquals("José Doe", compact.getFullName());
+        assertEquals(Gender.FEMALE, compact.getGender());
+        assertEquals(42, compact.getAge());
+        assertArrayEquals(HISTORY, compact.getMedicalHistory());
+        assertArrayEquals(APPOINTMENTS, compact.getAppointments());
+        assertEquals(profile, compact.toProfileRecord());
+    }
+
+    @Test
+    void testUnknownAgeAndGender() {
+        CompactSessionProfile compact = CompactSessionProfile.encode(
+                new ProfileRecord("John Doe", "john@example.com", null, ProfileRecord.UNKNOWN_AGE), null, null);
+
+        assertEquals(ProfileRecord.UNKNOWN_AGE, compact.getAge());
+        assertEquals(Gender.UNSPECIFIED, compact.getGender());
+        assertEquals(0, compact.getMedicalHistory().length);
+    }
+
+    @Test
+    void testSerializationKeepsTheProfile() throws IOException, ClassNotFoundException {
+        ProfileRecord profile = new ProfileRecord("John Doe", "john@example.com", Gender.MALE, ProfileRecord.MAX_AGE);
+        CompactSessionProfile compact = CompactSessionProfile.encode(profile, HISTORY, APPOINTMENTS, 7);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(compact);
+        }
+        CompactSessionProfile copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (CompactSessionProfile) in.readObject();
+        }
+
+        assertEquals(profile, copy.toProfileRecord());
+        assertEquals(7, copy.getVersion());
+        assertEquals(compact.getFingerprint(), copy.getFingerprint());
+    }
+
+    @Test
+    void testAgeOutOfRangeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> ProfileRecord.parseAge("151"));
+        assertThrows(IllegalArgumentException.class, () -> ProfileRecord.parseAge("thirty"));
+        assertEquals(ProfileRecord.UNKNOWN_AGE, ProfileRecord.parseAge(" "));
+    }
+
+    @Test
+    void testGenderParsesOldValues() {
+        assertEquals(Gender.MALE, Gender.parse(" m "));
+        assertEquals(Gender.FEMALE, Gender.parse("Female"));
+        assertEquals(Gender.OTHER, Gender.parse("other"));
+        assertEquals(Gender.UNSPECIFIED, Gender.parse(null));
+        assertEquals(Gender.OTHER, Gender.parse("unknown")); // logged, but an old row can still be read
+    }
+
+    @Test
+    void testValuesTooLargeForTheLayoutAreRejected() {
+        ProfileRecord profile = new ProfileRecord("John Doe", "john@example.com", Gender.MALE, 30);
+        String[] tooMany = new String[0x10000];
+        Arrays.fill(tooMany, "");
+        char[] longText = new char[0x10000];
+        Arrays.fill(longText, 'x');
+
+        assertThrows(IllegalArgumentException.class, () -> CompactSessionProfile.encode(profile, tooMany, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> CompactSessionProfile.encode(profile, new String[] {new String(longText)}, null));
+    }
+}
+
+
+
+Explanation:
+Primitive fields: the age is an int and the patient id, version and timestamp are longs, stored in the object itself instead of in separate boxed objects.
+Dictionary encoding: the enum is the dictionary for gender. Each object holds a reference to one of four shared constants, and the session stores only its one-byte code.
+One conversion point: ProfileConverter turns request parameters and the old UserProfile classes into a ProfileRecord and rejects an invalid age there, so the code behind it can trust the typed fields.
+Immutable cache entries: the patient cache stores PatientRecords and returns a new Patient for each hit, so no caller can change a cached entry.
+Measured layout: JOL reports the actual field layout and the size of everything an object references, so the savings are measured rather than estimated.
+
+
+
+Summary
+Profiles are now ProfileRecords with an int age and an enum gender, converted once at the servlet boundary. They are used by the session, the account mapping and the servlets. A profile takes 152 bytes instead of 248, a cached patient 224 bytes instead of 264, and reading the gender or age from the session no longer allocates a String.
@@ -0,0 +1,1088 @@
+DisplayUserProfileServlet forwards to userProfile.jsp on every request, so each refresh renders the whole page again, even when nothing has changed since the last one. The patient views are worse: the doctors' dashboards poll ViewPatientServlet every few seconds, and each poll looks the patient up (through the DAO, or the patient cache at best) and runs the JSP.
+
+HTTP already has a way to say "you have the current version": conditional GET. The server sends a validator with the page, either an ETag (an opaque version tag) or a Last-Modified date. The browser sends it back on the next request in If-None-Match or If-Modified-Since. If the resource has not changed, the server answers 304 Not Modified with no body, and the browser shows the copy it already has.
+
+In this part, we'll add:
+
+A version number on the session profile and on patient records. UpdateUserProfileServlet and UpdatePatientServlet bump it.
+ETag and Last-Modified handling in DisplayUserProfileServlet, ViewPatientServlet and UpdatePatientServlet. An unchanged page is answered with 304 before the DAO or the JSP engine is touched.
+Counters for 304 and 200 responses, shown on a small admin page.
+
+
+
+1. Patient Version Column (Patient.java)
+The Patient entity gets a JPA @Version column and a last-modified timestamp. Hibernate increments the version on every update; the timestamp is set in @PrePersist and @PreUpdate.
+
+@Version also gives us optimistic locking: if two people save the same patient at the same time, the second save fails instead of silently overwriting the first.
+
+The phone number is stored in the phone_number column of the patient table. In Java it is getPhone(), and in JSON it keeps the name phoneNumber used by the /patients responses from "keyset pagination for patients".
+
+
+package com.healthcare.management.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+@Entity
+@Table(name = "patient")
+public class Patient {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "patient_id")
+    private Long patientId;
+
+    private String name;
+    private String email;
+
+    @Column(name = "phone_number")
+    @JsonProperty("phoneNumber")
+    private String phone;
+
+    @Version
+    private Long version;
+
+    @Column(name = "last_modified")
+    private Instant lastModified;
+
+    protected Patient() {
+    }
+
+    public Patient(Long patientId, String name, String email, String phone) {
+        this.patientId = patientId;
+        this.name = name;
+        this.email = email;
+        this.phone = phone;
+    }
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        lastModified = Instant.now();
+    }
+
+    public Long getPatientId() {
+        return patientId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public void setPhone(String phone) {
+        this.phone = phone;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public Instant getLastModified() {
+        return lastModified;
+    }
+}
+
+
+The schema change. Existing rows get version 0 from the column default:
+
+
+ALTER TABLE patient
+    ADD COLUMN version BIGINT NOT NULL DEFAULT 0,
+    ADD COLUMN last_modified TIMESTAMP NULL;
+
+
+
+2. Known Patient Versions (PatientVersion.java, PatientVersions.java)
+To answer 304 without the DAO, the server must know the current version of a patient without loading it. PatientService remembers the version of every patient it has loaded or saved recently.
+
+An entry is replaced only by a newer version. Otherwise a slow read that started before an update could put the old version back after the update has recorded the new one.
+
+Entries expire after VERSION_TTL_MS. If the patient is changed through another node, this node keeps answering 304 for at most that long; after that the next request loads the patient again.
+
+
+package com.healthcare.management.service;
+
+public final class PatientVersion {
+    private final long version;
+    private final long lastModified;
+    final long expiresAt;
+
+    PatientVersion(long version, long lastModified, long expiresAt) {
+        this.version = version;
+        this.lastModified = lastModified;
+        this.expiresAt = expiresAt;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // Milliseconds since the epoch, or -1 if unknown
+    public long getLastModified() {
+        return lastModified;
+    }
+}
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.model.Patient;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+final class PatientVersions {
+
+    private static final int MAX_ENTRIES = 100_000;
+
+    private final ConcurrentHashMap<Long, PatientVersion> versions = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+
+    PatientVersions(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    PatientVersion get(Long patientId) {
+        PatientVersion known = versions.get(patientId);
+        if (known == null) {
+            return null;
+        }
+        if (known.expiresAt <= System.currentTimeMillis()) {
+            versions.remove(patientId, known);
+            return null;
+        }
+        return known;
+    }
+
+    void record(Patient patient) {
+        if (patient == null || patient.getPatientId() == null || patient.getVersion() == null) {
+            return;
+        }
+        if (versions.size() >= MAX_ENTRIES) {
+            versions.clear(); // crude bound; the next requests simply reload
+        }
+        long lastModified = patient.getLastModified() == null ? -1 : patient.getLastModified().toEpochMilli();
+        PatientVersion current = new PatientVersion(patient.getVersion(), lastModified,
+                System.currentTimeMillis() + ttlMillis);
+        versions.merge(patient.getPatientId(), current,
+                (old, candidate) -> candidate.getVersion() >= old.getVersion() ? candidate : old);
+    }
+
+    void remove(Long patientId) {
+        versions.remove(patientId);
+    }
+}
+
+
+
+3. PatientService with Version Tracking (PatientService.java)
+getPatient(), addPatient() and the new updatePatient() record the version of the patient they read from or save to the DAO. getKnownVersion() only looks at that record and never calls the DAO. Paging works as before.
+
+With the patient cache on, a cache hit does not record its version again; otherwise every hit would restart the TTL and a copy changed on another node could be served for as long as the patient cache keeps it. When the recorded version has expired, getPatient() drops the cached copy and reads the patient again, so the cache never serves a patient older than VERSION_TTL_MS.
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.cache.PatientCache;
+import com.healthcare.management.dao.PatientDAO;
+import com.healthcare.management.model.Patient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import java.util.List;
+
+@Service
+public class PatientService {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+    public static final long VERSION_TTL_MS = 30_000;
+
+    private final PatientDAO patientDAO;
+    private final PatientCache patientCache;
+    private final PatientVersions versions = new PatientVersions(VERSION_TTL_MS);
+
+    @Autowired
+    public PatientService(PatientDAO patientDAO, @Nullable PatientCache patientCache) {
+        this.patientDAO = patientDAO;
+        this.patientCache = patientCache;
+    }
+
+    public Patient getPatient(Long patientId) {
+        if (patientCache == null) {
+            Patient patient = patientDAO.findByPatientId(patientId);
+            versions.record(patient);
+            return patient;
+        }
+        // A cache hit is not recorded: that would restart the TTL for a copy that may be older than the
+        // database. Once the version has expired, the cached copy is dropped and read again.
+        if (versions.get(patientId) == null) {
+            patientCache.invalidate(patientId);
+        }
+        return patientCache.get(patientId, id -> {
+            Patient loaded = patientDAO.findByPatientId(id);
+            versions.record(loaded);
+            return loaded;
+        });
+    }
+
+    // The last version seen by this node, or null if unknown; never touches the database
+    public PatientVersion getKnownVersion(Long patientId) {
+        return versions.get(patientId);
+    }
+
+    /**
+     * Loads every patient into memory. Use {@link #getPatientsPage(Long, int)} instead.
+     */
+    @Deprecated
+    public List<Patient> getAllPatients() {
+        return patientDAO.findAll();
+    }
+
+    // Returns up to pageSize patients with an id greater than afterPatientId (null for the first page)
+    public PatientPage getPatientsPage(Long afterPatientId, int pageSize) {
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        long after = afterPatientId == null ? 0L : afterPatientId;
+
+        List<Patient> rows = patientDAO.findByPatientIdGreaterThanOrderByPatientIdAsc(after, PageRequest.of(0, size + 1));
+
+        if (rows.size() > size) {
+            List<Patient> page = rows.subList(0, size);
+            return new PatientPage(page, page.get(size - 1).getPatientId());
+        }
+        return new PatientPage(rows, null);
+    }
+
+    public Patient addPatient(Patient patient) {
+        Patient saved = patientDAO.save(patient);
+        if (patientCache != null) {
+            patientCache.invalidate(saved.getPatientId());
+        }
+        versions.record(saved);
+        return saved;
+    }
+
+    // Returns the updated patient (with its new version), or null if there is no such patient
+    public Patient updatePatient(Long patientId, String name, String email, String phone) {
+        Patient patient = patientDAO.findByPatientId(patientId);
+        if (patient == null) {
+            return null;
+        }
+        patient.setName(name);
+        patient.setEmail(email);
+        patient.setPhone(phone);
+        return addPatient(patient);
+    }
+
+    public void deletePatient(Long patientId) {
+        patientDAO.deleteById(patientId);
+        if (patientCache != null) {
+            patientCache.invalidate(patientId);
+        }
+        versions.remove(patientId);
+    }
+}
+
+
+updatePatient() reads the row from the DAO, not from the patient cache, so the version it saves is the one in the database. If someone else changed the patient in between, save() throws an optimistic locking exception rather than overwriting their change.
+
+
+
+4. Session Profile Version (CompactSessionProfile.java)
+CompactSessionProfile from "off-heap session profile store" gets three small on-heap fields:
+
+version: 1 after login or registration, incremented on every profile update.
+lastModified: when this version was created.
+fingerprint: a CRC32 of the encoded bytes. It is part of the ETag, so two different users who both have version 1 never get the same ETag in a shared browser.
+
+Reading these fields does not decode anything, so a 304 costs no String allocations at all.
+
+
+package com.healthcare.session;
+
+import com.healthcare.model.UserProfile;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+public final class CompactSessionProfile implements Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private static final int HEADER_BYTES = 4;
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private static final int FULL_NAME = 0;
+    private static final int EMAIL = 1;
+    private static final int GENDER = 2;
+    private static final int AGE = 3;
+    private static final int FIRST_HISTORY = 4;
+
+    private final long version;
+    private final long lastModified;
+    private final int fingerprint;
+    private transient ByteBuffer data;
+
+    private CompactSessionProfile(ByteBuffer data, long version, long lastModified, int fingerprint) {
+        this.data = data;
+        this.version = version;
+        this.lastModified = lastModified;
+        this.fingerprint = fingerprint;
+    }
+
+    public static CompactSessionProfile encode(UserProfile user, String[] medicalHistory, String[] appointments) {
+        return encode(user, medicalHistory, appointments, 1);
+    }
+
+    public static CompactSessionProfile encode(UserProfile user, String[] medicalHistory, String[] appointments,
+                                               long version) {
+        String[] history = medicalHistory == null ? new String[0] : medicalHistory;
+        String[] upcoming = appointments == null ? new String[0] : appointments;
+        // The counts and lengths are stored as u16; a plain (short) cast would wrap a larger value
+        if (history.length > MAX_ENTRIES || upcoming.length > MAX_ENTRIES) {
+            throw new IllegalArgumentException("More than " + MAX_ENTRIES + " medical history entries or appointments");
+        }
+
+        byte[][] fields = new byte[4 + history.length + upcoming.length][];
+        fields[FULL_NAME] = utf8(user.getFullName());
+        fields[EMAIL] = utf8(user.getEmail());
+        fields[GENDER] = utf8(user.getGender());
+        fields[AGE] = utf8(user.getAge());
+        for (int i = 0; i < history.length; i++) {
+            fields[FIRST_HISTORY + i] = utf8(history[i]);
+        }
+        for (int i = 0; i < upcoming.length; i++) {
+            fields[FIRST_HISTORY + history.length + i] = utf8(upcoming[i]);
+        }
+
+        int size = HEADER_BYTES;
+        for (byte[] field : fields) {
+            size += 2 + field.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.putShort((short) history.length);
+        buffer.putShort((short) upcoming.length);
+        for (byte[] field : fields) {
+            buffer.putShort((short) field.length); // at most MAX_FIELD_BYTES, checked by utf8()
+            buffer.put(field);
+        }
+        buffer.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return new CompactSessionProfile(buffer, version, System.currentTimeMillis(), (int) crc.getValue());
+    }
+
+    public String getFullName() {
+        return field(FULL_NAME);
+    }
+
+    public String getEmail() {
+        return field(EMAIL);
+    }
+
+    public String getGender() {
+        return field(GENDER);
+    }
+
+    public String getAge() {
+        return field(AGE);
+    }
+
+    public String[] getMedicalHistory() {
+        return fields(FIRST_HISTORY, historyCount());
+    }
+
+    public String[] getAppointments() {
+        return fields(FIRST_HISTORY + historyCount(), appointmentCount());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public int getFingerprint() {
+        return fingerprint;
+    }
+
+    // A regular UserProfile, for code that needs to modify the profile
+    public UserProfile toUserProfile() {
+        return new UserProfile(getFullName(), getEmail(), getGender(), getAge());
+    }
+
+    public int getOffHeapBytes() {
+        return data.capacity();
+    }
+
+    private int historyCount() {
+        return data.getShort(0) & 0xFFFF;
+    }
+
+    private int appointmentCount() {
+        return data.getShort(2) & 0xFFFF;
+    }
+
+    // Absolute reads only, so concurrent requests in the same session can share the buffer
+    private int offsetOf(int index) {
+        int offset = HEADER_BYTES;
+        for (int i = 0; i < index; i++) {
+            offset += 2 + (data.getShort(offset) & 0xFFFF);
+        }
+        return offset;
+    }
+
+    private String field(int index) {
+        return decode(offsetOf(index));
+    }
+
+    private String[] fields(int firstIndex, int count) {
+        String[] result = new String[count];
+        int offset = offsetOf(firstIndex);
+        for (int i = 0; i < count; i++) {
+            result[i] = decode(offset);
+            offset += 2 + (data.getShort(offset) & 0xFFFF);
+        }
+        return result;
+    }
+
+    private String decode(int offset) {
+        int length = data.getShort(offset) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = data.duplicate();
+        view.position(offset + 2);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("Session field longer than " + MAX_FIELD_BYTES + " bytes");
+        }
+        return bytes;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] bytes = new byte[data.capacity()];
+        data.duplicate().get(bytes);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        data = ByteBuffer.allocateDirect(bytes.length);
+        data.put(bytes).flip();
+    }
+}
+
+
+The serialVersionUID changes to 2L because the serialized form now includes the new fields. Sessions persisted by the old version cannot be restored, so users logged in during the upgrade have to log in again.
+
+SessionProfiles.updateProfile() now creates the new profile with the next version:
+
+
+    // Replace the profile fields and keep the stored medical history and appointments
+    public static void updateProfile(HttpSession session, UserProfile user) {
+        CompactSessionProfile current = get(session);
+        String[] history = current == null ? null : current.getMedicalHistory();
+        String[] appointments = current == null ? null : current.getAppointments();
+        long version = current == null ? 1 : current.getVersion() + 1;
+        session.setAttribute(ATTRIBUTE, CompactSessionProfile.encode(user, history, appointments, version));
+    }
+
+
+
+5. Conditional GET Helper (ConditionalGet.java, ConditionalGetMetrics.java)
+This class builds ETags, compares them with the request headers, and counts the results. There is one instance per application, stored as a context attribute.
+
+Every ETag contains a deploy tag: the application version from the app.version context parameter. Every node running the same build produces the same ETags, so a client keeps its 304s when the load balancer sends it to another node or a node restarts. A new release, which may change the JSP output, has a new version, and all old ETags stop matching.
+
+notModified() answers 304 if the client's copy is current and does nothing otherwise. respond() does the same, but also sets the validators for a full 200 response; it is called once the page is going to be rendered.
+
+If-None-Match is checked first; If-Modified-Since is only used when there is no If-None-Match, as HTTP requires. A weak ETag (W/"...") from the client is compared by its value, because some proxies and Tomcat's compression turn strong ETags into weak ones.
+
+
+package com.healthcare.servlet.conditional;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class ConditionalGet {
+
+    public static final String ATTRIBUTE = "conditionalGet";
+
+    private final String deployTag;
+    private final ConditionalGetMetrics metrics = new ConditionalGetMetrics();
+
+    public ConditionalGet(String deployTag) {
+        this.deployTag = deployTag;
+    }
+
+    public static ConditionalGet from(ServletContext context) {
+        return (ConditionalGet) context.getAttribute(ATTRIBUTE);
+    }
+
+    // For example "p-1.4.0-2a-7" for version 7 of patient 42 in release 1.4.0
+    public String etag(String kind, long... parts) {
+        StringBuilder etag = new StringBuilder(32).append('"').append(kind).append('-').append(deployTag);
+        for (long part : parts) {
+            etag.append('-').append(Long.toHexString(part));
+        }
+        return etag.append('"').toString();
+    }
+
+    // Sends 304 and returns true if the client's copy is current; otherwise changes nothing
+    public boolean notModified(HttpServletRequest request, HttpServletResponse response,
+                               String etag, long lastModified) {
+        if (!matches(request, etag, lastModified)) {
+            return false;
+        }
+        setValidators(response, etag, lastModified);
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        metrics.recordNotModified();
+        return true;
+    }
+
+    // Like notModified(), but sets the validators for the full response when the page must be rendered
+    public boolean respond(HttpServletRequest request, HttpServletResponse response,
+                           String etag, long lastModified) {
+        if (notModified(request, response, etag, lastModified)) {
+            return true;
+        }
+        setValidators(response, etag, lastModified);
+        metrics.recordFull();
+        return false;
+    }
+
+    public ConditionalGetMetrics getMetrics() {
+        return metrics;
+    }
+
+    private static boolean matches(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etagMatches(ifNoneMatch, etag);
+        }
+        if (lastModified < 0) {
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return false; // unparseable date
+        }
+        // HTTP dates have one-second precision
+        return ifModifiedSince >= 0 && lastModified / 1000 * 1000 <= ifModifiedSince;
+    }
+
+    private static boolean etagMatches(String header, String etag) {
+        if ("*".equals(header.trim())) {
+            return true;
+        }
+        for (String candidate : header.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void setValidators(HttpServletResponse response, String etag, long lastModified) {
+        response.setHeader("ETag", etag);
+        if (lastModified >= 0) {
+            response.setDateHeader("Last-Modified", lastModified);
+        }
+        // The browser may keep the page but must check with us before showing it
+        response.setHeader("Cache-Control", "private, no-cache");
+    }
+}
+
+
+package com.healthcare.servlet.conditional;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class ConditionalGetMetrics {
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder fullResponses = new LongAdder();
+
+    void recordNotModified() {
+        notModified.increment();
+    }
+
+    void recordFull() {
+        fullResponses.increment();
+    }
+
+    public long getNotModified() {
+        return notModified.sum();
+    }
+
+    public long getFullResponses() {
+        return fullResponses.sum();
+    }
+
+    // Share of conditional-capable responses answered with 304, from 0.0 to 1.0
+    public double getNotModifiedRatio() {
+        long hits = notModified.sum();
+        long total = hits + fullResponses.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+}
+
+
+The listener that creates the instance. Characters other than letters, digits and dots are dropped from the version, so that it cannot break the quoted ETag:
+
+
+package com.healthcare.servlet.conditional;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebListener;
+import java.util.logging.Logger;
+
+@WebListener
+public class ConditionalGetContextListener implements ServletContextListener {
+    private static final Logger LOG = Logger.getLogger(ConditionalGetContextListener.class.getName());
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        context.setAttribute(ConditionalGet.ATTRIBUTE, new ConditionalGet(deployTag(context)));
+    }
+
+    private static String deployTag(ServletContext context) {
+        String version = context.getInitParameter("app.version");
+        if (version == null || version.trim().isEmpty()) {
+            LOG.warning("app.version is not set; ETags will not change when a new release is deployed");
+            version = "dev";
+        }
+        return version.trim().replaceAll("[^A-Za-z0-9.]", "");
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        event.getServletContext().removeAttribute(ConditionalGet.ATTRIBUTE);
+    }
+}
+
+
+In web.xml. The build fills in the project version (with filteringDeploymentDescriptors enabled in maven-war-plugin), so every release gets a new value without anyone editing it:
+
+
+<context-param>
+    <param-name>app.version</param-name>
+    <param-value>${project.version}</param-value>
+</context-param>
+
+
+
+6. DisplayUserProfileServlet with ETags (DisplayUserProfileServlet.java)
+The ETag is built from the version and fingerprint of the session profile. If it matches, the servlet sends 304 and the JSP is never run.
+
+"Vary: Cookie" tells caches that the page depends on the session cookie, so one user's copy is never shown to another.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.servlet.conditional.ConditionalGet;
+import com.healthcare.session.CompactSessionProfile;
+import com.healthcare.session.SessionProfiles;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+
+public class DisplayUserProfileServlet extends HttpServlet {
+
+    private ConditionalGet conditionalGet;
+
+    @Override
+    public void init() throws ServletException {
+        conditionalGet = ConditionalGet.from(getServletContext());
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        CompactSessionProfile profile = SessionProfiles.get(request.getSession(false));
+        if (profile == null) {
+            // If the user is not logged in, redirect them to the login page
+            response.sendRedirect("login.jsp");
+            return;
+        }
+
+        response.setHeader("Vary", "Cookie");
+        String etag = conditionalGet.etag("u", profile.getVersion(), profile.getFingerprint());
+        if (conditionalGet.respond(request, response, etag, profile.getLastModified())) {
+            return;
+        }
+
+        RequestDispatcher dispatcher = request.getRequestDispatcher("userProfile.jsp");
+        dispatcher.forward(request, response);
+    }
+}
+
+
+userProfile.jsp opened directly has no ETag, so LoginServlet and UpdateUserProfileServlet now redirect to the servlet instead of the JSP:
+
+
+response.sendRedirect("DisplayUserProfileServlet");
+
+
+
+7. UpdateUserProfileServlet Bumping the Version (UpdateUserProfileServlet.java)
+The profile update goes through SessionProfiles.updateProfile(), which increments the version. The next profile view therefore gets a new ETag and a full page.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.model.UserProfile;
+import com.healthcare.session.SessionProfiles;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+
+public class UpdateUserProfileServlet extends HttpServlet {
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        // Get the updated information from the form
+        String fullName = request.getParameter("fullName");
+        String age = request.getParameter("age");
+        String email = request.getParameter("email");
+        String gender = request.getParameter("gender");
+
+        HttpSession session = request.getSession(false);
+        if (SessionProfiles.get(session) != null) {
+            // Store the updated profile (with the next version) back in the session
+            SessionProfiles.updateProfile(session, new UserProfile(fullName, email, gender, age));
+
+            // Redirect to the updated profile page
+            response.sendRedirect("DisplayUserProfileServlet");
+        } else {
+            // If no user session exists, redirect to login or registration page
+            response.sendRedirect("register.jsp");
+        }
+    }
+}
+
+
+
+8. Patient Views with ETags (PatientViews.java)
+PatientViews from "async patient lookups with virtual threads" gets two methods shared by ViewPatientServlet and UpdatePatientServlet:
+
+notModified() is called before any lookup. It uses only PatientService.getKnownVersion(), so a 304 never reaches the DAO, the patient cache or the lookup executor.
+render() is called after the lookup. It still answers 304 if the freshly loaded version matches (the JSP is skipped), and otherwise sets the validators and the request attributes.
+
+The ETag includes the patient id, because the same URL with another patientId is a different page.
+
+
+package com.healthcare.servlet.async;
+
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.service.PatientService;
+import com.healthcare.management.service.PatientVersion;
+import com.healthcare.servlet.conditional.ConditionalGet;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public final class PatientViews {
+
+    private PatientViews() {
+    }
+
+    // Sends 304 if this node knows the patient's version and the client has it
+    public static boolean notModified(HttpServletRequest request, HttpServletResponse response,
+                                      PatientService patientService, Long patientId) {
+        PatientVersion known = patientService.getKnownVersion(patientId);
+        if (known == null) {
+            return false;
+        }
+        ConditionalGet conditionalGet = ConditionalGet.from(request.getServletContext());
+        return conditionalGet.notModified(request, response,
+                conditionalGet.etag("p", patientId, known.getVersion()), known.getLastModified());
+    }
+
+    // Returns true if a 304 was sent; otherwise the view can be rendered
+    public static boolean render(HttpServletRequest request, HttpServletResponse response, Patient patient) {
+        ConditionalGet conditionalGet = ConditionalGet.from(request.getServletContext());
+        long version = patient.getVersion() == null ? 0 : patient.getVersion();
+        long lastModified = patient.getLastModified() == null ? -1 : patient.getLastModified().toEpochMilli();
+        if (conditionalGet.respond(request, response,
+                conditionalGet.etag("p", patient.getPatientId(), version), lastModified)) {
+            return true;
+        }
+        setAttributes(request, patient);
+        return false;
+    }
+
+    public static void setAttributes(HttpServletRequest request, Patient patient) {
+        request.setAttribute("patient", patient);
+        request.setAttribute("patientId", patient.getPatientId());
+        request.setAttribute("patientName", patient.getName());
+    }
+
+    // null if the parameter is missing or not a number
+    public static Long parsePatientId(HttpServletRequest request) {
+        String value = request.getParameter("patientId");
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
+
+
+In AsyncPatientLookup, the success branch of the lookup task completes the request on a 304 instead of dispatching to the JSP:
+
+
+            if (finished.compareAndSet(false, true)) {
+                if (patient == null) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND, "No patient with id " + patientId);
+                    async.complete();
+                } else if (PatientViews.render(request, response, patient)) {
+                    async.complete();
+                } else {
+                    async.dispatch(view);
+                }
+            }
+
+
+
+9. ViewPatientServlet (ViewPatientServlet.java)
+The known-version check comes first, before the synchronous lookup or startAsync(). A polling dashboard whose patient has not changed is answered on the container thread in microseconds.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.service.PatientService;
+import com.healthcare.servlet.async.AsyncPatientLookup;
+import com.healthcare.servlet.async.PatientLookupExecutor;
+import com.healthcare.servlet.async.PatientViews;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+
+@WebServlet(urlPatterns = "/ViewPatientServlet", asyncSupported = true)
+public class ViewPatientServlet extends HttpServlet {
+
+    private PatientService patientService;
+    private PatientLookupExecutor lookupExecutor;
+
+    @Override
+    public void init() throws ServletException {
+        patientService = WebApplicationContextUtils
+                .getRequiredWebApplicationContext(getServletContext())
+                .getBean(PatientService.class);
+        // null when async lookups are disabled
+        lookupExecutor = (PatientLookupExecutor) getServletContext()
+                .getAttribute(PatientLookupContextListener.EXECUTOR_ATTRIBUTE);
+    }
+
+    // Handle GET requests (view patient details)
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Long patientId = PatientViews.parsePatientId(request);
+        if (patientId == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid patientId");
+            return;
+        }
+
+        if (PatientViews.notModified(request, response, patientService, patientId)) {
+            return;
+        }
+
+        if (lookupExecutor != null) {
+            AsyncPatientLookup.lookupAndForward(request, response, lookupExecutor, patientId,
+                    patientService::getPatient, "/viewPatient.jsp");
+            return;
+        }
+
+        Patient patient = patientService.getPatient(patientId);
+        if (patient == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No patient with id " + patientId);
+            return;
+        }
+        if (PatientViews.render(request, response, patient)) {
+            return;
+        }
+        RequestDispatcher dispatcher = request.getRequestDispatcher("viewPatient.jsp");
+        dispatcher.forward(request, response);
+    }
+}
+
+
+
+10. UpdatePatientServlet (UpdatePatientServlet.java)
+doGet gets the same check as ViewPatientServlet. doPost now saves the change through PatientService.updatePatient(), which bumps the version and records it, so the next view of this patient gets a new ETag. The form fields are the ones the Patient entity has: name, email and phone.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.service.PatientService;
+import com.healthcare.servlet.async.AsyncPatientLookup;
+import com.healthcare.servlet.async.PatientLookupExecutor;
+import com.healthcare.servlet.async.PatientViews;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+
+@WebServlet(urlPatterns = "/UpdatePatientServlet", asyncSupported = true)
+public class UpdatePatientServlet extends HttpServlet {
+
+    private PatientService patientService;
+    private PatientLookupExecutor lookupExecutor;
+
+    @Override
+    public void init() throws ServletException {
+        patientService = WebApplicationContextUtils
+                .getRequiredWebApplicationContext(getServletContext())
+                .getBean(PatientService.class);
+        lookupExecutor = (PatientLookupExecutor) getServletContext()
+                .getAttribute(PatientLookupContextListener.EXECUTOR_ATTRIBUTE);
+    }
+
+    // Handle GET requests (show the edit form)
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Long patientId = PatientViews.parsePatientId(request);
+        if (patientId == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid patientId");
+            return;
+        }
+
+        if (PatientViews.notModified(request, response, patientService, patientId)) {
+            return;
+        }
+
+        if (lookupExecutor != null) {
+            AsyncPatientLookup.lookupAndForward(request, response, lookupExecutor, patientId,
+                    patientService::getPatient, "/updatePatient.jsp");
+            return;
+        }
+
+        Patient patient = patientService.getPatient(patientId);
+        if (patient == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No patient with id " + patientId);
+            return;
+        }
+        if (PatientViews.render(request, response, patient)) {
+            return;
+        }
+        RequestDispatcher dispatcher = request.getRequestDispatcher("updatePatient.jsp");
+        dispatcher.forward(request, response);
+    }
+
+    // Handle POST requests (process the updated data)
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Long patientId = PatientViews.parsePatientId(request);
+        if (patientId == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid patientId");
+            return;
+        }
+
+        String name = request.getParameter("name");
+        String email = request.getParameter("email");
+        String phone = request.getParameter("phone");
+
+        if (patientService.updatePatient(patientId, name, email, phone) == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No patient with id " + patientId);
+            return;
+        }
+
+        // Redirect to the patient list page after successful update
+        response.sendRedirect("patientList");
+    }
+}
+
+
+
+11. Checking the Counters (conditionalGet.jsp)
+An admin page in the same style as registrationQueue.jsp, showing how many responses were 304 and how many were full pages.
+
+
+<%@ page contentType="text/html;charset=UTF-8" language="java" %>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
+
+<!DOCTYPE html>
+<html lang="en">
+<head>
+    <meta charset="UTF-8">
+    <title>Conditional GET</title>
+</head>
+<body>
+    <h2>Conditional GET</h2>
+    <c:set var="metrics" value="${applicationScope.conditionalGet.metrics}" />
+    <p><strong>304 Not Modified:</strong> ${metrics.notModified}</p>
+    <p><strong>200 full page:</strong> ${metrics.fullResponses}</p>
+    <p><strong>304 share:</strong> <fmt:formatNumber value="${metrics.notModifiedRatio}" type="percent" maxFractionDigits="1" /></p>
+</body>
+</html>
+
+
+
+Explanation:
+Versions: the session profile carries a version that UpdateUserProfileServlet increments. Patients have a JPA @Version column that Hibernate increments on every update through PatientService.
+ETag: built from the deploy tag, the kind of page, the id and the version (plus a content fingerprint for profiles). It changes whenever the data changes or a new release is deployed, and is the same on every node.
+304 without the DAO: the profile check reads three fields of the session object. The patient check reads PatientService's record of recent versions. Neither touches the database, the patient cache or the JSP engine.
+Cache-Control "private, no-cache": the browser keeps the page but asks every time, so a change is visible on the next refresh. Shared proxies never store the page.
+Staleness: a patient change made through another node is seen here after at most VERSION_TTL_MS (30 seconds), with or without the patient cache. Changes made through this node are seen immediately.
+Counters: ConditionalGetMetrics counts 304 and full 200 responses with LongAdder; conditionalGet.jsp shows them and the 304 share.
+
+
+
+Summary
+Profile and patient pages now carry ETag and Last-Modified headers. A refresh or dashboard poll of an unchanged page gets a 304 with no body, without a database query or a JSP render. Updates through UpdateUserProfileServlet and UpdatePatientServlet bump the version so the next request gets the new page, and counters show how many requests were saved.
@@ -0,0 +1,634 @@
+In the first version of the Healthcare Management System, DatabaseConnection.getConnection() called DriverManager.getConnection(...) every time a patient was inserted. That means every registration pays for a brand-new TCP connection plus MySQL authentication before a single row is written, and during registration spikes this handshake is most of the request latency.
+
+To fix this, we'll put a small, bounded connection pool between the servlets and MySQL. The pool keeps physical connections open and hands them out on demand, and calling close() on a borrowed connection returns it to the pool instead of closing the socket.
+
+The pool supports:
+
+A hard upper bound on open connections (a Semaphore), so a traffic spike queues instead of overwhelming MySQL.
+Lock-light borrowing: idle connections live in a ConcurrentLinkedDeque, so borrowing and returning never take a global lock.
+Validation-on-borrow: a connection that has been idle for a while is checked with Connection.isValid(...) before it is handed out.
+Max lifetime: connections older than a configured age are retired, so MySQL's wait_timeout never kills a connection we think is alive.
+Leak detection: a connection held longer than a threshold is logged together with the stack trace of the code that borrowed it.
+Pool-wait metrics: borrow count, total and maximum wait time, timeouts, and connections created/retired.
+
+
+
+1. Pool Settings (PoolConfig.java)
+This class holds the pool settings. The defaults are reasonable for a single Tomcat node talking to one MySQL instance.
+
+
+package com.healthcare.db;
+
+import java.util.Properties;
+
+public class PoolConfig {
+    private final String jdbcUrl;
+    private final String user;
+    private final String password;
+
+    private int maxPoolSize = 10;
+    private long connectionTimeoutMs = 3_000;
+    private long maxLifetimeMs = 30 * 60_000;
+    private long validationIntervalMs = 5_000;
+    private int validationTimeoutSeconds = 2;
+    private long leakDetectionThresholdMs = 60_000;
+
+    public PoolConfig(String jdbcUrl, String user, String password) {
+        this.jdbcUrl = jdbcUrl;
+        this.user = user;
+        this.password = password;
+    }
+
+    // Build a config from "db.*" properties (for example, servlet context init parameters)
+    public static PoolConfig fromProperties(Properties props) {
+        PoolConfig config = new PoolConfig(
+                props.getProperty("db.url", "jdbc:mysql://localhost:3306/healthcare_db"),
+                props.getProperty("db.user", "root"),
+                props.getProperty("db.password", ""));
+        config.setMaxPoolSize(Integer.parseInt(props.getProperty("db.pool.maxSize", "10")));
+        config.setConnectionTimeoutMs(Long.parseLong(props.getProperty("db.pool.connectionTimeoutMs", "3000")));
+        config.setMaxLifetimeMs(Long.parseLong(props.getProperty("db.pool.maxLifetimeMs", "1800000")));
+        config.setValidationIntervalMs(Long.parseLong(props.getProperty("db.pool.validationIntervalMs", "5000")));
+        config.setLeakDetectionThresholdMs(Long.parseLong(props.getProperty("db.pool.leakDetectionThresholdMs", "60000")));
+        return config;
+    }
+
+    public String getJdbcUrl() {
+        return jdbcUrl;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+        if (maxPoolSize < 1) {
+            throw new IllegalArgumentException("maxPoolSize must be at least 1");
+        }
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public long getConnectionTimeoutMs() {
+        return connectionTimeoutMs;
+    }
+
+    public void setConnectionTimeoutMs(long connectionTimeoutMs) {
+        this.connectionTimeoutMs = connectionTimeoutMs;
+    }
+
+    public long getMaxLifetimeMs() {
+        return maxLifetimeMs;
+    }
+
+    public void setMaxLifetimeMs(long maxLifetimeMs) {
+        this.maxLifetimeMs = maxLifetimeMs;
+    }
+
+    public long getValidationIntervalMs() {
+        return validationIntervalMs;
+    }
+
+    public void setValidationIntervalMs(long validationIntervalMs) {
+        this.validationIntervalMs = validationIntervalMs;
+    }
+
+    public int getValidationTimeoutSeconds() {
+        return validationTimeoutSeconds;
+    }
+
+    public void setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+    }
+
+    public long getLeakDetectionThresholdMs() {
+        return leakDetectionThresholdMs;
+    }
+
+    // 0 disables leak detection
+    public void setLeakDetectionThresholdMs(long leakDetectionThresholdMs) {
+        this.leakDetectionThresholdMs = leakDetectionThresholdMs;
+    }
+}
+
+
+
+2. Pool Metrics (PoolMetrics.java)
+The counters use LongAdder, so recording them from many request threads at the same time does not create contention.
+
+
+package com.healthcare.db;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class PoolMetrics {
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder retired = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    void recordWait(long nanos) {
+        borrows.increment();
+        waitNanos.add(nanos);
+        maxWaitNanos.accumulate(nanos);
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    void recordCreated() {
+        created.increment();
+    }
+
+    void recordRetired() {
+        retired.increment();
+    }
+
+    void recordLeak() {
+        leaks.increment();
+    }
+
+    public long getBorrowCount() {
+        return borrows.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = borrows.sum();
+        return count == 0 ? 0.0 : waitNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    public long getCreatedCount() {
+        return created.sum();
+    }
+
+    public long getRetiredCount() {
+        return retired.sum();
+    }
+
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("borrows=%d avgWaitMs=%.3f maxWaitMs=%d timeouts=%d created=%d retired=%d leaks=%d",
+                getBorrowCount(), getAverageWaitMillis(), getMaxWaitMillis(), getTimeoutCount(),
+                getCreatedCount(), getRetiredCount(), getLeakCount());
+    }
+}
+
+
+
+3. The Connection Pool (ConnectionPool.java)
+This is the pool itself. The Semaphore limits how many connections can be borrowed at once. Idle connections are stored in a deque and reused LIFO (last in, first out), so the most recently used connection is handed out first. A single background thread retires expired idle connections and reports leaked ones.
+
+Borrowed connections are wrapped in a java.lang.reflect.Proxy. The proxy intercepts close() and returns the connection to the pool, so existing try-with-resources code keeps working unchanged. unwrap() is not passed on: it would hand out the physical connection, which the caller could keep using, or close, after the proxy has returned it to the pool.
+
+
+package com.healthcare.db;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class ConnectionPool implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+
+    private final PoolConfig config;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Entry> idle = new ConcurrentLinkedDeque<>();
+    private final Set<Entry> borrowed = ConcurrentHashMap.newKeySet();
+    private final PoolMetrics metrics = new PoolMetrics();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    public ConnectionPool(PoolConfig config) {
+        this.config = config;
+        this.permits = new Semaphore(config.getMaxPoolSize(), true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // Borrow a connection; close() on the returned object gives it back to the pool
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(config.getConnectionTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                metrics.recordTimeout();
+                throw new SQLTransientConnectionException("Timed out after " + config.getConnectionTimeoutMs()
+                        + "ms waiting for a database connection (pool size " + config.getMaxPoolSize() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        metrics.recordWait(System.nanoTime() - start);
+
+        try {
+            Entry entry = takeIdle();
+            if (entry == null) {
+                entry = new Entry(DriverManager.getConnection(config.getJdbcUrl(), config.getUser(), config.getPassword()));
+                metrics.recordCreated();
+            }
+            entry.borrowedAt = System.currentTimeMillis();
+            entry.borrowSite = config.getLeakDetectionThresholdMs() > 0 ? new Throwable("Connection borrowed here") : null;
+            entry.leakReported = false;
+            borrowed.add(entry);
+            return entry.newProxy();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return borrowed.size();
+    }
+
+    private Entry takeIdle() {
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            if (isUsable(entry)) {
+                return entry;
+            }
+            retire(entry);
+        }
+        return null;
+    }
+
+    private boolean isUsable(Entry entry) {
+        long now = System.currentTimeMillis();
+        if (now - entry.createdAt >= config.getMaxLifetimeMs()) {
+            return false;
+        }
+        // A connection that was used a moment ago is almost certainly alive; skip the round trip
+        if (now - entry.returnedAt < config.getValidationIntervalMs()) {
+            return true;
+        }
+        try {
+            return entry.physical.isValid(config.getValidationTimeoutSeconds());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(Entry entry) {
+        if (!borrowed.remove(entry)) {
+            return; // already returned
+        }
+        try {
+            if (!entry.physical.getAutoCommit()) {
+                entry.physical.rollback();
+                entry.physical.setAutoCommit(true);
+            }
+            entry.returnedAt = System.currentTimeMillis();
+            if (closed || entry.returnedAt - entry.createdAt >= config.getMaxLifetimeMs()) {
+                retire(entry);
+            } else {
+                idle.offerFirst(entry);
+            }
+        } catch (SQLException e) {
+            retire(entry);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void retire(Entry entry) {
+        metrics.recordRetired();
+        try {
+            entry.physical.close();
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, "Error closing retired connection", e);
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+
+        for (Iterator<Entry> it = idle.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (now - entry.createdAt >= config.getMaxLifetimeMs() && idle.removeFirstOccurrence(entry)) {
+                retire(entry);
+            }
+        }
+
+        long threshold = config.getLeakDetectionThresholdMs();
+        if (threshold > 0) {
+            for (Entry entry : borrowed) {
+                if (!entry.leakReported && now - entry.borrowedAt > threshold) {
+                    entry.leakReported = true;
+                    metrics.recordLeak();
+                    LOG.log(Level.WARNING, "Possible connection leak: connection held for "
+                            + (now - entry.borrowedAt) + "ms", entry.borrowSite);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            retire(entry);
+        }
+        // Borrowed connections are retired when their holders call close()
+    }
+
+    // One physical connection plus its bookkeeping
+    private final class Entry {
+        final Connection physical;
+        final long createdAt = System.currentTimeMillis();
+        volatile long returnedAt = createdAt;
+        volatile long borrowedAt;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+
+        Entry(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection newProxy() {
+            boolean[] returned = new boolean[1];
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            // Object methods work on the proxy itself, also after it has been returned
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "toString":
+                                return "PooledConnection@" + Integer.toHexString(System.identityHashCode(proxy))
+                                        + (returned[0] ? " (returned)" : " wrapping " + physical);
+                            case "close":
+                                if (!returned[0]) {
+                                    returned[0] = true;
+                                    release(this);
+                                }
+                                return null;
+                            case "isClosed":
+                                return returned[0] || physical.isClosed();
+                            case "isWrapperFor":
+                                return ((Class<?>) args[0]).isInstance(proxy);
+                            case "unwrap":
+                                if (((Class<?>) args[0]).isInstance(proxy)) {
+                                    return proxy;
+                                }
+                                throw new SQLException("A pooled connection cannot be unwrapped to "
+                                        + ((Class<?>) args[0]).getName());
+                            default:
+                                if (returned[0]) {
+                                    throw new SQLException("Connection has already been returned to the pool");
+                                }
+                                try {
+                                    return method.invoke(physical, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                        }
+                    });
+        }
+    }
+}
+
+
+
+4. Updated DatabaseConnection (DatabaseConnection.java)
+DatabaseConnection keeps the same static API, so existing callers do not need to change. getConnection() now borrows from the shared pool instead of opening a new connection. The pool is normally installed by the context listener (next section). If nothing installs it, a default pool is created on first use with the same settings as before.
+
+
+package com.healthcare.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Properties;
+
+public final class DatabaseConnection {
+    private static volatile ConnectionPool pool;
+
+    private DatabaseConnection() {
+    }
+
+    // Called once at application startup
+    public static void init(ConnectionPool connectionPool) {
+        pool = connectionPool;
+    }
+
+    public static ConnectionPool getPool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (DatabaseConnection.class) {
+                p = pool;
+                if (p == null) {
+                    p = new ConnectionPool(PoolConfig.fromProperties(new Properties()));
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    public static Connection getConnection() throws SQLException {
+        return getPool().getConnection();
+    }
+
+    public static void insertPatient(String name, int age, String disease) {
+        try (Connection con = getConnection()) {
+            String query = "INSERT INTO patients (name, age, disease) VALUES (?, ?, ?)";
+            try (PreparedStatement pst = con.prepareStatement(query)) {
+                pst.setString(1, name);
+                pst.setInt(2, age);
+                pst.setString(3, disease);
+                pst.executeUpdate();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
+
+
+
+5. Creating the Pool at Startup (DatabaseContextListener.java)
+A ServletContextListener creates the pool when the application is deployed and closes it when the application is undeployed. Settings come from <context-param> entries in web.xml. The pool is also stored as a context attribute so servlets can read its metrics.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.ConnectionPool;
+import com.healthcare.db.DatabaseConnection;
+import com.healthcare.db.PoolConfig;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebListener;
+import java.util.Enumeration;
+import java.util.Properties;
+
+@WebListener
+public class DatabaseContextListener implements ServletContextListener {
+
+    public static final String POOL_ATTRIBUTE = "connectionPool";
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+
+        // Copy all db.* context parameters into a Properties object
+        Properties props = new Properties();
+        Enumeration<String> names = context.getInitParameterNames();
+        while (names.hasMoreElements()) {
+            String name = names.nextElement();
+            if (name.startsWith("db.")) {
+                props.setProperty(name, context.getInitParameter(name));
+            }
+        }
+
+        ConnectionPool pool = new ConnectionPool(PoolConfig.fromProperties(props));
+        DatabaseConnection.init(pool);
+        context.setAttribute(POOL_ATTRIBUTE, pool);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        ConnectionPool pool = (ConnectionPool) event.getServletContext().getAttribute(POOL_ATTRIBUTE);
+        if (pool != null) {
+            event.getServletContext().log("Closing connection pool: " + pool.getMetrics());
+            pool.close();
+        }
+    }
+}
+
+
+The matching entries in WEB-INF/web.xml:
+
+
+<context-param>
+    <param-name>db.url</param-name>
+    <param-value>jdbc:mysql://localhost:3306/healthcare_db</param-value>
+</context-param>
+<context-param>
+    <param-name>db.user</param-name>
+    <param-value>root</param-value>
+</context-param>
+<context-param>
+    <param-name>db.password</param-name>
+    <param-value>your_password</param-value>
+</context-param>
+<context-param>
+    <param-name>db.pool.maxSize</param-name>
+    <param-value>20</param-value>
+</context-param>
+
+
+
+6. RegisterPatientServlet Using the Pool (RegisterPatientServlet.java)
+The servlet now stores the patient through DatabaseConnection, which borrows a pooled connection and returns it when the insert is done. No code in the servlet deals with the pool directly.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.DatabaseConnection;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+
+public class RegisterPatientServlet extends HttpServlet {
+
+    // Handle GET requests (display registration form)
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        RequestDispatcher dispatcher = request.getRequestDispatcher("register.jsp");
+        dispatcher.forward(request, response);
+    }
+
+    // Handle POST requests (store the patient using a pooled connection)
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String name = request.getParameter("name");
+        String age = request.getParameter("age");
+        String disease = request.getParameter("disease");
+
+        int parsedAge;
+        try {
+            parsedAge = Integer.parseInt(age);
+        } catch (NumberFormatException e) {
+            response.sendRedirect("register.jsp?error=true");
+            return;
+        }
+
+        DatabaseConnection.insertPatient(name, parsedAge, disease);
+
+        response.sendRedirect("patientList.jsp");
+    }
+}
+
+
+
+Explanation:
+Borrowing: getConnection() waits up to connectionTimeoutMs for a free slot. It then reuses an idle connection if one passes the lifetime and validation checks; otherwise it opens a new one.
+Returning: close() on the proxy rolls back any unfinished transaction, restores auto-commit, and pushes the connection back to the front of the idle deque.
+Validation: isValid() is only called if the connection has been idle longer than validationIntervalMs, so a busy pool does not add an extra round trip to every borrow.
+Leaks: if a connection is held longer than leakDetectionThresholdMs, the housekeeper logs a warning with the borrower's stack trace and increments the leak counter.
+Metrics: ConnectionPool.getMetrics() reports the average and maximum time callers waited for a connection, as well as timeouts. A rising wait time is the first sign that maxPoolSize is too small.
+
+
+
+Summary
+DatabaseConnection.getConnection() no longer performs a TCP handshake and MySQL authentication for every patient insert. It borrows an already-open connection from a bounded pool, and the pool takes care of validating, retiring, and tracking its connections.
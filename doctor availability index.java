@@ -0,0 +1,502 @@
+The Appointment table only stores appointment_date and appointment_time for each booking. To answer "which slots does Dr. Smith have free this week?", the system has to load the doctor's appointments for the week and compare them against the working hours for every request. The booking page asks this question constantly.
+
+In this part, we'll build an in-memory availability index:
+
+The day is divided into fixed slots (15 minutes by default; 5 and 10 also work).
+For every doctor and day that has bookings, the index keeps a small bitset: bit i is set when slot i is booked. With 15-minute slots a whole day is 96 bits, i.e. two longs.
+At startup the index is loaded from the Appointment table (today onwards).
+Every POST /appointments updates the index after the appointment is saved.
+Free slots are computed as "working hours AND NOT booked" with a few bitwise operations, so a query for a week takes microseconds and never touches the database.
+
+
+
+1. The Appointment Entity (Appointment.java)
+Maps the Appointment table from the project documentation.
+
+
+package com.healthcare.management.model;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+@Entity
+@Table(name = "appointment")
+public class Appointment {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "appointment_id")
+    private Long appointmentId;
+
+    @Column(name = "patient_id", nullable = false)
+    private Long patientId;
+
+    @Column(name = "doctor_id", nullable = false)
+    private Long doctorId;
+
+    @Column(name = "appointment_date", nullable = false)
+    private LocalDate appointmentDate;
+
+    @Column(name = "appointment_time", nullable = false)
+    private LocalTime appointmentTime;
+
+    protected Appointment() {
+    }
+
+    public Appointment(Long patientId, Long doctorId, LocalDate appointmentDate, LocalTime appointmentTime) {
+        this.patientId = patientId;
+        this.doctorId = doctorId;
+        this.appointmentDate = appointmentDate;
+        this.appointmentTime = appointmentTime;
+    }
+
+    public Long getAppointmentId() {
+        return appointmentId;
+    }
+
+    public Long getPatientId() {
+        return patientId;
+    }
+
+    public Long getDoctorId() {
+        return doctorId;
+    }
+
+    public LocalDate getAppointmentDate() {
+        return appointmentDate;
+    }
+
+    public LocalTime getAppointmentTime() {
+        return appointmentTime;
+    }
+}
+
+
+
+2. The Appointment DAO (AppointmentDAO.java)
+streamByAppointmentDateGreaterThanEqual returns a Stream, so the startup load reads the appointments row by row instead of building one large List. It must be called inside a transaction and the stream must be closed.
+
+
+package com.healthcare.management.dao;
+
+import com.healthcare.management.model.Appointment;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.stream.Stream;
+
+@Repository
+public interface AppointmentDAO extends JpaRepository<Appointment, Long> {
+    Stream<Appointment> streamByAppointmentDateGreaterThanEqual(LocalDate from);
+}
+
+
+
+3. Working Hours (WorkingHours.java)
+The working hours used to decide which slots can be booked at all. For now every doctor shares the same default hours; per-doctor hours can be registered with AvailabilityIndex.setWorkingHours.
+
+
+package com.healthcare.management.availability;
+
+import java.time.LocalTime;
+
+public final class WorkingHours {
+    public static final WorkingHours DEFAULT = new WorkingHours(LocalTime.of(8, 0), LocalTime.of(18, 0));
+
+    private final LocalTime start;
+    private final LocalTime end;
+
+    public WorkingHours(LocalTime start, LocalTime end) {
+        if (!end.isAfter(start)) {
+            throw new IllegalArgumentException("end must be after start");
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    public LocalTime getStart() {
+        return start;
+    }
+
+    public LocalTime getEnd() {
+        return end;
+    }
+}
+
+
+
+4. One Doctor-Day of Slots (DaySlots.java)
+The bitset for a single doctor and day. The words are held in an AtomicLongArray, so bookings from different request threads can set bits without locking.
+
+
+package com.healthcare.management.availability;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+final class DaySlots {
+    private final AtomicLongArray booked;
+
+    DaySlots(int slotsPerDay) {
+        this.booked = new AtomicLongArray((slotsPerDay + 63) / 64);
+    }
+
+    void markBooked(int slot) {
+        int word = slot >>> 6;
+        long bit = 1L << slot;
+        long current;
+        do {
+            current = booked.get(word);
+        } while ((current & bit) == 0 && !booked.compareAndSet(word, current, current | bit));
+    }
+
+    void markFree(int slot) {
+        int word = slot >>> 6;
+        long bit = 1L << slot;
+        long current;
+        do {
+            current = booked.get(word);
+        } while ((current & bit) != 0 && !booked.compareAndSet(word, current, current & ~bit));
+    }
+
+    boolean isBooked(int slot) {
+        return (booked.get(slot >>> 6) & (1L << slot)) != 0;
+    }
+
+    long word(int index) {
+        return booked.get(index);
+    }
+}
+
+
+Note: in Java, 1L << slot only uses the low six bits of slot, so it already selects the bit within the word.
+
+
+
+5. The Availability Index (AvailabilityIndex.java)
+The index maps doctor id to a map of day (epoch day) to DaySlots. Days without bookings have no entry at all, so they cost no memory and are simply "all working hours free".
+
+freeSlots() builds the working-hours mask for the doctor once per call, then for every day computes mask & ~booked word by word and turns the set bits into times with Long.numberOfTrailingZeros.
+
+
+package com.healthcare.management.availability;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class AvailabilityIndex {
+    public static final int MAX_RANGE_DAYS = 31;
+
+    private final int slotMinutes;
+    private final int slotsPerDay;
+    private final int words;
+    private final Map<Long, Map<Long, DaySlots>> byDoctor = new ConcurrentHashMap<>();
+    private final Map<Long, WorkingHours> workingHours = new ConcurrentHashMap<>();
+
+    public AvailabilityIndex(int slotMinutes) {
+        if (slotMinutes <= 0 || (24 * 60) % slotMinutes != 0) {
+            throw new IllegalArgumentException("slotMinutes must divide a day evenly: " + slotMinutes);
+        }
+        this.slotMinutes = slotMinutes;
+        this.slotsPerDay = 24 * 60 / slotMinutes;
+        this.words = (slotsPerDay + 63) / 64;
+    }
+
+    public int getSlotMinutes() {
+        return slotMinutes;
+    }
+
+    public void setWorkingHours(Long doctorId, WorkingHours hours) {
+        workingHours.put(doctorId, hours);
+    }
+
+    public WorkingHours getWorkingHours(Long doctorId) {
+        return workingHours.getOrDefault(doctorId, WorkingHours.DEFAULT);
+    }
+
+    public void markBooked(Long doctorId, LocalDate date, LocalTime time) {
+        day(doctorId, date).markBooked(slotOf(time));
+    }
+
+    public void markFree(Long doctorId, LocalDate date, LocalTime time) {
+        DaySlots slots = existingDay(doctorId, date);
+        if (slots != null) {
+            slots.markFree(slotOf(time));
+        }
+    }
+
+    public boolean isFree(Long doctorId, LocalDate date, LocalTime time) {
+        int slot = slotOf(time);
+        if (!isWorkingSlot(getWorkingHours(doctorId), slot)) {
+            return false;
+        }
+        DaySlots slots = existingDay(doctorId, date);
+        return slots == null || !slots.isBooked(slot);
+    }
+
+    // Free slot start times for each day in [from, to]
+    public Map<LocalDate, List<LocalTime>> freeSlots(Long doctorId, LocalDate from, LocalDate to) {
+        if (to.isBefore(from) || ChronoUnit.DAYS.between(from, to) >= MAX_RANGE_DAYS) {
+            throw new IllegalArgumentException("Date range must be between 1 and " + MAX_RANGE_DAYS + " days");
+        }
+
+        long[] workingMask = workingMask(getWorkingHours(doctorId));
+        Map<Long, DaySlots> days = byDoctor.getOrDefault(doctorId, Collections.emptyMap());
+        Map<LocalDate, List<LocalTime>> result = new LinkedHashMap<>();
+
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            DaySlots slots = days.get(date.toEpochDay());
+            List<LocalTime> free = new ArrayList<>();
+            for (int w = 0; w < words; w++) {
+                long bits = workingMask[w] & ~(slots == null ? 0L : slots.word(w));
+                while (bits != 0) {
+                    int slot = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    free.add(LocalTime.MIDNIGHT.plusMinutes((long) slot * slotMinutes));
+                    bits &= bits - 1;
+                }
+            }
+            result.put(date, free);
+        }
+        return result;
+    }
+
+    // Drop days that are in the past; called once a day
+    public void evictBefore(LocalDate date) {
+        long cutoff = date.toEpochDay();
+        for (Map<Long, DaySlots> days : byDoctor.values()) {
+            days.keySet().removeIf(day -> day < cutoff);
+        }
+    }
+
+    int slotOf(LocalTime time) {
+        return (time.getHour() * 60 + time.getMinute()) / slotMinutes;
+    }
+
+    DaySlots day(Long doctorId, LocalDate date) {
+        return byDoctor.computeIfAbsent(doctorId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(date.toEpochDay(), d -> new DaySlots(slotsPerDay));
+    }
+
+    private DaySlots existingDay(Long doctorId, LocalDate date) {
+        Map<Long, DaySlots> days = byDoctor.get(doctorId);
+        return days == null ? null : days.get(date.toEpochDay());
+    }
+
+    private boolean isWorkingSlot(WorkingHours hours, int slot) {
+        return slot >= slotOf(hours.getStart()) && slot < endSlot(hours);
+    }
+
+    // First slot after working hours; the last working slot must end by closing time
+    private int endSlot(WorkingHours hours) {
+        return (hours.getEnd().toSecondOfDay() / 60) / slotMinutes;
+    }
+
+    private long[] workingMask(WorkingHours hours) {
+        long[] mask = new long[words];
+        int first = slotOf(hours.getStart());
+        int end = endSlot(hours);
+        for (int slot = first; slot < end; slot++) {
+            mask[slot >>> 6] |= 1L << slot;
+        }
+        return mask;
+    }
+}
+
+
+
+6. Index Configuration (AvailabilityConfig.java)
+Creates the index bean with the configured slot length and enables the scheduler used for the nightly cleanup.
+
+
+package com.healthcare.management.availability;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+@Configuration
+@EnableScheduling
+public class AvailabilityConfig {
+
+    @Bean
+    public AvailabilityIndex availabilityIndex(@Value("${healthcare.availability.slot-minutes:15}") int slotMinutes) {
+        return new AvailabilityIndex(slotMinutes);
+    }
+}
+
+
+
+7. Loading the Index at Startup (AvailabilityIndexLoader.java)
+An ApplicationRunner streams every appointment from today onwards into the index once the application has started. A scheduled job drops past days every night, so the index only holds the future.
+
+
+package com.healthcare.management.availability;
+
+import com.healthcare.management.dao.AppointmentDAO;
+import com.healthcare.management.model.Appointment;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+@Component
+public class AvailabilityIndexLoader implements ApplicationRunner {
+    private static final Logger LOG = Logger.getLogger(AvailabilityIndexLoader.class.getName());
+
+    private final AppointmentDAO appointmentDAO;
+    private final AvailabilityIndex availabilityIndex;
+
+    public AvailabilityIndexLoader(AppointmentDAO appointmentDAO, AvailabilityIndex availabilityIndex) {
+        this.appointmentDAO = appointmentDAO;
+        this.availabilityIndex = availabilityIndex;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        long count = 0;
+        try (Stream<Appointment> appointments = appointmentDAO.streamByAppointmentDateGreaterThanEqual(LocalDate.now())) {
+            for (Appointment a : (Iterable<Appointment>) appointments::iterator) {
+                availabilityIndex.markBooked(a.getDoctorId(), a.getAppointmentDate(), a.getAppointmentTime());
+                count++;
+            }
+        }
+        LOG.info("Availability index loaded " + count + " appointments in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    @Scheduled(cron = "0 5 0 * * *")
+    public void evictPastDays() {
+        availabilityIndex.evictBefore(LocalDate.now());
+    }
+}
+
+
+Note: @Transactional on run() only takes effect because Spring calls run() through the bean's proxy. The Stream keeps the JDBC result set open, so it has to be read and closed inside that transaction.
+
+
+
+8. Booking Appointments (AppointmentService.java)
+AppointmentService saves the appointment and then marks its slot as booked in the index. The index is only updated after a successful save, so a failed insert never makes a slot look taken.
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.availability.AvailabilityIndex;
+import com.healthcare.management.dao.AppointmentDAO;
+import com.healthcare.management.model.Appointment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class AppointmentService {
+
+    private final AppointmentDAO appointmentDAO;
+    private final AvailabilityIndex availabilityIndex;
+
+    @Autowired
+    public AppointmentService(AppointmentDAO appointmentDAO, AvailabilityIndex availabilityIndex) {
+        this.appointmentDAO = appointmentDAO;
+        this.availabilityIndex = availabilityIndex;
+    }
+
+    public Appointment getAppointment(Long appointmentId) {
+        return appointmentDAO.findById(appointmentId).orElse(null);
+    }
+
+    public Appointment bookAppointment(Appointment appointment) {
+        Appointment saved = appointmentDAO.save(appointment);
+        availabilityIndex.markBooked(saved.getDoctorId(), saved.getAppointmentDate(), saved.getAppointmentTime());
+        return saved;
+    }
+
+    public Map<LocalDate, List<LocalTime>> getFreeSlots(Long doctorId, LocalDate from, LocalDate to) {
+        return availabilityIndex.freeSlots(doctorId, from, to);
+    }
+}
+
+
+
+9. Appointment Endpoints (AppointmentController.java)
+POST /appointments and GET /appointments/{id} follow the API documentation. The new availability query is:
+
+
+GET /doctors/1/availability?from=2025-02-03&to=2025-02-09
+
+
+package com.healthcare.management.controller;
+
+import com.healthcare.management.model.Appointment;
+import com.healthcare.management.service.AppointmentService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+public class AppointmentController {
+
+    private final AppointmentService appointmentService;
+
+    public AppointmentController(AppointmentService appointmentService) {
+        this.appointmentService = appointmentService;
+    }
+
+    @PostMapping("/appointments")
+    public ResponseEntity<Appointment> createAppointment(@RequestBody Appointment appointment) {
+        return ResponseEntity.status(HttpStatus.CREATED).body(appointmentService.bookAppointment(appointment));
+    }
+
+    @GetMapping("/appointments/{id}")
+    public ResponseEntity<Appointment> getAppointment(@PathVariable Long id) {
+        Appointment appointment = appointmentService.getAppointment(id);
+        return appointment == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(appointment);
+    }
+
+    @GetMapping("/doctors/{doctorId}/availability")
+    public Map<LocalDate, List<LocalTime>> availability(
+            @PathVariable Long doctorId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        return appointmentService.getFreeSlots(doctorId, from, to);
+    }
+}
+
+
+
+Explanation:
+Bitsets: one bit per slot. With 15-minute slots, a doctor-day is two longs; with 5-minute slots, five longs. Days without bookings have no entry.
+Query cost: for each day, the free slots are found with an AND NOT per word and one numberOfTrailingZeros per free slot. A seven-day query is a few hundred simple operations.
+Consistency: the index is loaded from the database at startup and updated after every successful booking, so it reflects what is stored.
+Memory: the nightly evictBefore() removes past days, so memory grows with future bookings only.
+Slot alignment: an appointment_time that does not fall exactly on a slot boundary marks the slot it falls into.
+
+
+
+Summary
+Questions like "which slots does doctor X have free this week?" are now answered from an in-memory bitset per doctor and day, without scanning the Appointment table. The index is loaded at startup and kept current by every POST /appointments.
@@ -0,0 +1,1135 @@
+Doctor rows almost never change: a new doctor joins now and then, and a phone number or specialty is corrected once in a while. Yet every appointment view needs the doctor's name and specialty, and every booking needs the doctor. The schedule queries from "patient projections and fetch plans" join the doctor table on every page, and AppointmentService does not check the doctor at all. A booking for an unknown doctor reserves the slot in the availability index and goes to the database, only to fail on the foreign key at save.
+
+Working hours have the same problem. The availability index can hold per-doctor hours, but nothing stores them, so every doctor gets the default hours after a restart.
+
+In this part, we'll add a read-mostly cache of the whole doctor table:
+
+Bulk warm-up: all doctors are loaded with one query at startup, and again every ten minutes to pick up changes made on other nodes.
+Working-hours templates: each doctor row gets optional start and end times. The cache passes them to the availability index whenever it stores a doctor.
+Write-through invalidation: adding or updating a doctor through the new /doctors endpoints replaces the cache entry with the saved row.
+Statistics: hit, miss and load counts and the last refresh are available on an admin endpoint.
+Appointment schedules and bookings read doctors from the cache only, so in steady state they never query the doctor table.
+
+
+
+1. Working-Hours Templates (Doctor.java, schema.sql)
+The Doctor entity from "patient projections and fetch plans" gets the start and end of the doctor's working day. Both are nullable, and a doctor without them keeps WorkingHours.DEFAULT.
+
+
+package com.healthcare.management.model;
+
+import javax.persistence.*;
+import java.time.LocalTime;
+
+@Entity
+@Table(name = "doctor")
+public class Doctor {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "doctor_id")
+    private Long doctorId;
+
+    @Column(nullable = false)
+    private String name;
+
+    private String specialty;
+
+    @Column(name = "phone_number")
+    private String phone;
+
+    private String email;
+
+    // Both null means the default working hours
+    @Column(name = "work_start")
+    private LocalTime workStart;
+
+    @Column(name = "work_end")
+    private LocalTime workEnd;
+
+    protected Doctor() {
+    }
+
+    public Doctor(String name, String specialty, String phone, String email) {
+        this.name = name;
+        this.specialty = specialty;
+        this.phone = phone;
+        this.email = email;
+    }
+
+    public Long getDoctorId() {
+        return doctorId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getSpecialty() {
+        return specialty;
+    }
+
+    public void setSpecialty(String specialty) {
+        this.specialty = specialty;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public void setPhone(String phone) {
+        this.phone = phone;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public LocalTime getWorkStart() {
+        return workStart;
+    }
+
+    public void setWorkStart(LocalTime workStart) {
+        this.workStart = workStart;
+    }
+
+    public LocalTime getWorkEnd() {
+        return workEnd;
+    }
+
+    public void setWorkEnd(LocalTime workEnd) {
+        this.workEnd = workEnd;
+    }
+}
+
+
+ALTER TABLE doctor
+    ADD COLUMN work_start TIME NULL,
+    ADD COLUMN work_end TIME NULL;
+
+
+Add this factory to WorkingHours, so a template stored on the doctor can be turned into hours:
+
+
+    // Hours from a doctor's template; no template (both null) means DEFAULT
+    public static WorkingHours of(LocalTime start, LocalTime end) {
+        if (start == null && end == null) {
+            return DEFAULT;
+        }
+        if (start == null || end == null) {
+            throw new IllegalArgumentException("Working hours need both a start and an end");
+        }
+        return new WorkingHours(start, end);
+    }
+
+
+
+2. Cached Doctors (DoctorRecord.java, DoctorDAO.java)
+The cache holds immutable DoctorRecords, not entities, so entries can be shared between requests and a caller cannot change what other requests see. This is the same idea as PatientRecord in "compact profile model".
+
+
+package com.healthcare.management.model;
+
+import java.time.LocalTime;
+
+// Immutable copy of a doctor row, safe to share between requests
+public final class DoctorRecord {
+    private final Long doctorId;
+    private final String name;
+    private final String specialty;
+    private final String phone;
+    private final String email;
+    private final LocalTime workStart;
+    private final LocalTime workEnd;
+
+    private DoctorRecord(Long doctorId, String name, String specialty, String phone, String email,
+                         LocalTime workStart, LocalTime workEnd) {
+        this.doctorId = doctorId;
+        this.name = name;
+        this.specialty = specialty;
+        this.phone = phone;
+        this.email = email;
+        this.workStart = workStart;
+        this.workEnd = workEnd;
+    }
+
+    public static DoctorRecord of(Doctor doctor) {
+        return new DoctorRecord(doctor.getDoctorId(), doctor.getName(), doctor.getSpecialty(),
+                doctor.getPhone(), doctor.getEmail(), doctor.getWorkStart(), doctor.getWorkEnd());
+    }
+
+    public Long getDoctorId() {
+        return doctorId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSpecialty() {
+        return specialty;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public LocalTime getWorkStart() {
+        return workStart;
+    }
+
+    public LocalTime getWorkEnd() {
+        return workEnd;
+    }
+}
+
+
+package com.healthcare.management.dao;
+
+import com.healthcare.management.model.Doctor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface DoctorDAO extends JpaRepository<Doctor, Long> {
+    Doctor findByDoctorId(Long doctorId);
+}
+
+
+
+3. The Cache (DoctorCache.java)
+A Caffeine cache, as in "patient cache", but without a size limit or TTL. The doctor table is small, and the periodic refresh takes the place of expiry. Reads are served by Caffeine without locking. get() and getAll() read through to the DAO on a miss, and getAll() loads all of its misses with one findAllById. A doctor that does not exist is not cached, so an unknown id always goes to the database.
+
+put() and refresh() are synchronized with each other. DoctorService calls put() after the save has committed. A refresh that read the table before that commit either finishes before the put, which then overwrites it, or runs after it and reads the new row. Either way, an update is never replaced by the older row. The onChange callback runs inside the same lock, so the availability index receives working hours in the same order as the cache.
+
+
+package com.healthcare.management.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.healthcare.management.dao.DoctorDAO;
+import com.healthcare.management.model.Doctor;
+import com.healthcare.management.model.DoctorRecord;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class DoctorCache {
+
+    private final DoctorDAO doctorDAO;
+    private final Consumer<DoctorRecord> onChange;
+    private final Cache<Long, DoctorRecord> cache;
+    private volatile Instant lastRefresh;
+    private volatile long lastRefreshMillis;
+
+    public DoctorCache(DoctorDAO doctorDAO) {
+        this(doctorDAO, doctor -> { });
+    }
+
+    // onChange is called for every doctor stored by put() or refresh(), while no other put or refresh runs
+    public DoctorCache(DoctorDAO doctorDAO, Consumer<DoctorRecord> onChange) {
+        this.doctorDAO = doctorDAO;
+        this.onChange = onChange;
+        // No size limit or expiry: the doctor table is small and every row is kept
+        this.cache = Caffeine.newBuilder()
+                .recordStats()
+                .build();
+    }
+
+    // Null if there is no such doctor
+    public DoctorRecord get(Long doctorId) {
+        return doctorId == null ? null : cache.get(doctorId, this::load);
+    }
+
+    // The doctors among doctorIds that exist; all misses are loaded with one query
+    public Map<Long, DoctorRecord> getAll(Collection<Long> doctorIds) {
+        return cache.getAll(doctorIds, this::loadAll);
+    }
+
+    // Every doctor, in id order
+    public List<DoctorRecord> list() {
+        if (lastRefresh == null) {
+            refresh();
+        }
+        List<DoctorRecord> doctors = new ArrayList<>(cache.asMap().values());
+        doctors.sort(Comparator.comparing(DoctorRecord::getDoctorId));
+        return doctors;
+    }
+
+    // Replaces the entry of a doctor that was just added or changed; call after the save
+    public synchronized DoctorRecord put(Doctor doctor) {
+        DoctorRecord record = DoctorRecord.of(doctor);
+        cache.put(record.getDoctorId(), record);
+        onChange.accept(record);
+        return record;
+    }
+
+    // Reads the whole doctor table with one query. Entries of doctors that are gone are removed.
+    // Synchronized with put(), so a refresh that read the table before a save cannot overwrite it.
+    public synchronized List<DoctorRecord> refresh() {
+        long start = System.nanoTime();
+        Map<Long, DoctorRecord> fresh = new HashMap<>();
+        for (Doctor doctor : doctorDAO.findAll()) {
+            fresh.put(doctor.getDoctorId(), DoctorRecord.of(doctor));
+        }
+        cache.putAll(fresh);
+        cache.asMap().keySet().retainAll(fresh.keySet());
+        fresh.values().forEach(onChange);
+        lastRefreshMillis = (System.nanoTime() - start) / 1_000_000;
+        lastRefresh = Instant.now();
+        return new ArrayList<>(fresh.values());
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    // Null until the first refresh
+    public Instant getLastRefresh() {
+        return lastRefresh;
+    }
+
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    private DoctorRecord load(Long doctorId) {
+        Doctor doctor = doctorDAO.findByDoctorId(doctorId);
+        return doctor == null ? null : DoctorRecord.of(doctor);
+    }
+
+    private Map<Long, DoctorRecord> loadAll(Iterable<? extends Long> doctorIds) {
+        List<Long> ids = new ArrayList<>();
+        doctorIds.forEach(ids::add);
+        Map<Long, DoctorRecord> loaded = new HashMap<>();
+        for (Doctor doctor : doctorDAO.findAllById(ids)) {
+            loaded.put(doctor.getDoctorId(), DoctorRecord.of(doctor));
+        }
+        return loaded;
+    }
+}
+
+
+
+4. Warm-Up and Refresh (DoctorCacheConfig.java, DoctorCacheLoader.java)
+The cache is always on; unlike the patient cache, bookings depend on it. The configuration connects it to the availability index: every doctor the cache stores, whether by warm-up, refresh or put, sets that doctor's working hours in the index.
+
+
+package com.healthcare.management.cache;
+
+import com.healthcare.management.availability.AvailabilityIndex;
+import com.healthcare.management.availability.WorkingHours;
+import com.healthcare.management.dao.DoctorDAO;
+import com.healthcare.management.model.DoctorRecord;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.logging.Logger;
+
+@Configuration
+public class DoctorCacheConfig {
+    private static final Logger LOG = Logger.getLogger(DoctorCacheConfig.class.getName());
+
+    // Every doctor the cache stores passes its working-hours template on to the availability index
+    @Bean
+    public DoctorCache doctorCache(DoctorDAO doctorDAO, AvailabilityIndex availabilityIndex) {
+        return new DoctorCache(doctorDAO,
+                doctor -> availabilityIndex.setWorkingHours(doctor.getDoctorId(), workingHours(doctor)));
+    }
+
+    // A row edited by hand with only one of the two times gets the default hours
+    private static WorkingHours workingHours(DoctorRecord doctor) {
+        try {
+            return WorkingHours.of(doctor.getWorkStart(), doctor.getWorkEnd());
+        } catch (IllegalArgumentException e) {
+            LOG.warning("Doctor " + doctor.getDoctorId() + ": " + e.getMessage() + ", using the default hours");
+            return WorkingHours.DEFAULT;
+        }
+    }
+}
+
+
+DoctorCacheLoader loads every doctor once the application has started, like AvailabilityIndexLoader, and reloads the table every ten minutes. The refresh interval can be set in application.properties:
+
+
+healthcare.doctor-cache.refresh-interval-ms=600000
+
+
+package com.healthcare.management.cache;
+
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.logging.Logger;
+
+@Component
+public class DoctorCacheLoader implements ApplicationRunner {
+    private static final Logger LOG = Logger.getLogger(DoctorCacheLoader.class.getName());
+
+    private final DoctorCache doctorCache;
+
+    public DoctorCacheLoader(DoctorCache doctorCache) {
+        this.doctorCache = doctorCache;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int count = doctorCache.refresh().size();
+        LOG.info("Doctor cache loaded " + count + " doctors in " + doctorCache.getLastRefreshMillis() + " ms");
+    }
+
+    // Picks up doctors changed outside this node: on another node, or directly in the database
+    @Scheduled(fixedDelayString = "${healthcare.doctor-cache.refresh-interval-ms:600000}",
+            initialDelayString = "${healthcare.doctor-cache.refresh-interval-ms:600000}")
+    public void refresh() {
+        doctorCache.refresh();
+    }
+}
+
+
+Scheduling is already enabled by AvailabilityConfig. Until a doctor changed on another node is picked up by the next refresh, this node shows the old name and uses the old working hours.
+
+
+
+5. Adding and Updating Doctors (DoctorService.java, DoctorController.java)
+"Adding and updating doctor details" from the project documentation, now through the cache. Writes go to the database first. The saved row then replaces the cache entry, so the next read on this node sees the change without a query.
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.availability.WorkingHours;
+import com.healthcare.management.cache.DoctorCache;
+import com.healthcare.management.dao.DoctorDAO;
+import com.healthcare.management.model.Doctor;
+import com.healthcare.management.model.DoctorRecord;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+@Service
+public class DoctorService {
+
+    private final DoctorDAO doctorDAO;
+    private final DoctorCache doctorCache;
+
+    public DoctorService(DoctorDAO doctorDAO, DoctorCache doctorCache) {
+        this.doctorDAO = doctorDAO;
+        this.doctorCache = doctorCache;
+    }
+
+    // Null if there is no such doctor
+    public DoctorRecord getDoctor(Long doctorId) {
+        return doctorCache.get(doctorId);
+    }
+
+    public List<DoctorRecord> listDoctors() {
+        return doctorCache.list();
+    }
+
+    public DoctorRecord addDoctor(Doctor doctor) {
+        validate(doctor);
+        return doctorCache.put(doctorDAO.save(doctor));
+    }
+
+    // Returns the updated doctor, or null if there is no such doctor
+    public DoctorRecord updateDoctor(Long doctorId, Doctor changes) {
+        Doctor doctor = doctorDAO.findByDoctorId(doctorId);
+        if (doctor == null) {
+            return null;
+        }
+        doctor.setName(changes.getName());
+        doctor.setSpecialty(changes.getSpecialty());
+        doctor.setPhone(changes.getPhone());
+        doctor.setEmail(changes.getEmail());
+        doctor.setWorkStart(changes.getWorkStart());
+        doctor.setWorkEnd(changes.getWorkEnd());
+        return addDoctor(doctor);
+    }
+
+    private static void validate(Doctor doctor) {
+        if (doctor.getName() == null || doctor.getName().trim().isEmpty()) {
+            throw new IllegalArgumentException("Doctor name is required");
+        }
+        WorkingHours.of(doctor.getWorkStart(), doctor.getWorkEnd()); // throws for half a template
+    }
+}
+
+
+package com.healthcare.management.controller;
+
+import com.healthcare.management.model.Doctor;
+import com.healthcare.management.model.DoctorRecord;
+import com.healthcare.management.service.DoctorService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/doctors")
+public class DoctorController {
+
+    private final DoctorService doctorService;
+
+    public DoctorController(DoctorService doctorService) {
+        this.doctorService = doctorService;
+    }
+
+    @GetMapping
+    public List<DoctorRecord> listDoctors() {
+        return doctorService.listDoctors();
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<DoctorRecord> getDoctor(@PathVariable Long id) {
+        DoctorRecord doctor = doctorService.getDoctor(id);
+        return doctor == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(doctor);
+    }
+
+    @PostMapping
+    public ResponseEntity<DoctorRecord> addDoctor(@RequestBody Doctor doctor) {
+        return ResponseEntity.status(HttpStatus.CREATED).body(doctorService.addDoctor(doctor));
+    }
+
+    @PutMapping("/{id}")
+    public ResponseEntity<DoctorRecord> updateDoctor(@PathVariable Long id, @RequestBody Doctor changes) {
+        DoctorRecord doctor = doctorService.updateDoctor(id, changes);
+        return doctor == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(doctor);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+}
+
+
+curl -X PUT -H "Content-Type: application/json" \
+     -d '{"name":"Dr. Smith","specialty":"Cardiology","workStart":"07:30","workEnd":"15:30"}' \
+     http://localhost:8080/doctors/1
+
+
+GET /doctors/{doctorId}/availability from "doctor availability index" uses the new hours straight away.
+
+
+
+6. Schedules Without the Doctor Join (UpcomingAppointment.java, PatientDAO.java, PatientService.java)
+Add this constructor and method to UpcomingAppointment:
+
+
+    // Without the doctor's name and specialty; used by the query that leaves the doctor table out
+    public UpcomingAppointment(Long patientId, Long appointmentId, LocalDate appointmentDate,
+                               LocalTime appointmentTime, Long doctorId) {
+        this(patientId, appointmentId, appointmentDate, appointmentTime, doctorId, null, null);
+    }
+
+    // A copy with the doctor's name and specialty; this one if the doctor is unknown
+    public UpcomingAppointment withDoctor(DoctorRecord doctor) {
+        return doctor == null
+                ? this
+                : new UpcomingAppointment(patientId, appointmentId, appointmentDate, appointmentTime,
+                        doctorId, doctor.getName(), doctor.getSpecialty());
+    }
+
+
+Add this query to PatientDAO. It is findUpcomingAppointments() without the join:
+
+
+    // As findUpcomingAppointments, but from the appointment table alone; the doctor comes from DoctorCache
+    @Query("SELECT new com.healthcare.management.model.UpcomingAppointment(a.patientId, a.appointmentId, "
+            + "a.appointmentDate, a.appointmentTime, a.doctorId) "
+            + "FROM Appointment a "
+            + "WHERE a.patientId IN :patientIds AND a.appointmentDate >= :from "
+            + "ORDER BY a.patientId, a.appointmentDate, a.appointmentTime")
+    List<UpcomingAppointment> findUpcomingAppointmentRows(@Param("patientIds") Collection<Long> patientIds,
+                                                          @Param("from") LocalDate from);
+
+
+PatientService takes the cache as a fifth argument of its single constructor. Like the other optional parts it is @Nullable, and the tests pass null for the parts they do not use (see section 9). Replace the constructor with:
+
+
+    private final DoctorCache doctorCache;
+
+    @Autowired
+    public PatientService(PatientDAO patientDAO, @Nullable PatientCache patientCache,
+                          @Nullable PatientSearchIndex searchIndex, @Nullable DashboardCounters dashboardCounters,
+                          @Nullable DoctorCache doctorCache) {
+        this.patientDAO = patientDAO;
+        this.patientCache = patientCache;
+        this.searchIndex = searchIndex;
+        this.dashboardCounters = dashboardCounters;
+        this.doctorCache = doctorCache;
+    }
+
+
+getPatientSchedules() and getPatientSchedule() now read their appointments through upcomingAppointments(). Without a doctor cache, as in the tests from "patient projections and fetch plans", they use the join query as before:
+
+
+    // Two statements whatever the page size: the summaries, then the appointments of the whole page
+    public List<PatientSchedule> getPatientSchedules(Long afterPatientId, int pageSize, LocalDate from) {
+        List<PatientSummary> patients = getPatientSummaries(afterPatientId, pageSize);
+        if (patients.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<Long, List<UpcomingAppointment>> byPatient = new HashMap<>();
+        for (PatientSummary patient : patients) {
+            byPatient.put(patient.getPatientId(), new ArrayList<>());
+        }
+        for (UpcomingAppointment appointment : upcomingAppointments(byPatient.keySet(), from)) {
+            byPatient.get(appointment.getPatientId()).add(appointment);
+        }
+
+        List<PatientSchedule> schedules = new ArrayList<>(patients.size());
+        for (PatientSummary patient : patients) {
+            schedules.add(new PatientSchedule(patient, byPatient.get(patient.getPatientId())));
+        }
+        return schedules;
+    }
+
+    // Null if there is no such patient. The patient is read through getPatient(), so with the
+    // patient cache enabled only the appointments query reaches the database.
+    public PatientSchedule getPatientSchedule(Long patientId, LocalDate from) {
+        Patient patient = getPatient(patientId);
+        if (patient == null) {
+            return null;
+        }
+        List<UpcomingAppointment> appointments = upcomingAppointments(Collections.singletonList(patientId), from);
+        return new PatientSchedule(PatientSummary.of(patient), appointments);
+    }
+
+    // With the doctor cache, the doctor table is left out of the query and the names come from memory
+    private List<UpcomingAppointment> upcomingAppointments(Collection<Long> patientIds, LocalDate from) {
+        if (doctorCache == null) {
+            return patientDAO.findUpcomingAppointments(patientIds, from);
+        }
+
+        List<UpcomingAppointment> rows = patientDAO.findUpcomingAppointmentRows(patientIds, from);
+        Set<Long> doctorIds = new HashSet<>();
+        for (UpcomingAppointment row : rows) {
+            doctorIds.add(row.getDoctorId());
+        }
+        Map<Long, DoctorRecord> doctors = doctorCache.getAll(doctorIds);
+
+        List<UpcomingAppointment> appointments = new ArrayList<>(rows.size());
+        for (UpcomingAppointment row : rows) {
+            appointments.add(row.withDoctor(doctors.get(row.getDoctorId())));
+        }
+        return appointments;
+    }
+
+
+Additional imports for PatientService:
+
+
+import com.healthcare.management.cache.DoctorCache;
+import com.healthcare.management.model.DoctorRecord;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+
+
+7. Checking the Doctor Before a Booking (AppointmentService.java)
+bookAppointment() now looks the doctor up in the cache before it reserves the slot. Like PatientService, AppointmentService keeps a single constructor with the optional parts marked @Nullable. An unknown doctor is an IllegalArgumentException, which the handler from "double booking protection" turns into 400. The slot is never reserved and the database is never asked.
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.availability.AvailabilityIndex;
+import com.healthcare.management.cache.DoctorCache;
+import com.healthcare.management.dao.AppointmentDAO;
+import com.healthcare.management.dashboard.DashboardCounters;
+import com.healthcare.management.dashboard.DashboardMetric;
+import com.healthcare.management.model.Appointment;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+@Service
+public class AppointmentService {
+
+    static final String SLOT_CONSTRAINT = "uk_appointment_doctor_slot";
+
+    private final AppointmentDAO appointmentDAO;
+    private final AvailabilityIndex availabilityIndex;
+    private final DashboardCounters dashboardCounters;
+    private final DoctorCache doctorCache;
+
+    @Autowired
+    public AppointmentService(AppointmentDAO appointmentDAO, AvailabilityIndex availabilityIndex,
+                              @Nullable DashboardCounters dashboardCounters, @Nullable DoctorCache doctorCache) {
+        this.appointmentDAO = appointmentDAO;
+        this.availabilityIndex = availabilityIndex;
+        this.dashboardCounters = dashboardCounters;
+        this.doctorCache = doctorCache;
+    }
+
+    public Appointment getAppointment(Long appointmentId) {
+        return appointmentDAO.findById(appointmentId).orElse(null);
+    }
+
+    public Appointment bookAppointment(Appointment appointment) {
+        Long doctorId = appointment.getDoctorId();
+        LocalDate date = appointment.getAppointmentDate();
+        LocalTime time = appointment.getAppointmentTime();
+
+        // Checked before the slot is reserved, so an unknown doctor never takes a slot or a database round trip
+        if (doctorCache != null && doctorCache.get(doctorId) == null) {
+            throw new IllegalArgumentException("Unknown doctor: " + doctorId);
+        }
+        if (!availabilityIndex.tryReserve(doctorId, date, time)) {
+            throw new SlotUnavailableException(doctorId, date, time);
+        }
+
+        Appointment saved;
+        try {
+            saved = appointmentDAO.save(appointment);
+        } catch (DataIntegrityViolationException e) {
+            if (violates(e, SLOT_CONSTRAINT)) {
+                // Booked through another node; the slot is genuinely taken, so keep it reserved
+                throw new SlotUnavailableException(doctorId, date, time);
+            }
+            availabilityIndex.release(doctorId, date, time);
+            throw e;
+        } catch (RuntimeException e) {
+            availabilityIndex.release(doctorId, date, time);
+            throw e;
+        }
+        if (dashboardCounters != null) {
+            dashboardCounters.record(DashboardMetric.APPOINTMENTS_BOOKED);
+        }
+        return saved;
+    }
+
+    // Returns false if there is no such appointment
+    public boolean cancelAppointment(Long appointmentId) {
+        Appointment appointment = getAppointment(appointmentId);
+        if (appointment == null) {
+            return false;
+        }
+        appointmentDAO.delete(appointment);
+        availabilityIndex.release(appointment.getDoctorId(), appointment.getAppointmentDate(),
+                appointment.getAppointmentTime());
+        if (dashboardCounters != null) {
+            dashboardCounters.record(DashboardMetric.APPOINTMENTS_CANCELLED);
+        }
+        return true;
+    }
+
+    public Map<LocalDate, List<LocalTime>> getFreeSlots(Long doctorId, LocalDate from, LocalDate to) {
+        return availabilityIndex.freeSlots(doctorId, from, to);
+    }
+
+    // True if the database rejected the row because of the given constraint
+    static boolean violates(DataIntegrityViolationException e, String constraint) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String name = cause instanceof ConstraintViolationException
+                    ? ((ConstraintViolationException) cause).getConstraintName()
+                    : cause.getMessage();
+            if (name != null && name.toLowerCase(Locale.ROOT).contains(constraint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
+
+
+
+8. Cache Statistics (DoctorCacheController.java)
+Next to /admin/cache/patients. In steady state, the hit rate is close to 1 and loads stays at 0. A growing number of loads means requests are asking for doctors the cache does not have. POST /admin/cache/doctors/refresh reloads the table at once, e.g. after it was changed directly in the database.
+
+
+package com.healthcare.management.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.healthcare.management.cache.DoctorCache;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class DoctorCacheController {
+
+    private final DoctorCache doctorCache;
+
+    public DoctorCacheController(DoctorCache doctorCache) {
+        this.doctorCache = doctorCache;
+    }
+
+    @GetMapping("/admin/cache/doctors")
+    public Map<String, Object> stats() {
+        CacheStats stats = doctorCache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", doctorCache.size());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("loads", stats.loadCount());
+        result.put("lastRefresh", doctorCache.getLastRefresh() == null ? null : doctorCache.getLastRefresh().toString());
+        result.put("lastRefreshMillis", doctorCache.getLastRefreshMillis());
+        return result;
+    }
+
+    // Reloads every doctor now, e.g. after the table was changed directly in the database
+    @PostMapping("/admin/cache/doctors/refresh")
+    public Map<String, Object> refresh() {
+        doctorCache.refresh();
+        return stats();
+    }
+}
+
+
+
+9. Unit Tests (DoctorCacheTest.java, RecordingStatementInspector.java, PatientServiceStatementCountTest.java)
+DoctorCacheTest uses a mocked DAO to check that a warm cache serves every read without the DAO, that getAll() loads only its misses with one query, and that put() and refresh() replace and drop entries.
+
+
+package com.healthcare.management.cache;
+
+import com.healthcare.management.dao.DoctorDAO;
+import com.healthcare.management.model.Doctor;
+import com.healthcare.management.model.DoctorRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+class DoctorCacheTest {
+
+    private final DoctorDAO doctorDAO = mock(DoctorDAO.class);
+    private final List<DoctorRecord> changed = new ArrayList<>();
+    private final Doctor smith = doctor(1L, "Dr. Smith", "Cardiology");
+    private final Doctor jones = doctor(2L, "Dr. Jones", "Dermatology");
+    private DoctorCache doctorCache;
+
+    @BeforeEach
+    void setUp() {
+        doctorCache = new DoctorCache(doctorDAO, changed::add);
+    }
+
+    @Test
+    void testWarmCacheServesEveryReadWithoutTheDAO() {
+        when(doctorDAO.findAll()).thenReturn(Arrays.asList(smith, jones));
+
+        doctorCache.refresh();
+        assertEquals("Dr. Smith", doctorCache.get(1L).getName());
+        assertEquals("Dermatology", doctorCache.get(2L).getSpecialty());
+        assertEquals(2, doctorCache.getAll(Arrays.asList(1L, 2L)).size());
+
+        verify(doctorDAO, times(1)).findAll();
+        verifyNoMoreInteractions(doctorDAO);
+        assertEquals(4, doctorCache.stats().hitCount());
+        assertEquals(0, doctorCache.stats().missCount());
+        assertEquals(2, changed.size());
+    }
+
+    @Test
+    void testMissIsLoadedOnceAndUnknownDoctorIsNotCached() {
+        when(doctorDAO.findByDoctorId(1L)).thenReturn(smith);
+
+        doctorCache.get(1L);
+        doctorCache.get(1L);
+        assertNull(doctorCache.get(9L));
+        assertNull(doctorCache.get(9L));
+
+        verify(doctorDAO, times(1)).findByDoctorId(1L);
+        verify(doctorDAO, times(2)).findByDoctorId(9L);
+    }
+
+    @Test
+    void testGetAllLoadsOnlyTheMissesWithOneQuery() {
+        when(doctorDAO.findAll()).thenReturn(Collections.singletonList(smith));
+        when(doctorDAO.findAllById(any())).thenReturn(Collections.singletonList(jones));
+        doctorCache.refresh();
+
+        Map<Long, DoctorRecord> doctors = doctorCache.getAll(Arrays.asList(1L, 2L, 3L));
+
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), doctors.keySet());
+        verify(doctorDAO, times(1)).findAllById(argThat(ids -> toSet(ids).equals(new HashSet<>(Arrays.asList(2L, 3L)))));
+    }
+
+    @Test
+    void testPutReplacesTheEntryAndReportsTheChange() {
+        when(doctorDAO.findAll()).thenReturn(Collections.singletonList(smith));
+        doctorCache.refresh();
+        changed.clear();
+
+        Doctor renamed = doctor(1L, "Dr. Smith-Lee", "Cardiology");
+        doctorCache.put(renamed);
+
+        assertEquals("Dr. Smith-Lee", doctorCache.get(1L).getName());
+        assertEquals(1, changed.size());
+        verify(doctorDAO, never()).findByDoctorId(any());
+    }
+
+    @Test
+    void testRefreshDropsDoctorsThatAreGone() {
+        when(doctorDAO.findAll()).thenReturn(Arrays.asList(smith, jones), Collections.singletonList(smith));
+
+        doctorCache.refresh();
+        doctorCache.refresh();
+
+        assertEquals(1, doctorCache.size());
+        assertEquals(1, doctorCache.list().size());
+        assertNotNull(doctorCache.getLastRefresh());
+    }
+
+    private static Doctor doctor(Long id, String name, String specialty) {
+        Doctor doctor = new Doctor(name, specialty, "555-0100", "doctor" + id + "@example.com");
+        ReflectionTestUtils.setField(doctor, "doctorId", id);
+        return doctor;
+    }
+
+    private static Set<Long> toSet(Iterable<Long> ids) {
+        Set<Long> set = new HashSet<>();
+        ids.forEach(set::add);
+        return set;
+    }
+}
+
+
+The tests that build the services themselves pass null for the doctor cache as well. @InjectMocks in PatientServiceTest picks the single constructor by itself. In PatientServiceTest from "patient cache", the two tests that build a cached service become:
+
+
+    @Test
+    void testGetPatientReadsThroughCache() {
+        PatientService cachedService = new PatientService(patientDAO, new PatientCache(new PatientCacheProperties()),
+                null, null, null);
+        when(patientDAO.findByPatientId(1L)).thenReturn(mockPatient);
+
+        cachedService.getPatient(1L);
+        Patient result = cachedService.getPatient(1L);
+
+        assertEquals("John Doe", result.getName());
+        verify(patientDAO, times(1)).findByPatientId(1L);
+    }
+
+    @Test
+    void testAddPatientInvalidatesCachedEntry() {
+        PatientService cachedService = new PatientService(patientDAO, new PatientCache(new PatientCacheProperties()),
+                null, null, null);
+        Patient renamed = new Patient(1L, "John Smith", "john.doe@example.com", "1234567890");
+        when(patientDAO.findByPatientId(1L)).thenReturn(mockPatient, renamed);
+        when(patientDAO.save(renamed)).thenReturn(renamed);
+
+        cachedService.getPatient(1L);
+        cachedService.addPatient(renamed);
+
+        assertEquals("John Smith", cachedService.getPatient(1L).getName());
+        verify(patientDAO, times(2)).findByPatientId(1L);
+    }
+
+
+In PatientServiceStatementCountTest from "patient projections and fetch plans", the end of setUp() becomes:
+
+
+        entityManager.flush();
+        entityManager.clear();
+
+        patientService = new PatientService(patientDAO, null, null, null, null); // no cache, index, counters or doctors
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+
+And AvailabilityIndexStressTest from "double booking protection" builds its services with neither counters nor a doctor cache:
+
+
+    @Test
+    void concurrentBookingsThroughServiceProduceOneSuccessAndConflicts() throws Exception {
+        AppointmentDAO dao = mock(AppointmentDAO.class);
+        when(dao.save(any(Appointment.class))).thenAnswer(inv -> inv.getArgument(0));
+        AppointmentService service = new AppointmentService(dao, new AvailabilityIndex(15), null, null);
+
+        AtomicInteger successes = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long patientId = t;
+            futures.add(pool.submit(() -> {
+                start.await();
+                try {
+                    service.bookAppointment(new Appointment(patientId, 7L, DAY, LocalTime.of(10, 0)));
+                    successes.incrementAndGet();
+                } catch (SlotUnavailableException e) {
+                    conflicts.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : futures) {
+            f.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(1, successes.get());
+        assertEquals(THREADS - 1, conflicts.get());
+        verify(dao, times(1)).save(any(Appointment.class));
+    }
+
+    @Test
+    void slotConstraintViolationKeepsTheSlot() {
+        AppointmentDAO dao = mock(AppointmentDAO.class);
+        AvailabilityIndex index = new AvailabilityIndex(15);
+        when(dao.save(any(Appointment.class))).thenThrow(new DataIntegrityViolationException(
+                "could not execute statement", new SQLIntegrityConstraintViolationException(
+                "Duplicate entry '7-2025-02-03-10:00:00' for key 'appointment.uk_appointment_doctor_slot'")));
+        AppointmentService service = new AppointmentService(dao, index, null, null);
+
+        assertThrows(SlotUnavailableException.class,
+                () -> service.bookAppointment(new Appointment(1L, 7L, DAY, LocalTime.of(10, 0))));
+        assertFalse(index.isFree(7L, DAY, LocalTime.of(10, 0)));
+    }
+
+    @Test
+    void otherConstraintViolationReleasesTheSlot() {
+        AppointmentDAO dao = mock(AppointmentDAO.class);
+        AvailabilityIndex index = new AvailabilityIndex(15);
+        when(dao.save(any(Appointment.class))).thenThrow(new DataIntegrityViolationException(
+                "could not execute statement", new SQLIntegrityConstraintViolationException(
+                "Cannot add or update a child row: a foreign key constraint fails (`appointment`, "
+                        + "CONSTRAINT `fk_appointment_patient` FOREIGN KEY (`patient_id`) REFERENCES `patient`)")));
+        AppointmentService service = new AppointmentService(dao, index, null, null);
+
+        assertThrows(DataIntegrityViolationException.class,
+                () -> service.bookAppointment(new Appointment(999L, 7L, DAY, LocalTime.of(10, 0))));
+        assertTrue(index.isFree(7L, DAY, LocalTime.of(10, 0)));
+    }
+
+
+Hibernate's statistics only count statements, and getQueries() lists the HQL, which says nothing about the tables in the SQL. RecordingStatementInspector keeps the SQL of every statement Hibernate prepares:
+
+
+package com.healthcare.management.service;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// Records the SQL of every prepared statement so a test can check which tables it reads
+public class RecordingStatementInspector implements StatementInspector {
+
+    static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.add(sql);
+        return sql;
+    }
+}
+
+
+Register it on PatientServiceStatementCountTest from "patient projections and fetch plans":
+
+
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "com.healthcare.management.service.RecordingStatementInspector"})
+
+
+Then add this test to the class. With a warm cache, a schedule page still takes two statements, and neither of them reads the doctor table:
+
+
+    private static final Pattern DOCTOR_TABLE = Pattern.compile("\\bdoctor\\b");
+
+    @Autowired
+    private DoctorDAO doctorDAO;
+
+    @Test
+    void testWarmDoctorCacheKeepsSchedulesOffTheDoctorTable() {
+        DoctorCache doctorCache = new DoctorCache(doctorDAO);
+        doctorCache.refresh();
+        PatientService cachedService = new PatientService(patientDAO, null, null, null, doctorCache);
+        statistics.clear();
+        RecordingStatementInspector.STATEMENTS.clear();
+
+        List<PatientSchedule> schedules = cachedService.getPatientSchedules(null, PATIENTS, TODAY);
+
+        assertEquals("Dr. Smith", schedules.get(0).getAppointments().get(0).getDoctorName());
+        assertEquals("Dermatology", schedules.get(0).getAppointments().get(1).getSpecialty());
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(2, RecordingStatementInspector.STATEMENTS.size());
+        for (String sql : RecordingStatementInspector.STATEMENTS) {
+            assertFalse(DOCTOR_TABLE.matcher(sql.toLowerCase(Locale.ROOT)).find(), sql);
+        }
+    }
+
+
+Additional imports for the test class:
+
+
+import com.healthcare.management.cache.DoctorCache;
+import com.healthcare.management.dao.DoctorDAO;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+
+
+Explanation:
+Read-mostly: the whole table fits in memory and changes rarely, so reads never wait and writes take a lock that only other writes and refreshes use.
+Bulk warm-up: one SELECT loads every doctor at startup, so the first appointment pages do not each load doctors one by one.
+Write-through invalidation: the saved row replaces the cached one right after the commit, so once an update returns, this node shows the new row.
+Periodic refresh: changes made on other nodes or in SQL are picked up within the refresh interval. Doctors deleted from the table are dropped from the cache.
+Working-hours templates: the hours travel with the doctor row, so the availability index gets them back after every restart and after every change.
+Statistics: hits, misses and loads show whether the cache really keeps appointment pages away from the doctor table.
+
+
+
+Summary
+Doctors are now kept in a shared in-memory cache that is loaded with one query at startup and refreshed every ten minutes. Doctor writes through /doctors replace their cache entries, and each doctor's working hours are passed to the availability index. Schedules and bookings take doctor names, specialties and existence from the cache, so in steady state they never query the doctor table, and /admin/cache/doctors shows the hit rate.
@@ -0,0 +1,1142 @@
+RegisterUserServlet, UpdateUserProfileServlet and LoginServlet keep all user state in the container's HttpSession, which lives in the memory of one Tomcat node. This has two consequences: the load balancer must send every request of a user to the same node (sticky sessions), and when that node restarts, its users are logged out.
+
+In this part, we'll move session state out of the container into a pluggable session store that every node can read:
+
+SessionStore is a small interface; the included JdbcSessionStore works with any JDBC database. Locally it runs against an embedded H2 database file, so no extra server is needed; in production it can point at MySQL.
+A servlet Filter replaces the container session with our own HttpSession implementation, so the servlets and JSP pages do not change.
+Each node keeps a near-cache of recently used sessions. On every request only the session's version number is read from the store; the attributes are loaded and deserialized only if another node has changed them.
+Dirty-attribute tracking: only attributes that were set or removed during the request are written back, not the whole session.
+Read and write latency, near-cache hits and misses, and attributes written are tracked as metrics.
+
+
+
+1. Stored Session (StoredSession.java)
+The session as it is kept in the store: metadata, a version number that increases with every write, and the serialized attributes.
+
+
+package com.healthcare.session.store;
+
+import java.util.Map;
+
+public final class StoredSession {
+    private final String id;
+    private final long creationTime;
+    private final long lastAccessedTime;
+    private final int maxInactiveSeconds;
+    private final long version;
+    private final Map<String, byte[]> attributes;
+
+    public StoredSession(String id, long creationTime, long lastAccessedTime, int maxInactiveSeconds,
+                         long version, Map<String, byte[]> attributes) {
+        this.id = id;
+        this.creationTime = creationTime;
+        this.lastAccessedTime = lastAccessedTime;
+        this.maxInactiveSeconds = maxInactiveSeconds;
+        this.version = version;
+        this.attributes = attributes;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public long getLastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+    public int getMaxInactiveSeconds() {
+        return maxInactiveSeconds;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Map<String, byte[]> getAttributes() {
+        return attributes;
+    }
+}
+
+
+
+2. The Store Interface (SessionStore.java)
+Implementations must be safe to call from many request threads and many nodes at once. currentVersion() is the cheap call made on every request; load() is only made when the near-cache is out of date.
+
+
+package com.healthcare.session.store;
+
+import java.util.Map;
+import java.util.Set;
+
+public interface SessionStore {
+
+    // Version of a live session, or -1 if it does not exist or has expired
+    long currentVersion(String sessionId);
+
+    // The full session, or null if it does not exist or has expired
+    StoredSession load(String sessionId);
+
+    // Write only the changed and removed attributes; returns the new version
+    long save(String sessionId, long creationTime, long lastAccessedTime, int maxInactiveSeconds,
+              Map<String, byte[]> changed, Set<String> removed);
+
+    // Extend the expiry of a session that was read but not modified
+    void touch(String sessionId, long lastAccessedTime);
+
+    void delete(String sessionId);
+
+    int deleteExpired(long now);
+}
+
+
+
+3. JDBC Implementation (JdbcSessionStore.java)
+The store uses two tables: one row per session and one row per attribute. Storing attributes as separate rows is what makes dirty tracking pay off: changing one attribute updates one row.
+
+Connections come from a ConnectionPool (see "connection pool for DatabaseConnection"). Upserts are written as UPDATE followed by INSERT when no row was updated, which works the same way on H2 and MySQL.
+
+
+package com.healthcare.session.store;
+
+import com.healthcare.db.ConnectionPool;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class JdbcSessionStore implements SessionStore {
+
+    private final ConnectionPool pool;
+
+    public JdbcSessionStore(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public void createTables() {
+        try (Connection con = pool.getConnection(); Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS http_session ("
+                    + "session_id VARCHAR(64) PRIMARY KEY, creation_time BIGINT NOT NULL, "
+                    + "last_accessed BIGINT NOT NULL, max_inactive INT NOT NULL, "
+                    + "expires_at BIGINT NOT NULL, version BIGINT NOT NULL)");
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS http_session_attribute ("
+                    + "session_id VARCHAR(64) NOT NULL, name VARCHAR(200) NOT NULL, attribute_value BLOB NOT NULL, "
+                    + "PRIMARY KEY (session_id, name))");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not create session tables", e);
+        }
+    }
+
+    @Override
+    public long currentVersion(String sessionId) {
+        try (Connection con = pool.getConnection();
+             PreparedStatement pst = con.prepareStatement(
+                     "SELECT version FROM http_session WHERE session_id = ? AND expires_at > ?")) {
+            pst.setString(1, sessionId);
+            pst.setLong(2, System.currentTimeMillis());
+            try (ResultSet rs = pst.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read session " + sessionId, e);
+        }
+    }
+
+    @Override
+    public StoredSession load(String sessionId) {
+        try (Connection con = pool.getConnection()) {
+            long creationTime;
+            long lastAccessed;
+            int maxInactive;
+            long version;
+            try (PreparedStatement pst = con.prepareStatement("SELECT creation_time, last_accessed, max_inactive, version "
+                    + "FROM http_session WHERE session_id = ? AND expires_at > ?")) {
+                pst.setString(1, sessionId);
+                pst.setLong(2, System.currentTimeMillis());
+                try (ResultSet rs = pst.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    creationTime = rs.getLong(1);
+                    lastAccessed = rs.getLong(2);
+                    maxInactive = rs.getInt(3);
+                    version = rs.getLong(4);
+                }
+            }
+
+            Map<String, byte[]> attributes = new HashMap<>();
+            try (PreparedStatement pst = con.prepareStatement(
+                    "SELECT name, attribute_value FROM http_session_attribute WHERE session_id = ?")) {
+                pst.setString(1, sessionId);
+                try (ResultSet rs = pst.executeQuery()) {
+                    while (rs.next()) {
+                        attributes.put(rs.getString(1), rs.getBytes(2));
+                    }
+                }
+            }
+            return new StoredSession(sessionId, creationTime, lastAccessed, maxInactive, version, attributes);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not load session " + sessionId, e);
+        }
+    }
+
+    @Override
+    public long save(String sessionId, long creationTime, long lastAccessedTime, int maxInactiveSeconds,
+                     Map<String, byte[]> changed, Set<String> removed) {
+        try (Connection con = pool.getConnection()) {
+            con.setAutoCommit(false);
+            long expiresAt = lastAccessedTime + maxInactiveSeconds * 1000L;
+
+            try (PreparedStatement update = con.prepareStatement("UPDATE http_session SET last_accessed = ?, "
+                    + "max_inactive = ?, expires_at = ?, version = version + 1 WHERE session_id = ?")) {
+                update.setLong(1, lastAccessedTime);
+                update.setInt(2, maxInactiveSeconds);
+                update.setLong(3, expiresAt);
+                update.setString(4, sessionId);
+                if (update.executeUpdate() == 0) {
+                    try (PreparedStatement insert = con.prepareStatement("INSERT INTO http_session "
+                            + "(session_id, creation_time, last_accessed, max_inactive, expires_at, version) "
+                            + "VALUES (?, ?, ?, ?, ?, 1)")) {
+                        insert.setString(1, sessionId);
+                        insert.setLong(2, creationTime);
+                        insert.setLong(3, lastAccessedTime);
+                        insert.setInt(4, maxInactiveSeconds);
+                        insert.setLong(5, expiresAt);
+                        insert.executeUpdate();
+                    }
+                }
+            }
+
+            if (!changed.isEmpty()) {
+                try (PreparedStatement update = con.prepareStatement(
+                        "UPDATE http_session_attribute SET attribute_value = ? WHERE session_id = ? AND name = ?");
+                     PreparedStatement insert = con.prepareStatement(
+                             "INSERT INTO http_session_attribute (session_id, name, attribute_value) VALUES (?, ?, ?)")) {
+                    for (Map.Entry<String, byte[]> attribute : changed.entrySet()) {
+                        update.setBytes(1, attribute.getValue());
+                        update.setString(2, sessionId);
+                        update.setString(3, attribute.getKey());
+                        if (update.executeUpdate() == 0) {
+                            insert.setString(1, sessionId);
+                            insert.setString(2, attribute.getKey());
+                            insert.setBytes(3, attribute.getValue());
+                            insert.executeUpdate();
+                        }
+                    }
+                }
+            }
+
+            if (!removed.isEmpty()) {
+                try (PreparedStatement delete = con.prepareStatement(
+                        "DELETE FROM http_session_attribute WHERE session_id = ? AND name = ?")) {
+                    for (String name : removed) {
+                        delete.setString(1, sessionId);
+                        delete.setString(2, name);
+                        delete.addBatch();
+                    }
+                    delete.executeBatch();
+                }
+            }
+
+            long version;
+            try (PreparedStatement pst = con.prepareStatement("SELECT version FROM http_session WHERE session_id = ?")) {
+                pst.setString(1, sessionId);
+                try (ResultSet rs = pst.executeQuery()) {
+                    rs.next();
+                    version = rs.getLong(1);
+                }
+            }
+            con.commit();
+            return version;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not save session " + sessionId, e);
+        }
+    }
+
+    @Override
+    public void touch(String sessionId, long lastAccessedTime) {
+        try (Connection con = pool.getConnection();
+             PreparedStatement pst = con.prepareStatement("UPDATE http_session SET last_accessed = ?, "
+                     + "expires_at = ? + max_inactive * 1000 WHERE session_id = ?")) {
+            pst.setLong(1, lastAccessedTime);
+            pst.setLong(2, lastAccessedTime);
+            pst.setString(3, sessionId);
+            pst.executeUpdate();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not touch session " + sessionId, e);
+        }
+    }
+
+    @Override
+    public void delete(String sessionId) {
+        try (Connection con = pool.getConnection()) {
+            con.setAutoCommit(false);
+            try (PreparedStatement attributes = con.prepareStatement("DELETE FROM http_session_attribute WHERE session_id = ?");
+                 PreparedStatement session = con.prepareStatement("DELETE FROM http_session WHERE session_id = ?")) {
+                attributes.setString(1, sessionId);
+                attributes.executeUpdate();
+                session.setString(1, sessionId);
+                session.executeUpdate();
+            }
+            con.commit();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not delete session " + sessionId, e);
+        }
+    }
+
+    @Override
+    public int deleteExpired(long now) {
+        try (Connection con = pool.getConnection()) {
+            con.setAutoCommit(false);
+            int deleted;
+            try (PreparedStatement attributes = con.prepareStatement("DELETE FROM http_session_attribute WHERE session_id IN "
+                    + "(SELECT session_id FROM http_session WHERE expires_at <= ?)");
+                 PreparedStatement sessions = con.prepareStatement("DELETE FROM http_session WHERE expires_at <= ?")) {
+                attributes.setLong(1, now);
+                attributes.executeUpdate();
+                sessions.setLong(1, now);
+                deleted = sessions.executeUpdate();
+            }
+            con.commit();
+            return deleted;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not delete expired sessions", e);
+        }
+    }
+}
+
+
+On MySQL, declare attribute_value as MEDIUMBLOB, since BLOB is limited to 64 KB there.
+
+
+
+4. Session Metrics (SessionStoreMetrics.java)
+Latency of store reads and writes, near-cache effectiveness, and the number of attributes written.
+
+
+package com.healthcare.session.store;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class SessionStoreMetrics {
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAccumulator maxReadNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAccumulator maxWriteNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder attributesWritten = new LongAdder();
+    private final LongAdder nearCacheHits = new LongAdder();
+    private final LongAdder nearCacheMisses = new LongAdder();
+
+    void recordRead(long nanos) {
+        reads.increment();
+        readNanos.add(nanos);
+        maxReadNanos.accumulate(nanos);
+    }
+
+    void recordWrite(long nanos, int attributes) {
+        writes.increment();
+        writeNanos.add(nanos);
+        maxWriteNanos.accumulate(nanos);
+        attributesWritten.add(attributes);
+    }
+
+    void recordNearCache(boolean hit) {
+        (hit ? nearCacheHits : nearCacheMisses).increment();
+    }
+
+    public long getReads() {
+        return reads.sum();
+    }
+
+    public double getAverageReadMillis() {
+        long count = reads.sum();
+        return count == 0 ? 0.0 : readNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    public double getMaxReadMillis() {
+        return maxReadNanos.get() / 1_000_000.0;
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public double getAverageWriteMillis() {
+        long count = writes.sum();
+        return count == 0 ? 0.0 : writeNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    public double getMaxWriteMillis() {
+        return maxWriteNanos.get() / 1_000_000.0;
+    }
+
+    public long getAttributesWritten() {
+        return attributesWritten.sum();
+    }
+
+    public long getNearCacheHits() {
+        return nearCacheHits.sum();
+    }
+
+    public long getNearCacheMisses() {
+        return nearCacheMisses.sum();
+    }
+}
+
+
+
+5. The Near-Cache (SessionNearCache.java)
+A size-bounded Caffeine cache from session id to the last version this node has seen, together with the already-deserialized attributes. The cached attribute map is never modified; each request works on its own copy.
+
+Every request reads the near-cache, so it must not serialize them. Caffeine's reads take no lock, and like in "patient cache" its eviction keeps the sessions that are used often.
+
+A touch does not change the version, so touched() replaces only the metadata and keeps the attributes. Without it, the cached lastAccessedTime would stay at the value of the last write, and every request after the first quarter of the timeout would touch the store again.
+
+
+package com.healthcare.session.store;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.util.Collections;
+import java.util.Map;
+
+final class SessionNearCache {
+
+    static final class Entry {
+        final StoredSession meta;
+        final Map<String, Object> attributes;
+
+        Entry(StoredSession meta, Map<String, Object> attributes) {
+            this.meta = meta;
+            this.attributes = Collections.unmodifiableMap(attributes);
+        }
+    }
+
+    private final Cache<String, Entry> entries;
+
+    SessionNearCache(int maxEntries) {
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .build();
+    }
+
+    Entry get(String id, long version) {
+        Entry entry = entries.getIfPresent(id);
+        return entry != null && entry.meta.getVersion() == version ? entry : null;
+    }
+
+    void put(String id, Entry entry) {
+        entries.put(id, entry);
+    }
+
+    // Records a touch of the cached version; a newer version written meanwhile is left alone
+    void touched(String id, long version, long lastAccessedTime) {
+        entries.asMap().computeIfPresent(id, (key, entry) -> {
+            if (entry.meta.getVersion() != version) {
+                return entry;
+            }
+            StoredSession meta = entry.meta;
+            return new Entry(new StoredSession(id, meta.getCreationTime(), lastAccessedTime,
+                    meta.getMaxInactiveSeconds(), version, meta.getAttributes()), entry.attributes);
+        });
+    }
+
+    void remove(String id) {
+        entries.invalidate(id);
+    }
+}
+
+
+
+6. The Session Object (ExternalSession.java)
+An HttpSession backed by a per-request copy of the attributes. setAttribute and removeAttribute record the attribute name as dirty. A mutable object that is changed in place (for example through UserProfile setters) is only saved if it is set again with setAttribute, which UpdateUserProfileServlet already does.
+
+
+package com.healthcare.session.store;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+@SuppressWarnings("deprecation")
+class ExternalSession implements HttpSession {
+
+    private final String id;
+    private final long version;
+    private final long creationTime;
+    private final long lastAccessedTime;
+    private final boolean isNew;
+    private final ServletContext servletContext;
+    private final Map<String, Object> attributes;
+    private final Set<String> dirty = new HashSet<>();
+    private final Set<String> removed = new HashSet<>();
+    private int maxInactiveSeconds;
+    private boolean invalidated;
+
+    ExternalSession(String id, long version, long creationTime, long lastAccessedTime, int maxInactiveSeconds,
+                    boolean isNew, ServletContext servletContext, Map<String, Object> attributes) {
+        this.id = id;
+        this.version = version;
+        this.creationTime = creationTime;
+        this.lastAccessedTime = lastAccessedTime;
+        this.maxInactiveSeconds = maxInactiveSeconds;
+        this.isNew = isNew;
+        this.servletContext = servletContext;
+        this.attributes = new HashMap<>(attributes);
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public long getCreationTime() {
+        checkValid();
+        return creationTime;
+    }
+
+    @Override
+    public long getLastAccessedTime() {
+        checkValid();
+        return lastAccessedTime;
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    @Override
+    public void setMaxInactiveInterval(int interval) {
+        maxInactiveSeconds = interval;
+    }
+
+    @Override
+    public int getMaxInactiveInterval() {
+        return maxInactiveSeconds;
+    }
+
+    @Override
+    public javax.servlet.http.HttpSessionContext getSessionContext() {
+        return null;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        checkValid();
+        return attributes.get(name);
+    }
+
+    @Override
+    public Object getValue(String name) {
+        return getAttribute(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        checkValid();
+        return Collections.enumeration(new HashSet<>(attributes.keySet()));
+    }
+
+    @Override
+    public String[] getValueNames() {
+        checkValid();
+        return attributes.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        checkValid();
+        if (value == null) {
+            removeAttribute(name);
+            return;
+        }
+        attributes.put(name, value);
+        dirty.add(name);
+        removed.remove(name);
+    }
+
+    @Override
+    public void putValue(String name, Object value) {
+        setAttribute(name, value);
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        checkValid();
+        if (attributes.remove(name) != null) {
+            removed.add(name);
+        }
+        dirty.remove(name);
+    }
+
+    @Override
+    public void removeValue(String name) {
+        removeAttribute(name);
+    }
+
+    @Override
+    public void invalidate() {
+        checkValid();
+        invalidated = true;
+    }
+
+    @Override
+    public boolean isNew() {
+        checkValid();
+        return isNew;
+    }
+
+    boolean isInvalidated() {
+        return invalidated;
+    }
+
+    // The stored version this session was loaded from; 0 for a new session
+    long version() {
+        return version;
+    }
+
+    boolean isModified() {
+        return isNew || !dirty.isEmpty() || !removed.isEmpty();
+    }
+
+    Map<String, Object> attributes() {
+        return attributes;
+    }
+
+    Set<String> dirtyNames() {
+        return dirty;
+    }
+
+    Set<String> removedNames() {
+        return removed;
+    }
+
+    private void checkValid() {
+        if (invalidated) {
+            throw new IllegalStateException("Session " + id + " has been invalidated");
+        }
+    }
+}
+
+
+
+7. The Session Filter (ExternalSessionFilter.java)
+The filter is mapped to /* and runs before every servlet and JSP. It wraps the request so that getSession() returns an ExternalSession, and it writes back the changes of the request.
+
+The changes are saved before a redirect or an error is sent, not only after the servlet returns. Otherwise, the browser could follow the redirect from LoginServlet to userProfile.jsp on another node before the new session had been written.
+
+Sessions that were only read are "touched" (their expiry is extended) at most once per quarter of the session timeout, so a read-only page view does not cost a write. The near-cache records the touch as well, so the next request measures the quarter from the touch.
+
+A session whose attributes cannot be deserialized is treated as missing: it is deleted from the store and the request continues without a session, so the user logs in again. This happens when a deploy changes a stored class incompatibly, for example its serialVersionUID; failing the request instead would give that user a 500 on every page until the session expired.
+
+A request can invalidate its session and then call getSession(true), for example to start a fresh session at login. The new session replaces the old one in the wrapper, so the old one is deleted from the store at that moment; commit() only sees the new one.
+
+
+package com.healthcare.session.store;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class ExternalSessionFilter implements Filter {
+
+    public static final String COOKIE_NAME = "HMSSESSION";
+    public static final String STORE_ATTRIBUTE = "sessionStore";
+    public static final String METRICS_ATTRIBUTE = "sessionStoreMetrics";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private SessionStore store;
+    private SessionNearCache nearCache;
+    private final SessionStoreMetrics metrics = new SessionStoreMetrics();
+    private int defaultMaxInactiveSeconds;
+    private ServletContext servletContext;
+    private ScheduledExecutorService cleaner;
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        servletContext = config.getServletContext();
+        store = (SessionStore) servletContext.getAttribute(STORE_ATTRIBUTE);
+        if (store == null) {
+            throw new ServletException("No SessionStore found in context attribute '" + STORE_ATTRIBUTE + "'");
+        }
+        nearCache = new SessionNearCache(intParam(config, "nearCacheSize", 10_000));
+        defaultMaxInactiveSeconds = intParam(config, "maxInactiveSeconds", 30 * 60);
+        servletContext.setAttribute(METRICS_ATTRIBUTE, metrics);
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-store-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        cleaner.scheduleWithFixedDelay(() -> {
+            try {
+                store.deleteExpired(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                servletContext.log("Failed to delete expired sessions", e);
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        SessionRequest wrappedRequest = new SessionRequest(request, response);
+        SessionResponse wrappedResponse = new SessionResponse(response, wrappedRequest);
+        try {
+            chain.doFilter(wrappedRequest, wrappedResponse);
+        } finally {
+            wrappedRequest.commit();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        cleaner.shutdownNow();
+    }
+
+    private ExternalSession loadSession(String id) {
+        long start = System.nanoTime();
+        long version = store.currentVersion(id);
+        if (version < 0) {
+            metrics.recordRead(System.nanoTime() - start);
+            nearCache.remove(id);
+            return null;
+        }
+
+        SessionNearCache.Entry entry = nearCache.get(id, version);
+        metrics.recordNearCache(entry != null);
+        if (entry == null) {
+            StoredSession stored = store.load(id);
+            if (stored == null) {
+                metrics.recordRead(System.nanoTime() - start);
+                return null;
+            }
+            Map<String, Object> attributes = new HashMap<>();
+            try {
+                for (Map.Entry<String, byte[]> attribute : stored.getAttributes().entrySet()) {
+                    attributes.put(attribute.getKey(), deserialize(attribute.getValue()));
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                // Written by an incompatible version of a class; start over rather than fail every request
+                servletContext.log("Dropping a session that could not be read: " + e);
+                deleteSession(id);
+                metrics.recordRead(System.nanoTime() - start);
+                return null;
+            }
+            entry = new SessionNearCache.Entry(stored, attributes);
+            nearCache.put(id, entry);
+        }
+        metrics.recordRead(System.nanoTime() - start);
+
+        StoredSession meta = entry.meta;
+        return new ExternalSession(id, meta.getVersion(), meta.getCreationTime(), meta.getLastAccessedTime(),
+                meta.getMaxInactiveSeconds(), false, servletContext, entry.attributes);
+    }
+
+    private void saveSession(ExternalSession session) {
+        String id = session.getId();
+        if (session.isInvalidated()) {
+            deleteSession(id);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (!session.isModified()) {
+            long touchAfter = session.getLastAccessedTime() + session.getMaxInactiveInterval() * 1000L / 4;
+            if (now >= touchAfter) {
+                store.touch(id, now);
+                nearCache.touched(id, session.version(), now);
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        Map<String, byte[]> changed = new HashMap<>();
+        for (String name : session.dirtyNames()) {
+            changed.put(name, serialize(name, session.attributes().get(name)));
+        }
+        long version = store.save(id, session.getCreationTime(), now, session.getMaxInactiveInterval(),
+                changed, session.removedNames());
+        metrics.recordWrite(System.nanoTime() - start, changed.size() + session.removedNames().size());
+
+        StoredSession meta = new StoredSession(id, session.getCreationTime(), now,
+                session.getMaxInactiveInterval(), version, Collections.<String, byte[]>emptyMap());
+        nearCache.put(id, new SessionNearCache.Entry(meta, new HashMap<>(session.attributes())));
+    }
+
+    private void deleteSession(String id) {
+        store.delete(id);
+        nearCache.remove(id);
+    }
+
+    private static byte[] serialize(String name, Object value) {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+             ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (NotSerializableException e) {
+            throw new IllegalStateException("Session attribute '" + name + "' is not Serializable", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Object deserialize(byte[] value) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value))) {
+            return in.readObject();
+        }
+    }
+
+    private static String newSessionId() {
+        byte[] bytes = new byte[24];
+        RANDOM.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static int intParam(FilterConfig config, String name, int defaultValue) {
+        String value = config.getInitParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    // Request wrapper that resolves getSession() against the store
+    private final class SessionRequest extends HttpServletRequestWrapper {
+        private final HttpServletResponse response;
+        private ExternalSession session;
+        private boolean resolved;
+        private boolean committed;
+
+        SessionRequest(HttpServletRequest request, HttpServletResponse response) {
+            super(request);
+            this.response = response;
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return getSession(true);
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            if (!resolved) {
+                resolved = true;
+                String id = requestedSessionId();
+                session = id == null ? null : loadSession(id);
+            }
+            if ((session == null || session.isInvalidated()) && create) {
+                if (session != null) {
+                    // commit() only sees the new session, so the invalidated one is deleted now
+                    deleteSession(session.getId());
+                }
+                long now = System.currentTimeMillis();
+                session = new ExternalSession(newSessionId(), 0, now, now, defaultMaxInactiveSeconds, true,
+                        servletContext, Collections.<String, Object>emptyMap());
+                Cookie cookie = new Cookie(COOKIE_NAME, session.getId());
+                cookie.setPath(getContextPath().isEmpty() ? "/" : getContextPath());
+                cookie.setHttpOnly(true);
+                cookie.setSecure(isSecure());
+                response.addCookie(cookie);
+            }
+            return session != null && session.isInvalidated() ? null : session;
+        }
+
+        @Override
+        public String getRequestedSessionId() {
+            return requestedSessionId();
+        }
+
+        @Override
+        public boolean isRequestedSessionIdValid() {
+            HttpSession current = getSession(false);
+            return current != null && current.getId().equals(requestedSessionId());
+        }
+
+        private String requestedSessionId() {
+            Cookie[] cookies = getCookies();
+            if (cookies != null) {
+                for (Cookie cookie : cookies) {
+                    if (COOKIE_NAME.equals(cookie.getName())) {
+                        return cookie.getValue();
+                    }
+                }
+            }
+            return null;
+        }
+
+        // Persist once per request; later changes in the same request are not saved
+        void commit() {
+            if (!committed && session != null) {
+                committed = true;
+                saveSession(session);
+            }
+        }
+    }
+
+    // Response wrapper that saves the session before the client is told to move on
+    private static final class SessionResponse extends HttpServletResponseWrapper {
+        private final SessionRequest request;
+
+        SessionResponse(HttpServletResponse response, SessionRequest request) {
+            super(response);
+            this.request = request;
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            request.commit();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            request.commit();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            request.commit();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            request.commit();
+            super.flushBuffer();
+        }
+    }
+}
+
+
+
+8. Creating the Store (SessionStoreContextListener.java)
+The listener creates the store before the filter starts. By default it uses an embedded H2 database in the data directory, which is all that is needed to try it locally. For a cluster, point session.db.url at the shared MySQL database. The store has its own small connection pool, so session traffic cannot use up the connections needed for patient data.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.ConnectionPool;
+import com.healthcare.db.PoolConfig;
+import com.healthcare.session.store.ExternalSessionFilter;
+import com.healthcare.session.store.JdbcSessionStore;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebListener;
+
+@WebListener
+public class SessionStoreContextListener implements ServletContextListener {
+
+    private ConnectionPool pool;
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+        String url = context.getInitParameter("session.db.url");
+        PoolConfig config = new PoolConfig(
+                url != null ? url : "jdbc:h2:./data/sessions;AUTO_SERVER=TRUE",
+                valueOr(context.getInitParameter("session.db.user"), "sa"),
+                valueOr(context.getInitParameter("session.db.password"), ""));
+        config.setMaxPoolSize(8);
+
+        pool = new ConnectionPool(config);
+        JdbcSessionStore store = new JdbcSessionStore(pool);
+        store.createTables();
+        context.setAttribute(ExternalSessionFilter.STORE_ATTRIBUTE, store);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private static String valueOr(String value, String defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+}
+
+
+The web.xml entries. The filter must be the first filter, so that everything after it sees the external session:
+
+
+<filter>
+    <filter-name>ExternalSessionFilter</filter-name>
+    <filter-class>com.healthcare.session.store.ExternalSessionFilter</filter-class>
+    <init-param>
+        <param-name>maxInactiveSeconds</param-name>
+        <param-value>1800</param-value>
+    </init-param>
+</filter>
+<filter-mapping>
+    <filter-name>ExternalSessionFilter</filter-name>
+    <url-pattern>/*</url-pattern>
+    <dispatcher>REQUEST</dispatcher>
+</filter-mapping>
+
+<context-param>
+    <param-name>session.db.url</param-name>
+    <param-value>jdbc:mysql://db.internal:3306/healthcare_sessions</param-value>
+</context-param>
+
+
+And the H2 driver for local use in pom.xml:
+
+
+<dependency>
+    <groupId>com.h2database</groupId>
+    <artifactId>h2</artifactId>
+    <version>2.2.224</version>
+</dependency>
+
+
+
+9. What Changes in the Servlets
+Nothing in LoginServlet, RegisterUserServlet, UpdateUserProfileServlet or the JSP pages changes: they still call request.getSession() and setAttribute(). There are two requirements:
+
+Every session attribute must be Serializable. The CompactSessionProfile from "off-heap session profile store" already is. If a servlet stores a com.healthcare.model.UserProfile directly, that class must implement java.io.Serializable.
+A servlet that changes an object inside the session must call setAttribute again afterwards, as UpdateUserProfileServlet does with session.setAttribute("userProfile", user). Otherwise the change is not written to the store.
+
+
+
+10. Unit Test for the Filter (ExternalSessionFilterTest.java)
+The store is mocked. The test stores an attribute whose serialVersionUID no longer matches its class, as it would be after such a deploy, and checks that the request gets no session instead of an error.
+
+
+package com.healthcare.session.store;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ExternalSessionFilterTest {
+
+    private static final String SESSION_ID = "abc";
+
+    private final SessionStore store = mock(SessionStore.class);
+    private final ExternalSessionFilter filter = new ExternalSessionFilter();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ServletContext context = mock(ServletContext.class);
+        when(context.getAttribute(ExternalSessionFilter.STORE_ATTRIBUTE)).thenReturn(store);
+        FilterConfig config = mock(FilterConfig.class);
+        when(config.getServletContext()).thenReturn(context);
+        filter.init(config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        filter.destroy();
+    }
+
+    @Test
+    void testSessionWithIncompatibleAttributeIsDropped() throws Exception {
+        long now = System.currentTimeMillis();
+        when(store.currentVersion(SESSION_ID)).thenReturn(3L);
+        when(store.load(SESSION_ID)).thenReturn(new StoredSession(SESSION_ID, now, now, 1800, 3L,
+                Map.of("userProfile", staleProfile())));
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getCookies()).thenReturn(new Cookie[] {new Cookie(ExternalSessionFilter.COOKIE_NAME, SESSION_ID)});
+
+        AtomicReference<HttpSession> seen = new AtomicReference<>();
+        filter.doFilter(request, mock(HttpServletResponse.class),
+                (req, res) -> seen.set(((HttpServletRequest) req).getSession(false)));
+
+        assertNull(seen.get());
+        verify(store).delete(SESSION_ID);
+        verify(store, never()).save(anyString(), anyLong(), anyLong(), anyInt(), anyMap(), anySet());
+    }
+
+    static class Profile implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    // A serialized Profile with a different serialVersionUID; reading it throws InvalidClassException
+    private static byte[] staleProfile() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new Profile());
+        }
+        byte[] data = bytes.toByteArray();
+        byte[] name = Profile.class.getName().getBytes(StandardCharsets.UTF_8);
+        int suid = indexOf(data, name) + name.length; // the class name is followed by its serialVersionUID
+        data[suid + 7] ^= 1;
+        return data;
+    }
+
+    private static int indexOf(byte[] data, byte[] part) {
+        outer:
+        for (int i = 0; i <= data.length - part.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (data[i + j] != part[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("not found");
+    }
+}
+
+
+
+Explanation:
+No sticky sessions: any node can serve any request, because the session is read from the shared store, and a node restart does not log anyone out.
+Near-cache: each request reads a single version number. If this node already has that version, the attributes are taken from memory without loading or deserializing anything. The near-cache is a Caffeine cache, so concurrent requests do not wait on a lock to read it.
+Dirty tracking: only attributes passed to setAttribute or removeAttribute during the request are written, one row each. A page view that only reads the session writes nothing, apart from an occasional expiry update.
+Ordering: the session is saved before sendRedirect or sendError reaches the client, so the next request always sees the changes, whichever node it goes to.
+Unreadable sessions: a session stored by an incompatible version of a class is deleted and the user logs in again, instead of getting an error on every request.
+Metrics: the sessionStoreMetrics context attribute reports average and maximum read/write latency, near-cache hits and misses, and attributes written.
+
+
+
+Summary
+User sessions now live in an external store instead of the memory of one Tomcat node. A node-local near-cache keeps reads cheap, dirty tracking keeps writes small, and the servlets and JSP pages work unchanged. Sticky sessions are no longer needed, and restarting a node no longer logs its users out.
@@ -0,0 +1,351 @@
+PatientService.getAllPatients() returns patientDAO.findAll(), which loads the entire Patient table into one List. With a large patient base that is hundreds of megabytes of entities, a long query, and a multi-second GC pause every time an administrator opens the patient list.
+
+Classic OFFSET pagination (LIMIT 50 OFFSET 2500000) does not solve this either: the database still has to walk past every skipped row, so page 50,000 is far slower than page 1.
+
+In this part, we'll replace it with keyset (cursor) pagination. Instead of "skip N rows", each request says "give me the next rows after patient_id X":
+
+
+SELECT * FROM patient WHERE patient_id > ? ORDER BY patient_id LIMIT ?
+
+
+Because patient_id is the primary key, this is an index range scan that starts directly at X. Page 1 and page 50,000 cost the same.
+
+
+
+1. PatientDAO with a Keyset Query (PatientDAO.java)
+We add a derived query that Spring Data turns into the SQL above. The Pageable argument is only used for its size (always page 0), so Spring Data emits a LIMIT without an OFFSET.
+
+
+package com.healthcare.management.dao;
+
+import com.healthcare.management.model.Patient;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface PatientDAO extends JpaRepository<Patient, Long> {
+    Patient findByPatientId(Long patientId);
+
+    // Keyset pagination: rows after the given id, in id order; pass PageRequest.of(0, limit)
+    List<Patient> findByPatientIdGreaterThanOrderByPatientIdAsc(Long afterPatientId, Pageable limit);
+}
+
+
+
+2. A Page of Patients (PatientPage.java)
+The result of one page request. nextCursor is the patient_id to pass as "after" to get the next page; it is null on the last page.
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.model.Patient;
+
+import java.util.List;
+
+public class PatientPage {
+    private final List<Patient> patients;
+    private final Long nextCursor;
+
+    public PatientPage(List<Patient> patients, Long nextCursor) {
+        this.patients = patients;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Patient> getPatients() {
+        return patients;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isHasNext() {
+        return nextCursor != null;
+    }
+}
+
+
+
+3. PatientService with Paging (PatientService.java)
+getPatientsPage() caps the page size at MAX_PAGE_SIZE, so no caller can ask for the whole table. It fetches one extra row to find out whether there is a next page without running a COUNT(*) query.
+
+getAllPatients() is kept for existing callers but marked @Deprecated, because it still loads everything.
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.dao.PatientDAO;
+import com.healthcare.management.model.Patient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import java.util.List;
+
+@Service
+public class PatientService {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
+    private final PatientDAO patientDAO;
+
+    @Autowired
+    public PatientService(PatientDAO patientDAO) {
+        this.patientDAO = patientDAO;
+    }
+
+    public Patient getPatient(Long patientId) {
+        return patientDAO.findByPatientId(patientId);
+    }
+
+    /**
+     * Loads every patient into memory. Use {@link #getPatientsPage(Long, int)} instead.
+     */
+    @Deprecated
+    public List<Patient> getAllPatients() {
+        return patientDAO.findAll();
+    }
+
+    // Returns up to pageSize patients with an id greater than afterPatientId (null for the first page)
+    public PatientPage getPatientsPage(Long afterPatientId, int pageSize) {
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        long after = afterPatientId == null ? 0L : afterPatientId;
+
+        List<Patient> rows = patientDAO.findByPatientIdGreaterThanOrderByPatientIdAsc(after, PageRequest.of(0, size + 1));
+
+        if (rows.size() > size) {
+            List<Patient> page = rows.subList(0, size);
+            return new PatientPage(page, page.get(size - 1).getPatientId());
+        }
+        return new PatientPage(rows, null);
+    }
+
+    public Patient addPatient(Patient patient) {
+        return patientDAO.save(patient);
+    }
+
+    public void deletePatient(Long patientId) {
+        patientDAO.deleteById(patientId);
+    }
+}
+
+
+
+4. GET /patients (PatientController.java)
+The REST endpoint takes the cursor and page size as query parameters and returns the page together with the cursor for the next request:
+
+
+GET /patients?size=50
+GET /patients?after=1050&size=50
+
+
+package com.healthcare.management.controller;
+
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.service.PatientPage;
+import com.healthcare.management.service.PatientService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/patients")
+public class PatientController {
+
+    private final PatientService patientService;
+
+    @Autowired
+    public PatientController(PatientService patientService) {
+        this.patientService = patientService;
+    }
+
+    @GetMapping
+    public PatientPage listPatients(@RequestParam(required = false) Long after,
+                                    @RequestParam(defaultValue = "" + PatientService.DEFAULT_PAGE_SIZE) int size) {
+        return patientService.getPatientsPage(after, size);
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<Patient> getPatient(@PathVariable Long id) {
+        Patient patient = patientService.getPatient(id);
+        return patient == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(patient);
+    }
+
+    @PostMapping
+    public Patient addPatient(@RequestBody Patient patient) {
+        return patientService.addPatient(patient);
+    }
+}
+
+
+Example response:
+
+
+{
+  "patients": [
+    { "patientId": 1001, "name": "John Doe", "email": "john.doe@example.com", "phoneNumber": "1234567890" },
+    ...
+  ],
+  "nextCursor": 1050,
+  "hasNext": true
+}
+
+
+
+5. Patient List Servlet (PatientListServlet.java)
+The patient list page used the full list. The servlet now loads a single page and forwards it to patientList.jsp. It gets PatientService from the Spring application context.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.management.service.PatientPage;
+import com.healthcare.management.service.PatientService;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+
+@WebServlet("/patientList")
+public class PatientListServlet extends HttpServlet {
+
+    private PatientService patientService;
+
+    @Override
+    public void init() throws ServletException {
+        patientService = WebApplicationContextUtils
+                .getRequiredWebApplicationContext(getServletContext())
+                .getBean(PatientService.class);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Long after = null;
+        String afterParam = request.getParameter("after");
+        if (afterParam != null && !afterParam.isEmpty()) {
+            try {
+                after = Long.valueOf(afterParam);
+            } catch (NumberFormatException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+                return;
+            }
+        }
+
+        PatientPage page = patientService.getPatientsPage(after, PatientService.DEFAULT_PAGE_SIZE);
+        request.setAttribute("page", page);
+
+        RequestDispatcher dispatcher = request.getRequestDispatcher("patientList.jsp");
+        dispatcher.forward(request, response);
+    }
+}
+
+
+The servlets that used to redirect to patientList.jsp (RegisterPatientServlet, UpdatePatientServlet) should now redirect to "patientList", so that the page is always rendered through this servlet.
+
+
+
+6. Patient List Page (patientList.jsp)
+The page renders the current page and a "Next" link carrying the cursor. Going back is handled by the browser history, which is how keyset paging is normally used.
+
+
+<%@ page contentType="text/html;charset=UTF-8" language="java" %>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+
+<!DOCTYPE html>
+<html lang="en">
+<head>
+    <meta charset="UTF-8">
+    <title>Patients</title>
+</head>
+<body>
+    <h2>Patients</h2>
+    <table border="1">
+        <tr>
+            <th>ID</th>
+            <th>Name</th>
+            <th>Email</th>
+            <th>Phone</th>
+        </tr>
+        <c:forEach var="patient" items="${page.patients}">
+            <tr>
+                <td><a href="ViewPatientServlet?patientId=${patient.patientId}">${patient.patientId}</a></td>
+                <td><c:out value="${patient.name}" /></td>
+                <td><c:out value="${patient.email}" /></td>
+                <td><c:out value="${patient.phone}" /></td>
+            </tr>
+        </c:forEach>
+    </table>
+
+    <c:if test="${page.hasNext}">
+        <p><a href="patientList?after=${page.nextCursor}">Next &raquo;</a></p>
+    </c:if>
+</body>
+</html>
+
+
+
+7. Unit Test for Paging (PatientServiceTest.java)
+These tests go in the existing PatientServiceTest, next to testGetPatient and the others. They check that the extra row is used only to detect the next page, and that the page size is capped.
+
+
+    @Test
+    void testGetPatientsPageReturnsCursorWhenMoreRowsExist() {
+        Patient second = new Patient(2L, "Jane Doe", "jane.doe@example.com", "9876543210");
+        Patient third = new Patient(3L, "Jim Doe", "jim.doe@example.com", "5555555555");
+        when(patientDAO.findByPatientIdGreaterThanOrderByPatientIdAsc(0L, PageRequest.of(0, 3)))
+                .thenReturn(Arrays.asList(mockPatient, second, third));
+
+        PatientPage page = patientService.getPatientsPage(null, 2);
+
+        assertEquals(2, page.getPatients().size());
+        assertEquals(2L, page.getNextCursor());
+        assertTrue(page.isHasNext());
+    }
+
+    @Test
+    void testGetPatientsPageLastPageHasNoCursor() {
+        when(patientDAO.findByPatientIdGreaterThanOrderByPatientIdAsc(1L, PageRequest.of(0, 3)))
+                .thenReturn(Collections.emptyList());
+
+        PatientPage page = patientService.getPatientsPage(1L, 2);
+
+        assertTrue(page.getPatients().isEmpty());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void testGetPatientsPageCapsPageSize() {
+        when(patientDAO.findByPatientIdGreaterThanOrderByPatientIdAsc(eq(0L), any(Pageable.class)))
+                .thenReturn(Collections.emptyList());
+
+        patientService.getPatientsPage(null, 1_000_000);
+
+        verify(patientDAO).findByPatientIdGreaterThanOrderByPatientIdAsc(0L,
+                PageRequest.of(0, PatientService.MAX_PAGE_SIZE + 1));
+    }
+
+
+Additional imports for the test class:
+
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import java.util.Arrays;
+import java.util.Collections;
+
+
+
+Explanation:
+Keyset instead of OFFSET: the query always starts at an index position (patient_id > ?), so the database never scans rows it is going to throw away.
+Bounded pages: MAX_PAGE_SIZE caps every request, so neither the list page nor GET /patients can load the whole table.
+No COUNT(*): fetching pageSize + 1 rows tells us whether there is a next page without a second query.
+Stable under inserts: new patients get higher ids, so a user paging through the list never sees a row twice or skips one, which can happen with OFFSET.
+
+
+
+Summary
+The patient list and GET /patients now read one bounded page at a time using a primary-key seek. Memory use per request is constant, and the cost of a page no longer depends on how deep into the list it is.
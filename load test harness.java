@@ -0,0 +1,731 @@
+The final review says "use JMeter" for performance testing, but the project has nothing that reproduces real traffic. The JMH benchmarks from "JMH benchmarks" measure single operations in isolation. They cannot show what happens when logins, profile views and registrations arrive together at a steady rate, with the connection pool, the session handling and the JSP engine all busy at the same time.
+
+There is also a subtle trap in most simple load tests. A test that sends a request, waits for the response, and only then sends the next one slows down whenever the server slows down. During a 2-second stall it sends nothing, so it records one slow request instead of the hundreds that real users would have sent and waited for. This is called coordinated omission, and it makes p99 and p99.9 look far better than they really are.
+
+In this part, we'll add a self-contained load generator:
+
+It starts LoginServlet, DisplayUserProfileServlet, RegisterUserServlet and RegisterPatientServlet in an embedded Tomcat on an in-memory H2 database. It can also target an already running deployment.
+It sends a configurable mix of login, profile view, user registration and patient registration.
+It runs open-loop: requests are scheduled at a fixed rate, whether or not earlier requests have finished.
+It records latencies in HdrHistogram and reports p50, p99, p99.9 and max per operation, measured from the time each request was supposed to be sent (coordinated-omission corrected) and, for comparison, from the time it was actually sent.
+
+The classes live in the benchmarks module next to the JMH benchmarks, because they need the same embedded Tomcat and application classes.
+
+
+
+1. Dependency (benchmarks/pom.xml)
+Add HdrHistogram to the benchmarks module:
+
+
+<dependency>
+    <groupId>org.hdrhistogram</groupId>
+    <artifactId>HdrHistogram</artifactId>
+    <version>2.1.12</version>
+</dependency>
+
+
+
+2. Operations (Operation.java)
+The four operations the generator can send. Each one has the name used for it in the --mix option.
+
+Profile views need a logged-in session. The generator logs in a number of users before the test starts and gives each profile view one of their session cookies. A LOGIN operation always starts a new session, like a user opening the site.
+
+
+package com.healthcare.loadtest;
+
+public enum Operation {
+    LOGIN("login"),
+    VIEW_PROFILE("profile"),
+    REGISTER_USER("registerUser"),
+    REGISTER_PATIENT("registerPatient");
+
+    private final String key;
+
+    Operation(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public static Operation fromKey(String key) {
+        for (Operation operation : values()) {
+            if (operation.key.equals(key)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown operation '" + key + "'");
+    }
+}
+
+
+
+3. Settings (LoadTestConfig.java)
+All settings come from command-line options, with defaults for a quick local run. The mix is a list of weights, for example "login=10,profile=80,registerUser=5,registerPatient=5".
+
+
+package com.healthcare.loadtest;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+public class LoadTestConfig {
+    private int rate = 200;
+    private int durationSeconds = 60;
+    private int warmupSeconds = 10;
+    private int workers = 200;
+    private int sessions = 100;
+    private String target;
+    private String outputDir;
+    private final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+    private int totalWeight;
+
+    public static LoadTestConfig parse(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+        config.setMix("login=10,profile=80,registerUser=5,registerPatient=5");
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--rate":
+                    config.rate = Integer.parseInt(value);
+                    break;
+                case "--duration":
+                    config.durationSeconds = Integer.parseInt(value);
+                    break;
+                case "--warmup":
+                    config.warmupSeconds = Integer.parseInt(value);
+                    break;
+                case "--workers":
+                    config.workers = Integer.parseInt(value);
+                    break;
+                case "--sessions":
+                    config.sessions = Integer.parseInt(value);
+                    break;
+                case "--mix":
+                    config.setMix(value);
+                    break;
+                case "--target":
+                    config.target = value;
+                    break;
+                case "--out":
+                    config.outputDir = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        if (config.rate < 1 || config.workers < 1 || config.sessions < 1) {
+            throw new IllegalArgumentException("--rate, --workers and --sessions must be at least 1");
+        }
+        return config;
+    }
+
+    private void setMix(String value) {
+        mix.clear();
+        totalWeight = 0;
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split("=");
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                mix.put(Operation.fromKey(parts[0].trim()), weight);
+                totalWeight += weight;
+            }
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("The mix must contain at least one operation");
+        }
+    }
+
+    // Picks an operation according to the weights
+    public Operation nextOperation(SplittableRandom random) {
+        int pick = random.nextInt(totalWeight);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            pick -= entry.getValue();
+            if (pick < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    // null to start the embedded server
+    public String getTarget() {
+        return target;
+    }
+
+    // null to skip writing .hgrm files
+    public String getOutputDir() {
+        return outputDir;
+    }
+
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+}
+
+
+
+4. Embedded Server (LoadTestServer.java)
+Starts Tomcat on a free port with the four servlets, the JSP engine, the DatabaseContextListener from "connection pool for DatabaseConnection" (pointed at an in-memory H2 database), the PasswordHashingContextListener that LoginServlet and RegisterUserServlet need since "password hashing", and the ConditionalGet listener that DisplayUserProfileServlet needs. The patients and user_account tables and the account for user@example.com are created after startup.
+
+Tomcat's own thread pool is left at its default of 200 threads, as in a standard deployment.
+
+
+package com.healthcare.loadtest;
+
+import com.healthcare.db.DatabaseConnection;
+import com.healthcare.security.Pbkdf2PasswordHasher;
+import com.healthcare.servlet.DatabaseContextListener;
+import com.healthcare.servlet.DisplayUserProfileServlet;
+import com.healthcare.servlet.LoginServlet;
+import com.healthcare.servlet.PasswordHashingContextListener;
+import com.healthcare.servlet.RegisterPatientServlet;
+import com.healthcare.servlet.RegisterUserServlet;
+import com.healthcare.servlet.conditional.ConditionalGetContextListener;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.jasper.servlet.JasperInitializer;
+
+import javax.servlet.http.HttpServlet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+public class LoadTestServer implements AutoCloseable {
+
+    private final Tomcat tomcat = new Tomcat();
+
+    public LoadTestServer(File webapp) throws IOException, LifecycleException, SQLException {
+        tomcat.setBaseDir(Files.createTempDirectory("loadtest-tomcat").toString());
+        tomcat.setPort(0);
+        tomcat.getConnector();
+
+        Context context = tomcat.addContext("", webapp.getCanonicalPath());
+        Tomcat.initWebappDefaults(context);
+        context.addServletContainerInitializer(new JasperInitializer(), null);
+
+        context.addParameter("db.url", "jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1");
+        context.addParameter("db.user", "sa");
+        context.addParameter("db.password", "");
+        context.addParameter("db.pool.maxSize", "20");
+        context.addApplicationListener(DatabaseContextListener.class.getName());
+        context.addApplicationListener(PasswordHashingContextListener.class.getName());
+        context.addApplicationListener(ConditionalGetContextListener.class.getName());
+
+        addServlet(context, "/LoginServlet", new LoginServlet());
+        addServlet(context, "/DisplayUserProfileServlet", new DisplayUserProfileServlet());
+        addServlet(context, "/RegisterUserServlet", new RegisterUserServlet());
+        addServlet(context, "/RegisterPatientServlet", new RegisterPatientServlet());
+
+        tomcat.start();
+
+        try (Connection con = DatabaseConnection.getConnection(); Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS patients ("
+                    + "id BIGINT AUTO_INCREMENT PRIMARY KEY, "
+                    + "name VARCHAR(100), age INT, disease VARCHAR(255))");
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS user_account (email VARCHAR(255) PRIMARY KEY, "
+                    + "full_name VARCHAR(100) NOT NULL, gender VARCHAR(10), age VARCHAR(3), "
+                    + "password_hash VARCHAR(255) NOT NULL)");
+            // The account HttpDriver logs in with; hashed at the listener's default cost
+            try (PreparedStatement pst = con.prepareStatement("MERGE INTO user_account "
+                    + "(email, full_name, gender, age, password_hash) VALUES (?, ?, ?, ?, ?)")) {
+                pst.setString(1, "user@example.com");
+                pst.setString(2, "John Doe");
+                pst.setString(3, "Male");
+                pst.setString(4, "30");
+                pst.setString(5, new Pbkdf2PasswordHasher(600_000).hash("password123".toCharArray()));
+                pst.executeUpdate();
+            }
+        }
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + tomcat.getConnector().getLocalPort();
+    }
+
+    @Override
+    public void close() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    private static void addServlet(Context context, String path, HttpServlet servlet) {
+        String name = servlet.getClass().getSimpleName();
+        Tomcat.addServlet(context, name, servlet);
+        context.addServletMappingDecoded(path, name);
+    }
+}
+
+
+
+5. Sending Requests (HttpDriver.java)
+Sends one operation and returns whether it succeeded. Redirects are not followed: a 302 from LoginServlet or RegisterPatientServlet is the successful end of that operation. The response body is always read completely, so the keep-alive connection can be reused for the next request.
+
+Each request uses unique data (a counter in the name and email), so registrations do not all write the same row.
+
+
+package com.healthcare.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class HttpDriver {
+
+    private static final int TIMEOUT_MS = 30_000;
+
+    private final String baseUrl;
+    private final AtomicLong sequence = new AtomicLong();
+
+    public HttpDriver(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    // Logs in and returns the "JSESSIONID=..." cookie
+    public String login() throws IOException {
+        HttpURLConnection con = post("/LoginServlet", null, "email=user%40example.com&password=password123");
+        String cookie = con.getHeaderField("Set-Cookie");
+        drain(con);
+        if (cookie == null) {
+            throw new IOException("Login did not create a session");
+        }
+        int end = cookie.indexOf(';');
+        return end < 0 ? cookie : cookie.substring(0, end);
+    }
+
+    // True for 2xx, 3xx and 304 responses; false for errors and I/O failures
+    public boolean execute(Operation operation, String sessionCookie) {
+        long n = sequence.incrementAndGet();
+        try {
+            HttpURLConnection con;
+            switch (operation) {
+                case LOGIN:
+                    con = post("/LoginServlet", null, "email=user%40example.com&password=password123");
+                    break;
+                case VIEW_PROFILE:
+                    con = open("/DisplayUserProfileServlet", sessionCookie);
+                    break;
+                case REGISTER_USER:
+                    con = post("/RegisterUserServlet", null, "fullName=" + encode("Load User " + n)
+                            + "&email=" + encode("load" + n + "@example.com") + "&gender=Female&age=40"
+                            + "&password=secret123&confirmPassword=secret123");
+                    break;
+                case REGISTER_PATIENT:
+                    con = post("/RegisterPatientServlet", null, "name=" + encode("Load Patient " + n)
+                            + "&age=" + (n % 90) + "&disease=Flu");
+                    break;
+                default:
+                    throw new IllegalArgumentException(operation.name());
+            }
+            return drain(con) < 400;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private HttpURLConnection open(String path, String sessionCookie) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        con.setInstanceFollowRedirects(false);
+        con.setConnectTimeout(TIMEOUT_MS);
+        con.setReadTimeout(TIMEOUT_MS);
+        if (sessionCookie != null) {
+            con.setRequestProperty("Cookie", sessionCookie);
+        }
+        return con;
+    }
+
+    private HttpURLConnection post(String path, String sessionCookie, String form) throws IOException {
+        HttpURLConnection con = open(path, sessionCookie);
+        con.setRequestMethod("POST");
+        con.setDoOutput(true);
+        con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        try (OutputStream out = con.getOutputStream()) {
+            out.write(form.getBytes(StandardCharsets.UTF_8));
+        }
+        return con;
+    }
+
+    // Reads the whole body and returns the status code
+    private static int drain(HttpURLConnection con) throws IOException {
+        int status = con.getResponseCode();
+        InputStream body = status >= 400 ? con.getErrorStream() : con.getInputStream();
+        if (body != null) {
+            byte[] buffer = new byte[8192];
+            try (InputStream in = body) {
+                while (in.read(buffer) != -1) {
+                    // discard
+                }
+            }
+        }
+        return status;
+    }
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+}
+
+
+
+6. The Generator (LoadGenerator.java)
+This is where the open-loop schedule and the coordinated-omission correction happen.
+
+A single scheduler thread computes the intended start time of request i as start + i × (1 second / rate) and hands the request to a worker pool at that moment. It never waits for responses. If the scheduler itself falls behind (for example during a GC pause in the generator), it sends the missed requests immediately but keeps their original intended times.
+
+Each request records two latencies:
+
+Response time: from the intended start time to the end of the response. This is what a user arriving on schedule would experience, including any time the request spent waiting for a free worker because the server was slow. This is the corrected number.
+Service time: from the moment the request was actually sent to the end of the response. This is what a closed-loop tool like a naive JMeter test reports, and it hides queueing.
+
+When the two numbers are close, the server keeps up with the rate. When the response time p99 is far above the service time p99, the server could not keep up, and the service time is hiding the problem.
+
+Latencies are recorded in microseconds into HdrHistogram Recorders, which are safe to record into from many threads without locks. Requests whose intended start is during the warm-up are sent but not recorded.
+
+At the end of the schedule the generator waits for every request that is still queued or in flight. Those are the slowest requests of the test, so reporting without them would cut off exactly the tail that the correction is there to show. HttpDriver's connect and read timeouts bound the wait; a request that times out is recorded as an error with its full response time.
+
+The generator also remembers when the last measured request was actually sent. The report divides the request count by the time from the start of measurement to that send (or to the end of the schedule, if later), which gives the rate the generator really achieved.
+
+
+package com.healthcare.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class LoadGenerator {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final LoadTestConfig config;
+    private final HttpDriver driver;
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final Recorder progress = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAccumulator lastMeasuredSend = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    private double sendSeconds;
+
+    public LoadGenerator(LoadTestConfig config, HttpDriver driver) {
+        this.config = config;
+        this.driver = driver;
+        for (Operation operation : config.getMix().keySet()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+
+        // HttpURLConnection keeps at most 5 idle connections per host by default
+        System.setProperty("http.maxConnections", String.valueOf(config.getWorkers()));
+
+        LoadTestServer server = null;
+        String baseUrl = config.getTarget();
+        if (baseUrl == null) {
+            server = new LoadTestServer(new File(System.getProperty("loadtest.webapp", "../src/main/webapp")));
+            baseUrl = server.getBaseUrl();
+        }
+
+        try {
+            LoadGenerator generator = new LoadGenerator(config, new HttpDriver(baseUrl));
+            generator.run();
+
+            LatencyReport report = LatencyReport.of(generator.stats, generator.sendSeconds);
+            report.print(config, System.out);
+            if (config.getOutputDir() != null) {
+                report.writeHistograms(new File(config.getOutputDir()));
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    public void run() throws Exception {
+        String[] sessions = new String[config.getSessions()];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = driver.login();
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(config.getWorkers());
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(this::printProgress, 1, 1, TimeUnit.SECONDS);
+
+        SplittableRandom random = new SplittableRandom(42);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.getRate();
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+
+        try {
+            for (long i = 0; ; i++) {
+                long intended = start + i * intervalNanos;
+                if (intended >= end) {
+                    break;
+                }
+                // parkNanos may return early, so wait until the intended time has really come
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                Operation operation = config.nextOperation(random);
+                String cookie = operation == Operation.VIEW_PROFILE ? sessions[random.nextInt(sessions.length)] : null;
+                boolean measured = intended >= measureFrom;
+                workers.execute(() -> send(operation, cookie, intended, measured));
+            }
+        } finally {
+            workers.shutdown();
+            while (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                System.out.println("waiting for requests still queued or in flight");
+            }
+            reporter.shutdownNow();
+        }
+        // From the start of measurement to the last measured send, or to the end of the schedule if later
+        sendSeconds = (Math.max(end, lastMeasuredSend.get()) - measureFrom) / 1e9;
+    }
+
+    private void send(Operation operation, String cookie, long intended, boolean measured) {
+        long sent = System.nanoTime();
+        if (measured) {
+            lastMeasuredSend.accumulate(sent);
+        }
+        boolean ok = driver.execute(operation, cookie);
+        long done = System.nanoTime();
+
+        long responseMicros = TimeUnit.NANOSECONDS.toMicros(done - intended);
+        progress.recordValue(responseMicros);
+        if (measured) {
+            stats.get(operation).record(responseMicros, TimeUnit.NANOSECONDS.toMicros(done - sent), ok);
+        }
+    }
+
+    private void printProgress() {
+        Histogram interval = progress.getIntervalHistogram();
+        System.out.printf("%8d req/s   p50 %8.2f ms   p99 %8.2f ms   max %8.2f ms%n",
+                interval.getTotalCount(),
+                interval.getValueAtPercentile(50) / 1000.0,
+                interval.getValueAtPercentile(99) / 1000.0,
+                interval.getMaxValue() / 1000.0);
+    }
+
+    static final class OperationStats {
+        final Recorder responseTime = new Recorder(SIGNIFICANT_DIGITS);
+        final Recorder serviceTime = new Recorder(SIGNIFICANT_DIGITS);
+        final LongAdder errors = new LongAdder();
+
+        void record(long responseMicros, long serviceMicros, boolean ok) {
+            responseTime.recordValue(responseMicros);
+            serviceTime.recordValue(serviceMicros);
+            if (!ok) {
+                errors.increment();
+            }
+        }
+    }
+}
+
+
+The worker pool's queue is unbounded on purpose. If the server falls behind, requests wait in the queue and that waiting time is part of their response time, exactly as it would be for real users. The test is bounded by its duration, so the queue cannot grow forever.
+
+
+
+7. The Report (LatencyReport.java)
+Takes the histograms from the recorders once, at the end of the test. It prints one table for the corrected response times and one for the service times, with count, errors, achieved send rate and the percentiles in milliseconds.
+
+With --out, each histogram is also written as an .hgrm file (percentile distribution in milliseconds). These files can be loaded into HdrHistogram's plotter to compare runs side by side.
+
+
+package com.healthcare.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+
+final class LatencyReport {
+
+    private final Map<Operation, Histogram> responseTimes = new EnumMap<>(Operation.class);
+    private final Map<Operation, Histogram> serviceTimes = new EnumMap<>(Operation.class);
+    private final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+    private final double sendSeconds;
+
+    private LatencyReport(double sendSeconds) {
+        this.sendSeconds = sendSeconds;
+    }
+
+    // sendSeconds: how long the generator took to send the measured requests
+    static LatencyReport of(Map<Operation, LoadGenerator.OperationStats> stats, double sendSeconds) {
+        LatencyReport report = new LatencyReport(sendSeconds);
+        for (Map.Entry<Operation, LoadGenerator.OperationStats> entry : stats.entrySet()) {
+            LoadGenerator.OperationStats operationStats = entry.getValue();
+            report.responseTimes.put(entry.getKey(), operationStats.responseTime.getIntervalHistogram());
+            report.serviceTimes.put(entry.getKey(), operationStats.serviceTime.getIntervalHistogram());
+            report.errors.put(entry.getKey(), operationStats.errors.sum());
+        }
+        return report;
+    }
+
+    void print(LoadTestConfig config, PrintStream out) {
+        out.println();
+        out.printf("Target rate %d req/s for %d s (after %d s warm-up), %d workers%n",
+                config.getRate(), config.getDurationSeconds(), config.getWarmupSeconds(), config.getWorkers());
+        out.println();
+        out.printf("Measured requests sent in %.1f s%n", sendSeconds);
+        out.println();
+        out.println("Response time (from intended start, corrected for coordinated omission):");
+        printTable(responseTimes, out);
+        out.println();
+        out.println("Service time (from actual send, NOT corrected):");
+        printTable(serviceTimes, out);
+    }
+
+    void writeHistograms(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        write(responseTimes, dir, "response");
+        write(serviceTimes, dir, "service");
+    }
+
+    private static void write(Map<Operation, Histogram> histograms, File dir, String kind) throws IOException {
+        for (Map.Entry<Operation, Histogram> entry : histograms.entrySet()) {
+            File file = new File(dir, entry.getKey().getKey() + "-" + kind + ".hgrm");
+            try (PrintStream out = new PrintStream(file, "UTF-8")) {
+                // Values are recorded in microseconds; 1000.0 scales the output to milliseconds
+                entry.getValue().outputPercentileDistribution(out, 1000.0);
+            }
+        }
+    }
+
+    private void printTable(Map<Operation, Histogram> histograms, PrintStream out) {
+        out.printf("%-16s %10s %8s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        Histogram total = null;
+        long totalErrors = 0;
+        for (Map.Entry<Operation, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            long operationErrors = errors.get(entry.getKey());
+            printRow(entry.getKey().getKey(), histogram, operationErrors, out);
+            if (total == null) {
+                total = histogram.copy();
+            } else {
+                total.add(histogram);
+            }
+            totalErrors += operationErrors;
+        }
+        if (total != null) {
+            printRow("all", total, totalErrors, out);
+        }
+    }
+
+    private void printRow(String name, Histogram histogram, long errors, PrintStream out) {
+        out.printf("%-16s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                name,
+                histogram.getTotalCount(),
+                errors,
+                histogram.getTotalCount() / sendSeconds,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+}
+
+
+
+8. Running a Test
+Build the benchmarks module as described in "JMH benchmarks", then run the generator from the benchmarks directory:
+
+
+java -cp target/benchmarks.jar com.healthcare.loadtest.LoadGenerator --rate 300 --duration 60
+
+
+Against a running deployment instead of the embedded server:
+
+
+java -cp target/benchmarks.jar com.healthcare.loadtest.LoadGenerator \
+    --target http://staging.example.com:8080/healthcare \
+    --rate 500 --duration 300 --warmup 30 \
+    --mix login=5,profile=85,registerUser=5,registerPatient=5 \
+    --out results/500rps
+
+
+Options:
+
+
+--rate        requests per second, sent on a fixed schedule (default 200)
+--duration    measured seconds (default 60)
+--warmup      seconds sent before measuring starts (default 10)
+--mix         operation weights (default login=10,profile=80,registerUser=5,registerPatient=5)
+--sessions    users logged in before the test, used by profile views (default 100)
+--workers     sending threads; also the maximum number of requests in flight (default 200)
+--target      base URL of a running deployment; omit to start the embedded server
+--out         directory for .hgrm files
+
+
+To find the maximum sustainable rate, run several tests with increasing --rate and watch the corrected p99. It stays flat while the server keeps up, then rises sharply. The achieved req/s column is the rate at which requests were really sent. It should match the target rate; if it is lower, the generator itself is the bottleneck: all workers were busy or the scheduler fell behind (raise --workers or run it on another machine).
+
+Running the generator and the embedded server in the same JVM is convenient for comparing two versions of the code on one machine. For absolute numbers, test a real deployment with --target from a separate machine.
+
+
+
+Explanation:
+Open loop: requests are sent on a fixed schedule, independent of responses, the way real users arrive. A slow server gets a growing backlog, not fewer requests.
+Coordinated omission: every latency is measured from when the request should have been sent. Time spent waiting behind slow requests is counted, so a stall shows up in p99 and p99.9 with the weight it has for users.
+Service time: also reported, uncorrected, to show how much a closed-loop tool would have hidden.
+HdrHistogram: records every request with 3 significant digits in a fixed amount of memory, from microseconds to minutes. Recorders let many worker threads record without locks.
+Mix and sessions: profile views reuse a pool of logged-in sessions, while logins and registrations create new sessions and rows, as they would in production.
+
+
+
+Summary
+LoadGenerator starts the four main servlets in an embedded Tomcat (or targets a running deployment), sends a configurable mix of logins, profile views and registrations at a fixed open-loop rate, and reports p50, p99 and p99.9 per operation from HdrHistogram. Because latencies are measured from the intended start time, the percentiles include the effect of coordinated omission rather than hiding it.
@@ -0,0 +1,1016 @@
+LoginServlet compares the password with a hard-coded string, and RegisterUserServlet keeps the plaintext password in the UserProfile. Before real accounts can be stored, passwords have to be hashed with a slow, salted algorithm, so that a leaked table does not reveal them.
+
+"Slow" is the point of such an algorithm, and it creates a new problem. Each login now costs tens of milliseconds of pure CPU. During a login storm (the morning shift starting, or a credential-stuffing attack), every container thread could be busy hashing, and ViewPatientServlet, the registrations and everything else would wait for CPU.
+
+In this part, we'll add:
+
+A PasswordHasher based on PBKDF2-HMAC-SHA256 from the JDK. Every stored hash records its own cost (the iteration count).
+A dedicated, bounded pool of hashing threads with an admission queue. Hashing can never use more than its threads, and when the queue is full, a login gets 503 immediately instead of piling up.
+Rehash-on-login: when the configured cost is raised, each user's hash is upgraded in the background the next time they log in, because only then is the plaintext password available.
+Metrics on hash time, queue wait, rejections and rehashes.
+
+We use PBKDF2 because it is built into every JDK, so no new dependency is needed. bcrypt or Argon2 can be plugged in later by implementing the same PasswordHasher interface; the pool, the queue and the rehash logic do not change.
+
+
+
+1. The Hasher (PasswordHasher.java, Pbkdf2PasswordHasher.java)
+A stored hash looks like this:
+
+
+$pbkdf2-sha256$600000$<salt>$<hash>
+
+
+The salt is 16 random bytes and the hash 32 bytes, both Base64 without padding. Because the iteration count is part of the string, verify() always uses the cost the hash was created with, and needsRehash() can tell whether it is lower than the current setting.
+
+The comparison uses MessageDigest.isEqual, which takes the same time whether the first byte or the last byte differs.
+
+
+package com.healthcare.security;
+
+public interface PasswordHasher {
+
+    // A new salted hash, in a self-describing format that includes the cost
+    String hash(char[] password);
+
+    boolean verify(char[] password, String storedHash);
+
+    // True if the stored hash was created with a lower cost than the current one
+    boolean needsRehash(String storedHash);
+}
+
+
+package com.healthcare.security;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String ID = "pbkdf2-sha256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int MIN_ITERATIONS = 10_000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < MIN_ITERATIONS) {
+            throw new IllegalArgumentException("At least " + MIN_ITERATIONS + " iterations are required");
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String hash(char[] password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = derive(password, salt, iterations, HASH_BITS);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return "$" + ID + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    @Override
+    public boolean verify(char[] password, String storedHash) {
+        Parsed stored = Parsed.of(storedHash);
+        if (stored == null) {
+            return false;
+        }
+        byte[] actual = derive(password, stored.salt, stored.iterations, stored.hash.length * 8);
+        return MessageDigest.isEqual(actual, stored.hash);
+    }
+
+    @Override
+    public boolean needsRehash(String storedHash) {
+        Parsed stored = Parsed.of(storedHash);
+        return stored == null || stored.iterations < iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    private static byte[] derive(char[] password, byte[] salt, int iterations, int bits) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, bits);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static final class Parsed {
+        final int iterations;
+        final byte[] salt;
+        final byte[] hash;
+
+        private Parsed(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        // null if the string is not a hash in our format
+        static Parsed of(String storedHash) {
+            if (storedHash == null) {
+                return null;
+            }
+            String[] parts = storedHash.split("\\$");
+            if (parts.length != 5 || !parts[0].isEmpty() || !ID.equals(parts[1])) {
+                return null;
+            }
+            try {
+                Base64.Decoder decoder = Base64.getDecoder();
+                Parsed parsed = new Parsed(Integer.parseInt(parts[2]), decoder.decode(parts[3]), decoder.decode(parts[4]));
+                // PBEKeySpec refuses a zero cost, salt or length, so such a string cannot match anything
+                return parsed.iterations > 0 && parsed.salt.length > 0 && parsed.hash.length > 0 ? parsed : null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+}
+
+
+600,000 iterations is the current OWASP recommendation for PBKDF2-HMAC-SHA256. Measure the hash time on the production CPU (it is reported in the metrics below) and raise the iteration count as hardware gets faster; rehash-on-login takes care of the existing hashes.
+
+
+
+2. Hashing Metrics (HashingMetrics.java)
+Queue wait is the time between a request handing over its hash and a hashing thread starting it. Hash time is the CPU work itself. If the queue wait grows while the hash time stays the same, the pool is too small for the login rate.
+
+
+package com.healthcare.security;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class HashingMetrics {
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+    private final LongAccumulator maxHashNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAccumulator maxQueueWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder rehashed = new LongAdder();
+    private final LongAdder rehashSkipped = new LongAdder();
+
+    void recordQueueWait(long nanos) {
+        queueWaitNanos.add(nanos);
+        maxQueueWaitNanos.accumulate(nanos);
+    }
+
+    void recordHash(long nanos) {
+        hashes.increment();
+        hashNanos.add(nanos);
+        maxHashNanos.accumulate(nanos);
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    void recordTimedOut() {
+        timedOut.increment();
+    }
+
+    void recordRehashed() {
+        rehashed.increment();
+    }
+
+    void recordRehashSkipped() {
+        rehashSkipped.increment();
+    }
+
+    public long getHashes() {
+        return hashes.sum();
+    }
+
+    public double getAverageHashMillis() {
+        long count = hashes.sum();
+        return count == 0 ? 0.0 : hashNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    public double getMaxHashMillis() {
+        return maxHashNanos.get() / 1_000_000.0;
+    }
+
+    public double getAverageQueueWaitMillis() {
+        long count = hashes.sum();
+        return count == 0 ? 0.0 : queueWaitNanos.sum() / (double) count / 1_000_000.0;
+    }
+
+    public double getMaxQueueWaitMillis() {
+        return maxQueueWaitNanos.get() / 1_000_000.0;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    public long getRehashed() {
+        return rehashed.sum();
+    }
+
+    public long getRehashSkipped() {
+        return rehashSkipped.sum();
+    }
+}
+
+
+
+3. The Hashing Pool (PasswordHashingService.java)
+All hashing goes through this service. It owns a fixed number of hashing threads and an ArrayBlockingQueue in front of them:
+
+If the queue is full, the hash is rejected at once with HashingUnavailableException, and the servlet answers 503. Login throughput is capped at what the threads can do, and the rest of the application keeps its CPU.
+A request waits for its result at most timeoutMs. If the time runs out, the task is cancelled; a cancelled task that has not started yet is skipped by the pool, so it costs no CPU.
+verify() with an unknown user still runs a full hash against a dummy value. Without this, "no such user" would be answered much faster than "wrong password", and an attacker could find out which email addresses have accounts.
+rehashInBackground() is fire-and-forget. If the pool is busy, the rehash is skipped and simply happens at a later login.
+
+
+package com.healthcare.security;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class PasswordHashingService implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger(PasswordHashingService.class.getName());
+
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMs;
+    private final HashingMetrics metrics = new HashingMetrics();
+    private final String dummyHash;
+
+    public PasswordHashingService(PasswordHasher hasher, int threads, int queueCapacity, long timeoutMs) {
+        this.hasher = hasher;
+        this.timeoutMs = timeoutMs;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "password-hasher-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        // Used for unknown users, so their login takes as long as a real one
+        this.dummyHash = hasher.hash("dummy-password".toCharArray());
+    }
+
+    // storedHash may be null for an unknown user; the result is then always false
+    public boolean verify(char[] password, String storedHash) throws HashingUnavailableException {
+        String hash = storedHash != null ? storedHash : dummyHash;
+        boolean matches = run(() -> hasher.verify(password, hash));
+        return storedHash != null && matches;
+    }
+
+    public String hash(char[] password) throws HashingUnavailableException {
+        return run(() -> hasher.hash(password));
+    }
+
+    public boolean needsRehash(String storedHash) {
+        return hasher.needsRehash(storedHash);
+    }
+
+    // Hashes the password again with the current cost and hands the result to store.
+    // Takes ownership of the array and clears it when done.
+    public void rehashInBackground(char[] password, Consumer<String> store) {
+        long submitted = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long started = System.nanoTime();
+                metrics.recordQueueWait(started - submitted);
+                try {
+                    String newHash = hasher.hash(password);
+                    metrics.recordHash(System.nanoTime() - started);
+                    store.accept(newHash);
+                    metrics.recordRehashed();
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Background rehash failed", e);
+                } finally {
+                    Arrays.fill(password, '\0');
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Arrays.fill(password, '\0');
+            metrics.recordRehashSkipped();
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+
+    public HashingMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <T> T run(Callable<T> work) throws HashingUnavailableException {
+        long submitted = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long started = System.nanoTime();
+                metrics.recordQueueWait(started - submitted);
+                try {
+                    return work.call();
+                } finally {
+                    metrics.recordHash(System.nanoTime() - started);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            metrics.recordRejected();
+            throw new HashingUnavailableException("Password hashing queue is full");
+        }
+
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            metrics.recordTimedOut();
+            throw new HashingUnavailableException("Password hashing timed out after " + timeoutMs + " ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new HashingUnavailableException("Interrupted while waiting for password hashing");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+}
+
+
+package com.healthcare.security;
+
+// The hashing pool cannot take the request right now; the caller should answer 503
+public class HashingUnavailableException extends Exception {
+    public HashingUnavailableException(String message) {
+        super(message);
+    }
+}
+
+
+Sizing: with T threads, a hash time of H ms and a queue of Q, the longest a login can wait is about Q × H / T. For example, 4 threads, 60 ms per hash and a queue of 64 give at most about 1 second, which fits in the default timeout of 2 seconds. The default thread count is half the CPU cores, so even a login storm leaves the other half for the rest of the application.
+
+
+
+4. User Accounts (UserAccount.java, UserAccountStore.java)
+Accounts are stored in a user_account table through the connection pool. The password is only ever stored as a hash.
+
+updatePasswordHash() only replaces the hash if it still has the value the rehash started from. If the user changed their password in the meantime, the background rehash of the old password does nothing.
+
+
+CREATE TABLE user_account (
+    email         VARCHAR(255) PRIMARY KEY,
+    full_name     VARCHAR(100) NOT NULL,
+    gender        VARCHAR(10),
+    age           VARCHAR(3),
+    password_hash VARCHAR(255) NOT NULL
+);
+
+
+package com.healthcare.model;
+
+public class UserAccount {
+    private final String email;
+    private final String fullName;
+    private final String gender;
+    private final String age;
+    private final String passwordHash;
+
+    public UserAccount(String email, String fullName, String gender, String age, String passwordHash) {
+        this.email = email;
+        this.fullName = fullName;
+        this.gender = gender;
+        this.age = age;
+        this.passwordHash = passwordHash;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public String getAge() {
+        return age;
+    }
+
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+
+    public UserProfile toUserProfile() {
+        return new UserProfile(fullName, email, gender, age);
+    }
+}
+
+
+package com.healthcare.db;
+
+import com.healthcare.model.UserAccount;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class UserAccountStore {
+
+    public UserAccount findByEmail(String email) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection();
+             PreparedStatement pst = con.prepareStatement(
+                     "SELECT email, full_name, gender, age, password_hash FROM user_account WHERE email = ?")) {
+            pst.setString(1, email);
+            try (ResultSet rs = pst.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return new UserAccount(rs.getString(1), rs.getString(2), rs.getString(3),
+                        rs.getString(4), rs.getString(5));
+            }
+        }
+    }
+
+    // Returns false if an account with this email already exists
+    public boolean insert(UserAccount account) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection();
+             PreparedStatement pst = con.prepareStatement(
+                     "INSERT INTO user_account (email, full_name, gender, age, password_hash) VALUES (?, ?, ?, ?, ?)")) {
+            pst.setString(1, account.getEmail());
+            pst.setString(2, account.getFullName());
+            pst.setString(3, account.getGender());
+            pst.setString(4, account.getAge());
+            pst.setString(5, account.getPasswordHash());
+            pst.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return false; // integrity constraint violation: duplicate email
+            }
+            throw e;
+        }
+    }
+
+    // Replaces the hash only if it is still expectedHash; returns false otherwise
+    public boolean updatePasswordHash(String email, String expectedHash, String newHash) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection();
+             PreparedStatement pst = con.prepareStatement(
+                     "UPDATE user_account SET password_hash = ? WHERE email = ? AND password_hash = ?")) {
+            pst.setString(1, newHash);
+            pst.setString(2, email);
+            pst.setString(3, expectedHash);
+            return pst.executeUpdate() == 1;
+        }
+    }
+}
+
+
+
+5. LoginServlet (LoginServlet.java)
+The password is copied into a char[] so it can be cleared after use. Verification runs on the hashing pool; if the pool is saturated, the user gets 503 with Retry-After and can simply try again.
+
+After a successful login, needsRehash() is checked. If the stored hash is weaker than the current setting, a copy of the password goes to rehashInBackground(), and the user is redirected without waiting for it.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.UserAccountStore;
+import com.healthcare.model.UserAccount;
+import com.healthcare.security.HashingUnavailableException;
+import com.healthcare.security.PasswordHashingService;
+import com.healthcare.session.SessionProfiles;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+public class LoginServlet extends HttpServlet {
+
+    private final UserAccountStore accounts = new UserAccountStore();
+    private PasswordHashingService hashing;
+
+    @Override
+    public void init() throws ServletException {
+        hashing = (PasswordHashingService) getServletContext()
+                .getAttribute(PasswordHashingContextListener.HASHING_ATTRIBUTE);
+        if (hashing == null) {
+            throw new ServletException("PasswordHashingContextListener is not configured");
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        // Get email and password from form
+        String email = request.getParameter("email");
+        String passwordParam = request.getParameter("password");
+        if (email == null || passwordParam == null) {
+            response.sendRedirect("login.jsp?error=true");
+            return;
+        }
+
+        char[] password = passwordParam.toCharArray();
+        try {
+            UserAccount account = accounts.findByEmail(email);
+            String storedHash = account == null ? null : account.getPasswordHash();
+
+            if (!hashing.verify(password, storedHash)) {
+                // Invalid login, redirect back to the login page
+                response.sendRedirect("login.jsp?error=true");
+                return;
+            }
+
+            if (hashing.needsRehash(storedHash)) {
+                hashing.rehashInBackground(password.clone(), newHash -> storeRehash(email, storedHash, newHash));
+            }
+
+            SessionProfiles.store(request.getSession(), account.toUserProfile(), null, null);
+            response.sendRedirect("DisplayUserProfileServlet");
+        } catch (HashingUnavailableException e) {
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many logins right now, please try again");
+        } catch (SQLException e) {
+            throw new ServletException("Login failed", e);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    private void storeRehash(String email, String oldHash, String newHash) {
+        try {
+            accounts.updatePasswordHash(email, oldHash, newHash);
+        } catch (SQLException e) {
+            getServletContext().log("Could not store the upgraded password hash for " + email, e);
+        }
+    }
+}
+
+
+The profile no longer gets the sample medical history and appointments that the old hard-coded login used. Real data for both will come from the patient's records.
+
+
+
+6. RegisterUserServlet (RegisterUserServlet.java)
+Registration hashes the password on the same pool, so a burst of registrations is limited in the same way as a burst of logins.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.db.UserAccountStore;
+import com.healthcare.model.UserAccount;
+import com.healthcare.security.HashingUnavailableException;
+import com.healthcare.security.PasswordHashingService;
+import com.healthcare.session.SessionProfiles;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+public class RegisterUserServlet extends HttpServlet {
+
+    private final UserAccountStore accounts = new UserAccountStore();
+    private PasswordHashingService hashing;
+
+    @Override
+    public void init() throws ServletException {
+        hashing = (PasswordHashingService) getServletContext()
+                .getAttribute(PasswordHashingContextListener.HASHING_ATTRIBUTE);
+        if (hashing == null) {
+            throw new ServletException("PasswordHashingContextListener is not configured");
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        // Get user inputs from the form
+        String fullName = request.getParameter("fullName");
+        String age = request.getParameter("age");
+        String email = request.getParameter("email");
+        String gender = request.getParameter("gender");
+        String passwordParam = request.getParameter("password");
+        String confirmPassword = request.getParameter("confirmPassword");
+
+        // Basic validation
+        if (email == null || passwordParam == null || !passwordParam.equals(confirmPassword)) {
+            response.sendRedirect("register.jsp?error=true");
+            return;
+        }
+
+        char[] password = passwordParam.toCharArray();
+        try {
+            UserAccount account = new UserAccount(email, fullName, gender, age, hashing.hash(password));
+            if (!accounts.insert(account)) {
+                response.sendRedirect("register.jsp?error=exists");
+                return;
+            }
+
+            SessionProfiles.store(request.getSession(), account.toUserProfile(), null, null);
+            response.sendRedirect("DisplayUserProfileServlet");
+        } catch (HashingUnavailableException e) {
+            response.setHeader("Retry-After", "1");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many registrations right now, please try again");
+        } catch (SQLException e) {
+            throw new ServletException("Registration failed", e);
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+}
+
+
+
+7. Creating the Pool at Startup (PasswordHashingContextListener.java)
+All settings are context parameters. To raise the cost, change auth.hash.iterations and redeploy: new hashes use the new cost at once, and existing users are upgraded as they log in.
+
+Declare this listener after DatabaseContextListener in web.xml, so the hashing threads are stopped before the connection pool closes.
+
+
+package com.healthcare.servlet;
+
+import com.healthcare.security.PasswordHashingService;
+import com.healthcare.security.Pbkdf2PasswordHasher;
+
+import javax.servlet.*;
+
+public class PasswordHashingContextListener implements ServletContextListener {
+
+    public static final String HASHING_ATTRIBUTE = "passwordHashing";
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        ServletContext context = event.getServletContext();
+
+        int iterations = intParam(context, "auth.hash.iterations", 600_000);
+        int threads = intParam(context, "auth.hash.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        int queueCapacity = intParam(context, "auth.hash.queueCapacity", 64);
+        int timeoutMs = intParam(context, "auth.hash.timeoutMs", 2_000);
+
+        PasswordHashingService hashing = new PasswordHashingService(
+                new Pbkdf2PasswordHasher(iterations), threads, queueCapacity, timeoutMs);
+        context.setAttribute(HASHING_ATTRIBUTE, hashing);
+        context.log("Password hashing: PBKDF2 with " + iterations + " iterations, "
+                + threads + " threads, queue " + queueCapacity);
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        PasswordHashingService hashing = (PasswordHashingService) event.getServletContext().getAttribute(HASHING_ATTRIBUTE);
+        if (hashing != null) {
+            hashing.close();
+        }
+    }
+
+    private static int intParam(ServletContext context, String name, int defaultValue) {
+        String value = context.getInitParameter(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
+
+
+The web.xml entries:
+
+
+<listener>
+    <listener-class>com.healthcare.servlet.DatabaseContextListener</listener-class>
+</listener>
+<listener>
+    <listener-class>com.healthcare.servlet.PasswordHashingContextListener</listener-class>
+</listener>
+
+<context-param>
+    <param-name>auth.hash.iterations</param-name>
+    <param-value>600000</param-value>
+</context-param>
+<context-param>
+    <param-name>auth.hash.threads</param-name>
+    <param-value>4</param-value>
+</context-param>
+
+
+
+8. Checking the Pool (passwordHashing.jsp)
+An admin page in the same style as registrationQueue.jsp.
+
+
+<%@ page contentType="text/html;charset=UTF-8" language="java" %>
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
+
+<!DOCTYPE html>
+<html lang="en">
+<head>
+    <meta charset="UTF-8">
+    <title>Password Hashing</title>
+</head>
+<body>
+    <h2>Password Hashing</h2>
+    <c:set var="hashing" value="${applicationScope.passwordHashing}" />
+    <p><strong>Active threads:</strong> ${hashing.activeThreads} (queued: ${hashing.queueDepth})</p>
+    <p><strong>Hashes:</strong> ${hashing.metrics.hashes}</p>
+    <p><strong>Hash time (avg / max ms):</strong>
+        <fmt:formatNumber value="${hashing.metrics.averageHashMillis}" maxFractionDigits="1" /> /
+        <fmt:formatNumber value="${hashing.metrics.maxHashMillis}" maxFractionDigits="1" /></p>
+    <p><strong>Queue wait (avg / max ms):</strong>
+        <fmt:formatNumber value="${hashing.metrics.averageQueueWaitMillis}" maxFractionDigits="1" /> /
+        <fmt:formatNumber value="${hashing.metrics.maxQueueWaitMillis}" maxFractionDigits="1" /></p>
+    <p><strong>Rejected (503):</strong> ${hashing.metrics.rejected}</p>
+    <p><strong>Timed out (503):</strong> ${hashing.metrics.timedOut}</p>
+    <p><strong>Rehashed on login:</strong> ${hashing.metrics.rehashed} (skipped: ${hashing.metrics.rehashSkipped})</p>
+</body>
+</html>
+
+
+
+9. Benchmarks and Load Test
+The ProfilePageBenchmark from "JMH benchmarks" and the LoadTestServer from "load test harness" log in as user@example.com, which is now a real account. Both servers register the DatabaseContextListener (on H2) and the PasswordHashingContextListener, and create the user_account table and the account before the first login. The load test's registerUser operation sends a password, otherwise RegisterUserServlet would reject it before hashing.
+
+With this, the load test shows the effect of the hashing pool directly: during a login-heavy mix, the login p99 rises and 503s appear once the queue is full, while the profile view latency stays flat.
+
+
+
+10. Unit Tests (Pbkdf2PasswordHasherTest.java, PasswordHashingServiceTest.java, UserAccountStoreTest.java)
+The hasher tests use the lowest allowed cost, so they run in milliseconds. The pool tests use a hasher that blocks until the test releases it, which makes a full queue and a timeout happen on demand. The store test runs against an in-memory H2 database.
+
+
+package com.healthcare.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Pbkdf2PasswordHasherTest {
+
+    private final Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(10_000);
+
+    @Test
+    void testHashRecordsItsCostAndVerifies() {
+        String hash = hasher.hash("secret123".toCharArray());
+
+        String[] parts = hash.split("\\$");
+        assertEquals(5, parts.length);
+        assertEquals("pbkdf2-sha256", parts[1]);
+        assertEquals("10000", parts[2]);
+        assertTrue(hasher.verify("secret123".toCharArray(), hash));
+        assertFalse(hasher.needsRehash(hash));
+        // a new salt every time
+        assertNotEquals(hash, hasher.hash("secret123".toCharArray()));
+    }
+
+    @Test
+    void testWrongPasswordIsRejected() {
+        String hash = hasher.hash("secret123".toCharArray());
+
+        assertFalse(hasher.verify("secret124".toCharArray(), hash));
+        assertFalse(hasher.verify(new char[0], hash));
+    }
+
+    @Test
+    void testMalformedStoredHashIsRejected() {
+        String[] malformed = {
+                null,
+                "",
+                "secret123",
+                "$2a$10$abcdefghijklmnopqrstuv",
+                "$pbkdf2-sha256$many$c2FsdA$aGFzaA",
+                "$pbkdf2-sha256$0$c2FsdA$aGFzaA",
+                "$pbkdf2-sha256$10000$not base64!$aGFzaA",
+                "$pbkdf2-sha256$10000$c2FsdA$",
+                "$pbkdf2-sha256$10000$c2FsdA"
+        };
+        for (String stored : malformed) {
+            assertFalse(hasher.verify("secret123".toCharArray(), stored), stored);
+            assertTrue(hasher.needsRehash(stored), stored);
+        }
+    }
+
+    @Test
+    void testHashWithLowerCostNeedsRehashButStillVerifies() {
+        String weak = hasher.hash("secret123".toCharArray());
+        Pbkdf2PasswordHasher stronger = new Pbkdf2PasswordHasher(20_000);
+
+        assertTrue(stronger.needsRehash(weak));
+        assertTrue(stronger.verify("secret123".toCharArray(), weak));
+    }
+}
+
+
+package com.healthcare.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHashingServiceTest {
+
+    private final BlockingHasher hasher = new BlockingHasher();
+    private final ExecutorService callers = Executors.newFixedThreadPool(2);
+    private PasswordHashingService service;
+
+    @AfterEach
+    void tearDown() {
+        hasher.release.countDown();
+        callers.shutdownNow();
+        service.close();
+    }
+
+    @Test
+    void testFullQueueIsRejectedAtOnce() throws Exception {
+        service = new PasswordHashingService(hasher, 1, 1, 5_000);
+
+        Future<Boolean> running = callers.submit(() -> service.verify("a".toCharArray(), "stored"));
+        assertTrue(hasher.started.await(5, TimeUnit.SECONDS));
+        Future<Boolean> queued = callers.submit(() -> service.verify("b".toCharArray(), "stored"));
+        while (service.getQueueDepth() == 0) {
+            Thread.sleep(1);
+        }
+
+        long start = System.nanoTime();
+        assertThrows(HashingUnavailableException.class, () -> service.verify("c".toCharArray(), "stored"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "rejected without waiting");
+        assertEquals(1, service.getMetrics().getRejected());
+
+        hasher.release.countDown();
+        assertTrue(running.get(5, TimeUnit.SECONDS));
+        assertTrue(queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testSlowHashTimesOut() {
+        service = new PasswordHashingService(hasher, 1, 1, 50);
+
+        assertThrows(HashingUnavailableException.class, () -> service.verify("a".toCharArray(), "stored"));
+        assertEquals(1, service.getMetrics().getTimedOut());
+    }
+
+    @Test
+    void testUnknownUserNeverMatches() throws Exception {
+        service = new PasswordHashingService(hasher, 1, 1, 5_000);
+        hasher.release.countDown();
+
+        assertFalse(service.verify("a".toCharArray(), null));
+    }
+
+    // verify() blocks until release is counted down, then accepts any password
+    private static final class BlockingHasher implements PasswordHasher {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public String hash(char[] password) {
+            return "hash";
+        }
+
+        @Override
+        public boolean verify(char[] password, String storedHash) {
+            started.countDown();
+            try {
+                release.await();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // cancelled by the timeout
+                return false;
+            }
+        }
+
+        @Override
+        public boolean needsRehash(String storedHash) {
+            return false;
+        }
+    }
+}
+
+
+package com.healthcare.db;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserAccountStoreTest {
+
+    private static final String EMAIL = "user@example.com";
+
+    private static ConnectionPool pool;
+
+    private final UserAccountStore store = new UserAccountStore();
+
+    @BeforeAll
+    static void createTable() throws SQLException {
+        pool = new ConnectionPool(new PoolConfig("jdbc:h2:mem:accounts;DB_CLOSE_DELAY=-1", "sa", ""));
+        DatabaseConnection.init(pool);
+        execute("CREATE TABLE user_account (email VARCHAR(255) PRIMARY KEY, full_name VARCHAR(100) NOT NULL, "
+                + "gender VARCHAR(10), age VARCHAR(3), password_hash VARCHAR(255) NOT NULL)");
+    }
+
+    @AfterAll
+    static void closePool() {
+        pool.close();
+    }
+
+    @BeforeEach
+    void insertAccount() throws SQLException {
+        execute("DELETE FROM user_account");
+        execute("INSERT INTO user_account VALUES ('" + EMAIL + "', 'John Doe', 'Male', '30', 'old')");
+    }
+
+    @Test
+    void testRehashReplacesTheHashItStartedFrom() throws SQLException {
+        assertTrue(store.updatePasswordHash(EMAIL, "old", "rehashed"));
+
+        assertEquals("rehashed", store.findByEmail(EMAIL).getPasswordHash());
+    }
+
+    @Test
+    void testRehashDoesNotOverwriteAChangedPassword() throws SQLException {
+        // the user changes the password while the rehash of the old one is running
+        assertTrue(store.updatePasswordHash(EMAIL, "old", "changed"));
+
+        assertFalse(store.updatePasswordHash(EMAIL, "old", "rehashed"));
+        assertEquals("changed", store.findByEmail(EMAIL).getPasswordHash());
+    }
+
+    @Test
+    void testRehashOfUnknownAccountDoesNothing() throws SQLException {
+        assertFalse(store.updatePasswordHash("nobody@example.com", "old", "rehashed"));
+    }
+
+    private static void execute(String sql) throws SQLException {
+        try (Connection con = DatabaseConnection.getConnection(); Statement st = con.createStatement()) {
+            st.executeUpdate(sql);
+        }
+    }
+}
+
+
+Explanation:
+Slow hashing: PBKDF2 with 600,000 iterations makes each guess expensive for an attacker who has the table. The salt makes every hash unique, even for equal passwords.
+Bounded pool: hashing runs only on auth.hash.threads threads, so it can never take more than that share of the CPU, however many logins arrive.
+Admission queue: a fixed-size queue in front of the pool. When it is full, the login is rejected at once with 503, instead of waiting on a container thread that other servlets need.
+Rehash-on-login: the cost is stored in each hash. When it is lower than the configured cost, the password is hashed again in the background after a successful login, and stored only if the hash has not changed in the meantime.
+Unknown users: are verified against a dummy hash, so a failed login takes the same time whether or not the email exists.
+Metrics: hash time, queue wait, rejections, timeouts and rehashes, so the pool size and the cost can be tuned from real numbers.
+
+
+
+Summary
+Passwords are now stored as salted PBKDF2 hashes, and all hashing runs on a small, dedicated thread pool with a bounded admission queue. A login storm is limited to that pool and answered with 503 when it is full, so the rest of the application keeps running. Raising the cost only needs a configuration change; existing hashes are upgraded as users log in.
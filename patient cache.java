@@ -0,0 +1,325 @@
+PatientService.getPatient(Long) calls PatientDAO.findByPatientId on every request. In practice, the same small group of admitted patients is read thousands of times an hour by the doctors' screens, so most of these queries return exactly the same row as the last one.
+
+In this part, we'll put an in-process cache in front of getPatient:
+
+Read-through: getPatient looks in the cache first and only calls the DAO on a miss.
+Size-bounded and frequency-aware: we use Caffeine, whose eviction policy (W-TinyLFU) keeps entries that are read often and quickly drops one-off lookups, so a burst of rarely-viewed patients cannot push the hot ones out.
+Time-to-live: entries expire after a configurable time, as a safety net for changes made outside PatientService.
+Invalidation: addPatient (which also handles updates, since it calls save) and deletePatient remove the affected entry.
+Statistics: hit, miss and eviction counts are available for monitoring.
+Optional: the cache is switched on with a property, so one group of servers can run with it and another without it (A/B comparison).
+
+
+
+1. Add the Caffeine Dependency
+Add this to your pom.xml:
+
+
+<dependency>
+    <groupId>com.github.ben-manes.caffeine</groupId>
+    <artifactId>caffeine</artifactId>
+    <version>2.9.3</version>
+</dependency>
+
+
+
+2. Cache Settings (application.properties)
+The cache is disabled unless healthcare.patient-cache.enabled is true.
+
+
+healthcare.patient-cache.enabled=true
+healthcare.patient-cache.maximum-size=10000
+healthcare.patient-cache.ttl=10m
+
+
+
+3. Cache Properties (PatientCacheProperties.java)
+Binds the settings above.
+
+
+package com.healthcare.management.cache;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "healthcare.patient-cache")
+public class PatientCacheProperties {
+    private boolean enabled;
+    private long maximumSize = 10_000;
+    private Duration ttl = Duration.ofMinutes(10);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public Duration getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(Duration ttl) {
+        this.ttl = ttl;
+    }
+}
+
+
+
+4. The Cache (PatientCache.java)
+A thin wrapper around a Caffeine cache keyed by patient id. Keeping it behind our own class means PatientService does not depend on Caffeine directly, and the statistics are reported in one place.
+
+Patients that do not exist are not cached (Caffeine does not store null values), so a lookup for an unknown id always goes to the database.
+
+
+package com.healthcare.management.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.healthcare.management.model.Patient;
+
+import java.util.function.Function;
+
+public class PatientCache {
+
+    private final Cache<Long, Patient> cache;
+
+    public PatientCache(PatientCacheProperties properties) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .recordStats()
+                .build();
+    }
+
+    public Patient get(Long patientId, Function<Long, Patient> loader) {
+        return cache.get(patientId, loader);
+    }
+
+    public void invalidate(Long patientId) {
+        if (patientId != null) {
+            cache.invalidate(patientId);
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+}
+
+
+
+5. Cache Configuration (PatientCacheConfig.java)
+The PatientCache bean is only created when the cache is enabled. When it is disabled, there is no bean, and PatientService receives null.
+
+
+package com.healthcare.management.cache;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(PatientCacheProperties.class)
+public class PatientCacheConfig {
+
+    @Bean
+    @ConditionalOnProperty(prefix = "healthcare.patient-cache", name = "enabled", havingValue = "true")
+    public PatientCache patientCache(PatientCacheProperties properties) {
+        return new PatientCache(properties);
+    }
+}
+
+
+
+6. PatientService Reading Through the Cache (PatientService.java)
+getPatient reads through the cache when there is one. addPatient and deletePatient invalidate the entry after the DAO call, so the next read loads the current row.
+
+The single-argument constructor is kept, so code (and tests) that create PatientService without a cache keep working.
+
+Cached Patient objects are shared between requests, so callers must treat the result of getPatient as read-only and send changes through addPatient.
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.cache.PatientCache;
+import com.healthcare.management.dao.PatientDAO;
+import com.healthcare.management.model.Patient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import java.util.List;
+
+@Service
+public class PatientService {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 200;
+
+    private final PatientDAO patientDAO;
+    private final PatientCache patientCache;
+
+    // The cache is optional; pass null to read straight from the DAO
+    @Autowired
+    public PatientService(PatientDAO patientDAO, @Nullable PatientCache patientCache) {
+        this.patientDAO = patientDAO;
+        this.patientCache = patientCache;
+    }
+
+    public Patient getPatient(Long patientId) {
+        if (patientCache == null) {
+            return patientDAO.findByPatientId(patientId);
+        }
+        return patientCache.get(patientId, patientDAO::findByPatientId);
+    }
+
+    /**
+     * Loads every patient into memory. Use {@link #getPatientsPage(Long, int)} instead.
+     */
+    @Deprecated
+    public List<Patient> getAllPatients() {
+        return patientDAO.findAll();
+    }
+
+    // Returns up to pageSize patients with an id greater than afterPatientId (null for the first page)
+    public PatientPage getPatientsPage(Long afterPatientId, int pageSize) {
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        long after = afterPatientId == null ? 0L : afterPatientId;
+
+        List<Patient> rows = patientDAO.findByPatientIdGreaterThanOrderByPatientIdAsc(after, PageRequest.of(0, size + 1));
+
+        if (rows.size() > size) {
+            List<Patient> page = rows.subList(0, size);
+            return new PatientPage(page, page.get(size - 1).getPatientId());
+        }
+        return new PatientPage(rows, null);
+    }
+
+    public Patient addPatient(Patient patient) {
+        Patient saved = patientDAO.save(patient);
+        if (patientCache != null) {
+            patientCache.invalidate(saved.getPatientId());
+        }
+        return saved;
+    }
+
+    public void deletePatient(Long patientId) {
+        patientDAO.deleteById(patientId);
+        if (patientCache != null) {
+            patientCache.invalidate(patientId);
+        }
+    }
+}
+
+
+The invalidation happens after the write. If it happened before, a concurrent getPatient could reload the old row between the invalidation and the write and keep it in the cache until the TTL expires.
+
+
+
+7. Cache Statistics Endpoint (PatientCacheController.java)
+Returns the hit, miss and eviction counts, so the A/B groups can be compared. When the cache is disabled, the endpoint reports that instead.
+
+
+package com.healthcare.management.controller;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.healthcare.management.cache.PatientCache;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+public class PatientCacheController {
+
+    private final ObjectProvider<PatientCache> patientCache;
+
+    public PatientCacheController(ObjectProvider<PatientCache> patientCache) {
+        this.patientCache = patientCache;
+    }
+
+    @GetMapping("/admin/cache/patients")
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        PatientCache cache = patientCache.getIfAvailable();
+        result.put("enabled", cache != null);
+        if (cache != null) {
+            CacheStats stats = cache.stats();
+            result.put("size", cache.size());
+            result.put("hits", stats.hitCount());
+            result.put("misses", stats.missCount());
+            result.put("hitRate", stats.hitRate());
+            result.put("evictions", stats.evictionCount());
+            result.put("averageLoadMillis", stats.averageLoadPenalty() / 1_000_000.0);
+        }
+        return result;
+    }
+}
+
+
+
+8. Unit Tests for the Cache (PatientServiceTest.java)
+PatientServiceTest creates PatientService through @InjectMocks, which passes null for the cache because there is no PatientCache mock, so the existing tests still exercise the uncached path. The cached path is tested separately with a real PatientCache and a mocked DAO.
+
+
+    @Test
+    void testGetPatientReadsThroughCache() {
+        PatientService cachedService = new PatientService(patientDAO, new PatientCache(new PatientCacheProperties()));
+        when(patientDAO.findByPatientId(1L)).thenReturn(mockPatient);
+
+        cachedService.getPatient(1L);
+        Patient result = cachedService.getPatient(1L);
+
+        assertEquals("John Doe", result.getName());
+        verify(patientDAO, times(1)).findByPatientId(1L);
+    }
+
+    @Test
+    void testAddPatientInvalidatesCachedEntry() {
+        PatientService cachedService = new PatientService(patientDAO, new PatientCache(new PatientCacheProperties()));
+        Patient renamed = new Patient(1L, "John Smith", "john.doe@example.com", "1234567890");
+        when(patientDAO.findByPatientId(1L)).thenReturn(mockPatient, renamed);
+        when(patientDAO.save(renamed)).thenReturn(renamed);
+
+        cachedService.getPatient(1L);
+        cachedService.addPatient(renamed);
+
+        assertEquals("John Smith", cachedService.getPatient(1L).getName());
+        verify(patientDAO, times(2)).findByPatientId(1L);
+    }
+
+
+
+Explanation:
+Read-through: on a hit, getPatient never touches the DAO; on a miss, Caffeine loads the patient once, even if several threads ask for the same id at the same time.
+W-TinyLFU: Caffeine keeps a compact frequency sketch of recent reads and only admits a new entry if it is likely to be read more than the entry it would evict.
+Invalidation: writes through PatientService remove the entry; the TTL limits how long changes made outside PatientService can stay hidden.
+A/B: healthcare.patient-cache.enabled controls whether the bean exists, so the same build can run cached and uncached.
+
+
+
+Summary
+Repeated reads of the same patients are now served from memory. The cache is bounded by size and time, is invalidated by PatientService writes, reports its hit and miss rates, and can be turned on or off per deployment.
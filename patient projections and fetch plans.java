@@ -0,0 +1,574 @@
+PatientDAO returns full Patient entities, and Appointment only holds raw patient_id and doctor_id columns. A page that lists patients with their next appointments and doctor names has to load each patient, then the appointments of each patient, then each doctor. Once these are mapped as JPA relations, the same page written against the entities runs one query for the patients plus one more per patient and per doctor: the N+1 query problem. With a page of 50 patients, that is more than 50 statements where 2 would do.
+
+In this part, we'll add:
+
+A Doctor entity for the doctor table from the project documentation, and lazy, read-only relations from Appointment to Patient and Doctor.
+Projection queries on PatientDAO that return only id, name and email, without creating entities.
+An explicit fetch plan for "patient with upcoming appointments and doctor names": one query for a whole page of patients, with the doctor's name and specialty joined in.
+An entity graph for code that needs the Patient entity with its appointments and doctors, loaded by one join.
+A test that counts the SQL statements each service call runs, using Hibernate statistics.
+
+
+
+1. The Doctor Entity (Doctor.java)
+Maps the doctor table from the project documentation. The table already exists, so there is no schema change. The id is a Long, like Appointment.doctorId.
+
+
+package com.healthcare.management.model;
+
+import javax.persistence.*;
+
+@Entity
+@Table(name = "doctor")
+public class Doctor {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "doctor_id")
+    private Long doctorId;
+
+    @Column(nullable = false)
+    private String name;
+
+    private String specialty;
+
+    @Column(name = "phone_number")
+    private String phone;
+
+    private String email;
+
+    protected Doctor() {
+    }
+
+    public Doctor(String name, String specialty, String phone, String email) {
+        this.name = name;
+        this.specialty = specialty;
+        this.phone = phone;
+        this.email = email;
+    }
+
+    public Long getDoctorId() {
+        return doctorId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getSpecialty() {
+        return specialty;
+    }
+
+    public void setSpecialty(String specialty) {
+        this.specialty = specialty;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public void setPhone(String phone) {
+        this.phone = phone;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+}
+
+
+
+2. Mapping the Relations (Appointment.java, Patient.java)
+Add these fields and getters to Appointment. They map the same columns as patientId and doctorId, but with insertable = false and updatable = false. The Long ids are still what gets saved, so AppointmentService, the availability index and POST /appointments do not change.
+
+
+    // Read-only views of the patient_id and doctor_id columns above, which are still what gets saved.
+    // Lazy, so loading an appointment never loads its patient or doctor by itself.
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "patient_id", insertable = false, updatable = false)
+    private Patient patient;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "doctor_id", insertable = false, updatable = false)
+    private Doctor doctor;
+
+    @JsonIgnore
+    public Patient getPatient() {
+        return patient;
+    }
+
+    @JsonIgnore
+    public Doctor getDoctor() {
+        return doctor;
+    }
+
+
+Add this to Patient. The collection is the inverse side of Appointment.patient, so it is never written:
+
+
+    @OneToMany(mappedBy = "patient")
+    @OrderBy("appointmentDate ASC, appointmentTime ASC")
+    private List<Appointment> appointments = new ArrayList<>();
+
+    // Only loaded when asked for; see PatientDAO.findWithAppointmentsByPatientId
+    @JsonIgnore
+    public List<Appointment> getAppointments() {
+        return appointments;
+    }
+
+
+Additional imports for Appointment and Patient:
+
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.util.ArrayList;
+import java.util.List;
+
+
+All three relations are lazy, and their getters are marked @JsonIgnore. Without it, Jackson would walk every relation while writing GET /patients/{id} or GET /appointments/{id}. It would either run a query per relation while writing the response, or fail on an uninitialized Hibernate proxy. Patients built by the patient cache from a PatientRecord always have an empty list, so code that needs the appointments uses the queries below.
+
+
+
+3. Read-Only Views (PatientSummary.java, UpcomingAppointment.java)
+Plain immutable classes. The queries build them with a JPQL constructor expression, so Hibernate does not create an entity for each row and the persistence context does not have to track one.
+
+
+package com.healthcare.management.model;
+
+// Read-only view of a patient for list pages; built by the query itself, never managed by JPA
+public final class PatientSummary {
+    private final Long patientId;
+    private final String name;
+    private final String email;
+
+    public PatientSummary(Long patientId, String name, String email) {
+        this.patientId = patientId;
+        this.name = name;
+        this.email = email;
+    }
+
+    public static PatientSummary of(Patient patient) {
+        return new PatientSummary(patient.getPatientId(), patient.getName(), patient.getEmail());
+    }
+
+    public Long getPatientId() {
+        return patientId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+}
+
+
+package com.healthcare.management.model;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+// One appointment with its doctor's name and specialty, read in the same statement
+public final class UpcomingAppointment {
+    private final Long patientId;
+    private final Long appointmentId;
+    private final LocalDate appointmentDate;
+    private final LocalTime appointmentTime;
+    private final Long doctorId;
+    private final String doctorName;
+    private final String specialty;
+
+    public UpcomingAppointment(Long patientId, Long appointmentId, LocalDate appointmentDate,
+                               LocalTime appointmentTime, Long doctorId, String doctorName, String specialty) {
+        this.patientId = patientId;
+        this.appointmentId = appointmentId;
+        this.appointmentDate = appointmentDate;
+        this.appointmentTime = appointmentTime;
+        this.doctorId = doctorId;
+        this.doctorName = doctorName;
+        this.specialty = specialty;
+    }
+
+    public Long getPatientId() {
+        return patientId;
+    }
+
+    public Long getAppointmentId() {
+        return appointmentId;
+    }
+
+    public LocalDate getAppointmentDate() {
+        return appointmentDate;
+    }
+
+    public LocalTime getAppointmentTime() {
+        return appointmentTime;
+    }
+
+    public Long getDoctorId() {
+        return doctorId;
+    }
+
+    public String getDoctorName() {
+        return doctorName;
+    }
+
+    public String getSpecialty() {
+        return specialty;
+    }
+}
+
+
+
+4. Projections and Fetch Plans (PatientDAO.java)
+findSummariesAfter() is the keyset page from "keyset pagination for patients", but it selects only three columns.
+
+findUpcomingAppointments() is the fetch plan for list pages. It takes the ids of a whole page and joins the doctor in the same statement. Page size changes the length of the IN list, not the number of statements.
+
+findWithAppointmentsByPatientId() is for code that needs the entities themselves. The @EntityGraph makes Hibernate load the appointments and their doctors with left joins in the same query, instead of lazily afterwards.
+
+
+package com.healthcare.management.dao;
+
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.model.PatientSearchRow;
+import com.healthcare.management.model.PatientSummary;
+import com.healthcare.management.model.UpcomingAppointment;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.QueryHint;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
+@Repository
+public interface PatientDAO extends JpaRepository<Patient, Long> {
+    Patient findByPatientId(Long patientId);
+
+    // Keyset pagination: rows after the given id, in id order; pass PageRequest.of(0, limit)
+    List<Patient> findByPatientIdGreaterThanOrderByPatientIdAsc(Long afterPatientId, Pageable limit);
+
+    // The searchable fields of every patient, read row by row without creating entities;
+    // call inside a transaction and close the stream
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT new com.healthcare.management.model.PatientSearchRow(p.patientId, p.version, p.name, p.email, "
+            + "p.phone) FROM Patient p")
+    Stream<PatientSearchRow> streamSearchRows();
+
+    // Fallback search when the in-memory index is disabled
+    List<Patient> findByNameContainingIgnoreCaseOrderByPatientIdAsc(String name, Pageable limit);
+
+    // Same keyset page as above, but only id, name and email; no entities are created
+    @Query("SELECT new com.healthcare.management.model.PatientSummary(p.patientId, p.name, p.email) "
+            + "FROM Patient p WHERE p.patientId > :after ORDER BY p.patientId")
+    List<PatientSummary> findSummariesAfter(@Param("after") Long afterPatientId, Pageable limit);
+
+    // Appointments on or after the given date for all the given patients, with doctor names, in one statement
+    @Query("SELECT new com.healthcare.management.model.UpcomingAppointment(a.patientId, a.appointmentId, "
+            + "a.appointmentDate, a.appointmentTime, d.doctorId, d.name, d.specialty) "
+            + "FROM Appointment a JOIN a.doctor d "
+            + "WHERE a.patientId IN :patientIds AND a.appointmentDate >= :from "
+            + "ORDER BY a.patientId, a.appointmentDate, a.appointmentTime")
+    List<UpcomingAppointment> findUpcomingAppointments(@Param("patientIds") Collection<Long> patientIds,
+                                                       @Param("from") LocalDate from);
+
+    // The patient entity with all its appointments and their doctors loaded by one join
+    @EntityGraph(attributePaths = {"appointments", "appointments.doctor"})
+    Patient findWithAppointmentsByPatientId(Long patientId);
+}
+
+
+
+5. Patient Schedules (PatientSchedule.java, PatientService.java)
+A PatientSchedule is a patient summary with the upcoming appointments, earliest first.
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.model.PatientSummary;
+import com.healthcare.management.model.UpcomingAppointment;
+
+import java.util.List;
+
+public class PatientSchedule {
+    private final PatientSummary patient;
+    private final List<UpcomingAppointment> appointments;
+
+    public PatientSchedule(PatientSummary patient, List<UpcomingAppointment> appointments) {
+        this.patient = patient;
+        this.appointments = appointments;
+    }
+
+    public PatientSummary getPatient() {
+        return patient;
+    }
+
+    // Earliest first
+    public List<UpcomingAppointment> getAppointments() {
+        return appointments;
+    }
+}
+
+
+Add these methods to PatientService. getPatientSchedules() runs two statements for any page size: one for the summaries, then one for the appointments of all of them, which are grouped by patient in memory.
+
+
+    // One statement per page; for lists that only show who the patients are
+    public List<PatientSummary> getPatientSummaries(Long afterPatientId, int pageSize) {
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        long after = afterPatientId == null ? 0L : afterPatientId;
+        return patientDAO.findSummariesAfter(after, PageRequest.of(0, size));
+    }
+
+    // Two statements whatever the page size: the summaries, then the appointments of the whole page
+    public List<PatientSchedule> getPatientSchedules(Long afterPatientId, int pageSize, LocalDate from) {
+        List<PatientSummary> patients = getPatientSummaries(afterPatientId, pageSize);
+        if (patients.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<Long, List<UpcomingAppointment>> byPatient = new HashMap<>();
+        for (PatientSummary patient : patients) {
+            byPatient.put(patient.getPatientId(), new ArrayList<>());
+        }
+        for (UpcomingAppointment appointment : patientDAO.findUpcomingAppointments(byPatient.keySet(), from)) {
+            byPatient.get(appointment.getPatientId()).add(appointment);
+        }
+
+        List<PatientSchedule> schedules = new ArrayList<>(patients.size());
+        for (PatientSummary patient : patients) {
+            schedules.add(new PatientSchedule(patient, byPatient.get(patient.getPatientId())));
+        }
+        return schedules;
+    }
+
+    // Null if there is no such patient. The patient is read through getPatient(), so with the
+    // patient cache enabled only the appointments query reaches the database.
+    public PatientSchedule getPatientSchedule(Long patientId, LocalDate from) {
+        Patient patient = getPatient(patientId);
+        if (patient == null) {
+            return null;
+        }
+        List<UpcomingAppointment> appointments =
+                patientDAO.findUpcomingAppointments(Collections.singletonList(patientId), from);
+        return new PatientSchedule(PatientSummary.of(patient), appointments);
+    }
+
+
+Additional imports for PatientService:
+
+
+import com.healthcare.management.model.PatientSummary;
+import com.healthcare.management.model.UpcomingAppointment;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+
+6. Endpoints (PatientController.java)
+Add these methods to PatientController. Like GET /patients, the list endpoints take the last patientId of the previous page as after.
+
+
+    @GetMapping("/summaries")
+    public List<PatientSummary> listPatientSummaries(@RequestParam(required = false) Long after,
+                                                     @RequestParam(defaultValue = "" + PatientService.DEFAULT_PAGE_SIZE) int size) {
+        return patientService.getPatientSummaries(after, size);
+    }
+
+    @GetMapping("/schedules")
+    public List<PatientSchedule> listPatientSchedules(@RequestParam(required = false) Long after,
+                                                      @RequestParam(defaultValue = "" + PatientService.DEFAULT_PAGE_SIZE) int size) {
+        return patientService.getPatientSchedules(after, size, LocalDate.now());
+    }
+
+    @GetMapping("/{id}/schedule")
+    public ResponseEntity<PatientSchedule> getPatientSchedule(@PathVariable Long id) {
+        PatientSchedule schedule = patientService.getPatientSchedule(id, LocalDate.now());
+        return schedule == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(schedule);
+    }
+
+
+Additional imports for PatientController:
+
+
+import com.healthcare.management.model.PatientSummary;
+import com.healthcare.management.service.PatientSchedule;
+import java.time.LocalDate;
+
+
+
+7. Counting Statements (PatientServiceStatementCountTest.java)
+The test runs against an in-memory H2 database with Hibernate statistics switched on. After the test data is flushed and the persistence context cleared, getPrepareStatementCount() is the number of SQL statements the call under test sent to the database. A new query or a lazy load in one of these paths makes the test fail.
+
+The last test keeps the N+1 pattern itself on record: the same page navigated through the entities takes 23 statements instead of 2.
+
+Add H2 to the test dependencies:
+
+
+<dependency>
+    <groupId>com.h2database</groupId>
+    <artifactId>h2</artifactId>
+    <version>2.2.224</version>
+    <scope>test</scope>
+</dependency>
+
+
+package com.healthcare.management.service;
+
+import com.healthcare.management.dao.PatientDAO;
+import com.healthcare.management.model.Appointment;
+import com.healthcare.management.model.Doctor;
+import com.healthcare.management.model.Patient;
+import com.healthcare.management.model.PatientSummary;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class PatientServiceStatementCountTest {
+
+    private static final int PATIENTS = 20;
+    private static final LocalDate TODAY = LocalDate.of(2025, 3, 3);
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PatientDAO patientDAO;
+
+    private PatientService patientService;
+    private Statistics statistics;
+    private Long firstPatientId;
+
+    // Every patient has one past and two upcoming appointments, with two different doctors
+    @BeforeEach
+    void setUp() {
+        Doctor smith = entityManager.persist(new Doctor("Dr. Smith", "Cardiology", "555-0100", "smith@example.com"));
+        Doctor jones = entityManager.persist(new Doctor("Dr. Jones", "Dermatology", "555-0200", "jones@example.com"));
+        for (int i = 0; i < PATIENTS; i++) {
+            Patient patient = entityManager.persist(new Patient(null, "Patient " + i, "patient" + i + "@example.com", "555-1" + i));
+            if (i == 0) {
+                firstPatientId = patient.getPatientId();
+            }
+            LocalTime time = LocalTime.of(8, 0).plusMinutes(15L * i);
+            entityManager.persist(new Appointment(patient.getPatientId(), smith.getDoctorId(), TODAY.minusDays(7), time));
+            entityManager.persist(new Appointment(patient.getPatientId(), jones.getDoctorId(), TODAY.plusDays(2), time));
+            entityManager.persist(new Appointment(patient.getPatientId(), smith.getDoctorId(), TODAY.plusDays(1), time));
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        patientService = new PatientService(patientDAO, null, null, null); // no cache, index or counters
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void testSummaryPageIsOneStatementWithoutEntities() {
+        List<PatientSummary> page = patientService.getPatientSummaries(null, PATIENTS);
+
+        assertEquals(PATIENTS, page.size());
+        assertEquals("Patient 0", page.get(0).getName());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void testSchedulePageIsTwoStatementsWhateverThePageSize() {
+        List<PatientSchedule> schedules = patientService.getPatientSchedules(null, PATIENTS, TODAY);
+
+        assertEquals(PATIENTS, schedules.size());
+        for (PatientSchedule schedule : schedules) {
+            assertEquals(2, schedule.getAppointments().size());
+            assertEquals("Dr. Smith", schedule.getAppointments().get(0).getDoctorName());
+            assertEquals("Dermatology", schedule.getAppointments().get(1).getSpecialty());
+        }
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void testSinglePatientScheduleIsTwoStatements() {
+        PatientSchedule schedule = patientService.getPatientSchedule(firstPatientId, TODAY);
+
+        assertEquals("Patient 0", schedule.getPatient().getName());
+        assertEquals(TODAY.plusDays(1), schedule.getAppointments().get(0).getAppointmentDate());
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void testEntityFetchPlanIsOneStatement() {
+        Patient patient = patientDAO.findWithAppointmentsByPatientId(firstPatientId);
+
+        assertEquals(3, patient.getAppointments().size());
+        for (Appointment appointment : patient.getAppointments()) {
+            assertNotNull(appointment.getDoctor().getName());
+        }
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    // The N+1 pattern the queries above replace: one statement for the page, one per patient
+    // for its appointments, and one per distinct doctor
+    @Test
+    void testLazyNavigationIsOneStatementPerPatient() {
+        List<Patient> page = patientDAO.findByPatientIdGreaterThanOrderByPatientIdAsc(0L, PageRequest.of(0, PATIENTS));
+        for (Patient patient : page) {
+            for (Appointment appointment : patient.getAppointments()) {
+                assertNotNull(appointment.getDoctor().getName());
+            }
+        }
+
+        assertEquals(1 + PATIENTS + 2, statistics.getPrepareStatementCount());
+    }
+}
+
+
+
+Explanation:
+N+1 queries: navigating lazy relations inside a loop runs one query per element. The test shows 23 statements for 20 patients; with 200 it would be over 200.
+Projections: a constructor expression reads only the columns it needs and creates no entities, so nothing is tracked or checked for changes at flush.
+One query per page: the appointments of a whole page are read with one IN query and grouped in memory. The number of statements stays the same whatever the page size.
+Entity graph: when the entities are really needed, @EntityGraph names the relations to load in the same query, instead of relying on each relation's default fetch type.
+Read-only relations: insertable = false and updatable = false let the relations share the patient_id and doctor_id columns without changing how appointments are saved.
+Statement counts: Hibernate statistics count each prepared statement, so the test fails if a change adds a query to one of these paths.
+
+
+
+Summary
+List pages now read patient summaries with one statement, and patients with their upcoming appointments and doctor names with two, whatever the page size. Code that needs the entities gets them with one join through an entity graph. Appointment, Patient and the new Doctor entity are linked by lazy, read-only relations that are hidden from JSON, and a test counts the statements of every new service call so N+1 loading cannot come back unnoticed.
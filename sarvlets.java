@@ -156,17 +156,17 @@ Set up a database with relevant tables (e.g., patients, users, etc.).
 Use JDBC (Java Database Connectivity) or an ORM like Hibernate to interact with the database.
 Here is an example of how you might connect to a MySQL database in your servlet:
 
+package com.healthcare.db;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
-public class DatabaseConnection {
+public final class DatabaseConnection {
+    // init() and getPool() are shown in "connection pool for DatabaseConnection"
+
     public static Connection getConnection() throws SQLException {
-        String url = "jdbc:mysql://localhost:3306/healthcare_db";
-        String user = "root";
-        String password = "your_password";
-        return DriverManager.getConnection(url, user, password);
+        return getPool().getConnection();
     }
 
     public static void insertPatient(String name, int age, String disease) {
@@ -184,6 +184,8 @@ public class DatabaseConnection {
     }
 }
 
+Opening a new connection with DriverManager.getConnection(...) for every insert is expensive (a TCP handshake plus MySQL authentication each time), so getConnection() borrows from the application's connection pool. The pool is created once at startup from the <context-param> settings in web.xml, so the database URL and credentials are not in the code. Closing the connection in try-with-resources returns it to the pool.
+
 
 
 7.( Running the Project)
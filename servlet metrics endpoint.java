@@ -0,0 +1,468 @@
+When the application is slow in production, we cannot tell where. Is it LoginServlet, RegisterPatientServlet, ViewPatientServlet, or a JSP? Are the requests slow, or are they failing? The pool, write-behind queue and session store each have their own metrics, but nothing measures the requests themselves.
+
+In this part, we'll add a servlet Filter that measures every request, and an endpoint that publishes the numbers in the Prometheus text format:
+
+Per servlet and per HTTP method (GET for doGet, POST for doPost, ...): the request count, the error count, and a latency histogram.
+The recorders are LongAdders, which are designed for many threads incrementing the same counter. There are no locks and no allocation per request.
+Asynchronous requests (ViewPatientServlet and UpdatePatientServlet in async mode) are measured until they complete, not until the servlet returns.
+GET /metrics returns all counters in the format Prometheus scrapes, so the numbers can be graphed and alerted on.
+
+
+
+1. Recording One Servlet and Method (RequestMetrics.java)
+Latencies are counted into fixed buckets, the same buckets Prometheus clients use by default: from 1 ms to 10 s, plus an overflow bucket. Recording a request is a short scan of the bucket bounds and three LongAdder increments (the bucket, the total time and, for a failure, the error count). The request count is the sum of the buckets, so it is always consistent with them.
+
+The bounds are compared in nanoseconds, so recording needs no floating-point arithmetic.
+
+
+package com.healthcare.servlet.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class RequestMetrics {
+
+    // Upper bounds of the latency buckets in seconds, as published in the "le" label
+    static final double[] BUCKET_SECONDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    // One counter per bucket; the last one counts requests slower than the largest bound
+    private final LongAdder[] buckets = new LongAdder[BUCKET_NANOS.length + 1];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    RequestMetrics() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos, boolean error) {
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        totalNanos.add(nanos);
+        if (error) {
+            errors.increment();
+        }
+    }
+
+    // Cumulative counts: element i is the number of requests that took at most BUCKET_SECONDS[i]
+    long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long running = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            running += buckets[i].sum();
+            counts[i] = running;
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public double getTotalSeconds() {
+        return totalNanos.sum() / 1e9;
+    }
+}
+
+
+A scrape that runs while requests are being recorded may see a bucket incremented before the total time. Prometheus tolerates this: each scrape is a snapshot, and rates are computed over many of them.
+
+
+
+2. HTTP Methods (RequestMethod.java)
+The metrics for one servlet are an array indexed by method, so finding the recorder for a request does not build a key string.
+
+
+package com.healthcare.servlet.metrics;
+
+enum RequestMethod {
+    GET, POST, PUT, DELETE, HEAD, OTHER;
+
+    static RequestMethod of(String method) {
+        switch (method) {
+            case "GET":
+                return GET;
+            case "POST":
+                return POST;
+            case "PUT":
+                return PUT;
+            case "DELETE":
+                return DELETE;
+            case "HEAD":
+                return HEAD;
+            default:
+                return OTHER;
+        }
+    }
+}
+
+
+
+3. The Registry (ServletMetricsRegistry.java)
+Holds the recorders of all servlets, keyed by servlet name. The lookup on the request path is a single ConcurrentHashMap.get(); the entry for a servlet is created the first time it receives a request.
+
+writePrometheus() writes the text exposition format. Servlets are written in name order and methods without requests are left out, so the output is stable and small.
+
+
+package com.healthcare.servlet.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ServletMetricsRegistry {
+
+    public static final String ATTRIBUTE = "servletMetrics";
+
+    private static final String REQUESTS = "healthcare_servlet_requests_total";
+    private static final String ERRORS = "healthcare_servlet_errors_total";
+    private static final String DURATION = "healthcare_servlet_request_duration_seconds";
+
+    private final ConcurrentHashMap<String, RequestMetrics[]> byServlet = new ConcurrentHashMap<>();
+
+    RequestMetrics metrics(String servletName, RequestMethod method) {
+        RequestMetrics[] methods = byServlet.get(servletName);
+        if (methods == null) {
+            methods = byServlet.computeIfAbsent(servletName, name -> newMethods());
+        }
+        return methods[method.ordinal()];
+    }
+
+    public void writePrometheus(Writer out) throws IOException {
+        Map<String, RequestMetrics[]> servlets = new TreeMap<>(byServlet);
+
+        out.write("# HELP " + REQUESTS + " Requests handled, by servlet and HTTP method.\n");
+        out.write("# TYPE " + REQUESTS + " counter\n");
+        for (Map.Entry<String, RequestMetrics[]> entry : servlets.entrySet()) {
+            for (RequestMethod method : RequestMethod.values()) {
+                RequestMetrics metrics = entry.getValue()[method.ordinal()];
+                long count = metrics.getCount();
+                if (count > 0) {
+                    out.write(REQUESTS + labels(entry.getKey(), method, null) + " " + count + "\n");
+                }
+            }
+        }
+
+        out.write("# HELP " + ERRORS + " Requests that failed with an exception or a 5xx status.\n");
+        out.write("# TYPE " + ERRORS + " counter\n");
+        for (Map.Entry<String, RequestMetrics[]> entry : servlets.entrySet()) {
+            for (RequestMethod method : RequestMethod.values()) {
+                RequestMetrics metrics = entry.getValue()[method.ordinal()];
+                if (metrics.getCount() > 0) {
+                    out.write(ERRORS + labels(entry.getKey(), method, null) + " " + metrics.getErrors() + "\n");
+                }
+            }
+        }
+
+        out.write("# HELP " + DURATION + " Request latency, from the filter to the end of the response.\n");
+        out.write("# TYPE " + DURATION + " histogram\n");
+        for (Map.Entry<String, RequestMetrics[]> entry : servlets.entrySet()) {
+            for (RequestMethod method : RequestMethod.values()) {
+                RequestMetrics metrics = entry.getValue()[method.ordinal()];
+                long[] cumulative = metrics.cumulativeCounts();
+                long count = cumulative[cumulative.length - 1];
+                if (count == 0) {
+                    continue;
+                }
+                for (int i = 0; i < RequestMetrics.BUCKET_SECONDS.length; i++) {
+                    out.write(DURATION + "_bucket" + labels(entry.getKey(), method,
+                            Double.toString(RequestMetrics.BUCKET_SECONDS[i])) + " " + cumulative[i] + "\n");
+                }
+                out.write(DURATION + "_bucket" + labels(entry.getKey(), method, "+Inf") + " " + count + "\n");
+                out.write(DURATION + "_sum" + labels(entry.getKey(), method, null) + " " + metrics.getTotalSeconds() + "\n");
+                out.write(DURATION + "_count" + labels(entry.getKey(), method, null) + " " + count + "\n");
+            }
+        }
+    }
+
+    private static RequestMetrics[] newMethods() {
+        RequestMetrics[] methods = new RequestMetrics[RequestMethod.values().length];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = new RequestMetrics();
+        }
+        return methods;
+    }
+
+    private static String labels(String servlet, RequestMethod method, String le) {
+        StringBuilder labels = new StringBuilder("{servlet=\"").append(escape(servlet))
+                .append("\",method=\"").append(method.name()).append('"');
+        if (le != null) {
+            labels.append(",le=\"").append(le).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    // Label values must escape backslash, double quote and newline
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
+
+
+The number of series is bounded by the number of servlets times the methods they receive. Servlet names come from web.xml and annotations, not from request URLs, so a client cannot create new series by requesting random paths: unknown paths are all recorded under the container's "default" servlet.
+
+
+
+4. The Filter (ServletMetricsFilter.java)
+The servlet name is taken from HttpServletRequest.getHttpServletMapping() (Servlet 4.0, Tomcat 9). The container has already matched the request to a servlet before the filter chain starts, so the name is known up front: "LoginServlet", "jsp" for JSP pages, "default" for static files and 404s.
+
+A request is counted as an error if the chain throws an exception or the response status is 5xx. 4xx responses are client errors (a wrong patientId, a missing login) and are counted as normal requests.
+
+If the servlet started async processing, the filter returns before the response is finished. In that case an AsyncListener records the request when the AsyncContext completes; a timeout or an async error counts as an error.
+
+
+package com.healthcare.servlet.metrics;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.*;
+
+public class ServletMetricsFilter implements Filter {
+
+    private ServletMetricsRegistry registry;
+
+    @Override
+    public void init(FilterConfig config) throws ServletException {
+        registry = new ServletMetricsRegistry();
+        config.getServletContext().setAttribute(ServletMetricsRegistry.ATTRIBUTE, registry);
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(req, res);
+            failed = false;
+        } finally {
+            RequestMetrics metrics = registry.metrics(servletName(request), RequestMethod.of(request.getMethod()));
+            if (!failed && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new AsyncCompletion(metrics, start));
+            } else {
+                metrics.record(System.nanoTime() - start, failed || response.getStatus() >= 500);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static String servletName(HttpServletRequest request) {
+        HttpServletMapping mapping = request.getHttpServletMapping();
+        String name = mapping == null ? null : mapping.getServletName();
+        return name == null ? "unmapped" : name;
+    }
+
+    // Records an async request when it completes; onComplete is called after onTimeout and onError too
+    private static final class AsyncCompletion implements AsyncListener {
+        private final RequestMetrics metrics;
+        private final long start;
+        private volatile boolean failed;
+
+        AsyncCompletion(RequestMetrics metrics, long start) {
+            this.metrics = metrics;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            ServletResponse response = event.getSuppliedResponse();
+            boolean serverError = response instanceof HttpServletResponse
+                    && ((HttpServletResponse) response).getStatus() >= 500;
+            metrics.record(System.nanoTime() - start, failed || serverError);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            failed = true;
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
+
+
+The filter is the first one in web.xml, so the measured time includes the other filters, such as loading the session in ExternalSessionFilter. It must support async processing for ViewPatientServlet and UpdatePatientServlet in async mode:
+
+
+<filter>
+    <filter-name>ServletMetricsFilter</filter-name>
+    <filter-class>com.healthcare.servlet.metrics.ServletMetricsFilter</filter-class>
+    <async-supported>true</async-supported>
+</filter>
+<filter-mapping>
+    <filter-name>ServletMetricsFilter</filter-name>
+    <url-pattern>/*</url-pattern>
+    <dispatcher>REQUEST</dispatcher>
+</filter-mapping>
+
+<!-- ExternalSessionFilter and the other filters follow -->
+
+
+With only the REQUEST dispatcher, a request forwarded from a servlet to its JSP is counted once, under the servlet that received it.
+
+
+
+5. The Scrape Endpoint (PrometheusMetricsServlet.java)
+Writes the registry in the Prometheus text format, version 0.0.4.
+
+
+package com.healthcare.servlet.metrics;
+
+import javax.servlet.*;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.*;
+import java.io.*;
+
+@WebServlet("/metrics")
+public class PrometheusMetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        ServletMetricsRegistry registry = (ServletMetricsRegistry) getServletContext()
+                .getAttribute(ServletMetricsRegistry.ATTRIBUTE);
+        if (registry == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "ServletMetricsFilter is not installed");
+            return;
+        }
+
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.setHeader("Cache-Control", "no-store");
+        try (Writer out = response.getWriter()) {
+            registry.writePrometheus(out);
+        }
+    }
+}
+
+
+Sample output:
+
+
+# HELP healthcare_servlet_requests_total Requests handled, by servlet and HTTP method.
+# TYPE healthcare_servlet_requests_total counter
+healthcare_servlet_requests_total{servlet="LoginServlet",method="POST"} 1824
+healthcare_servlet_requests_total{servlet="ViewPatientServlet",method="GET"} 20417
+# HELP healthcare_servlet_errors_total Requests that failed with an exception or a 5xx status.
+# TYPE healthcare_servlet_errors_total counter
+healthcare_servlet_errors_total{servlet="LoginServlet",method="POST"} 0
+healthcare_servlet_errors_total{servlet="ViewPatientServlet",method="GET"} 3
+# HELP healthcare_servlet_request_duration_seconds Request latency, from the filter to the end of the response.
+# TYPE healthcare_servlet_request_duration_seconds histogram
+healthcare_servlet_request_duration_seconds_bucket{servlet="LoginServlet",method="POST",le="0.001"} 102
+healthcare_servlet_request_duration_seconds_bucket{servlet="LoginServlet",method="POST",le="0.0025"} 1210
+...
+healthcare_servlet_request_duration_seconds_bucket{servlet="LoginServlet",method="POST",le="+Inf"} 1824
+healthcare_servlet_request_duration_seconds_sum{servlet="LoginServlet",method="POST"} 4.113
+healthcare_servlet_request_duration_seconds_count{servlet="LoginServlet",method="POST"} 1824
+
+
+The endpoint shows which servlets exist and how much traffic they get, so it should not be public. Restrict /metrics to the monitoring network, for example with a security-constraint in web.xml or at the load balancer.
+
+The Prometheus scrape configuration:
+
+
+scrape_configs:
+  - job_name: healthcare
+    metrics_path: /healthcare/metrics
+    static_configs:
+      - targets: ['app1:8080', 'app2:8080']
+
+
+Useful queries:
+
+
+# p99 latency per servlet over the last 5 minutes
+histogram_quantile(0.99, sum by (servlet, method, le) (rate(healthcare_servlet_request_duration_seconds_bucket[5m])))
+
+# error ratio per servlet
+sum by (servlet) (rate(healthcare_servlet_errors_total[5m])) / sum by (servlet) (rate(healthcare_servlet_requests_total[5m]))
+
+
+
+6. Measuring the Overhead (ServletMetricsBenchmark.java)
+A JMH benchmark in the benchmarks module from "JMH benchmarks" measures the recording path: the map lookup, the method switch, two System.nanoTime() calls and the LongAdder increments. Run it with one thread and with many threads to check that recording stays cheap under contention:
+
+
+java -jar target/benchmarks.jar ServletMetricsBenchmark -t 1
+java -jar target/benchmarks.jar ServletMetricsBenchmark -t 16 -prof gc
+
+
+The gc profiler should report 0 bytes allocated per operation.
+
+
+package com.healthcare.servlet.metrics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ServletMetricsBenchmark {
+
+    private final ServletMetricsRegistry registry = new ServletMetricsRegistry();
+
+    // Not final, so the JIT cannot treat them as constants
+    private String servletName = "ViewPatientServlet";
+    private String method = "GET";
+
+    @Benchmark
+    public void record() {
+        long start = System.nanoTime();
+        RequestMetrics metrics = registry.metrics(servletName, RequestMethod.of(method));
+        metrics.record(System.nanoTime() - start, false);
+    }
+}
+
+
+The benchmark is in the com.healthcare.servlet.metrics package of the benchmarks module, so it can call the package-private recording methods directly.
+
+
+
+Explanation:
+Per servlet and method: the servlet name comes from the container's mapping, the method from the request. Each pair has its own request count, error count and latency histogram.
+Low contention: every recorder is a LongAdder. Threads that increment the same counter at the same time update separate cells instead of fighting over one value, and the cells are only added up when /metrics is scraped.
+No allocation: the request path does one map lookup, one array index and a few increments, and creates no objects.
+Async requests: requests that use AsyncContext are recorded when they complete, so ViewPatientServlet's latency includes the lookup on the virtual thread.
+Prometheus format: counters and a histogram with standard bucket bounds, so histogram_quantile() and rate() work without any adapter.
+
+
+
+Summary
+ServletMetricsFilter records the count, errors and latency of every request per servlet and HTTP method with lock-free LongAdder counters, and /metrics publishes them in the Prometheus text format. Slow or failing servlets such as LoginServlet or ViewPatientServlet now show up directly on a dashboard, at a cost of a few increments per request.